@@ -0,0 +1,25 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Подключает счетчик загрузок коллекций HibernateRequestCounters.
+ * <p>
+ * Interceptor и StatementInspector задаются именами классов в application.properties, а слушатель событий
+ * Hibernate регистрируется только через Integrator. Свойство hibernate.integrator_provider Hibernate 5
+ * принимает лишь готовым объектом, поэтому оно добавляется здесь, а не в application.properties.
+ */
+@Configuration
+public class HibernateCountersConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer collectionLoadCounter() {
+        IntegratorProvider integrators = () -> List.of(new HibernateRequestCounters());
+        return properties -> properties.put("hibernate.integrator_provider", integrators);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.InitializeCollectionEvent;
+import org.hibernate.event.spi.InitializeCollectionEventListener;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+
+/**
+ * Считает SQL-запросы, загрузки сущностей и загрузки коллекций Hibernate в текущем потоке.
+ * Подключается свойствами hibernate.session_factory.statement_inspector и hibernate.session_factory.interceptor,
+ * а счетчик коллекций - слушателем инициализации коллекций (см. HibernateCountersConfig).
+ * Hibernate создает экземпляры сам, поэтому счетчики хранятся в статическом ThreadLocal.
+ * RequestMetricsInterceptor сбрасывает их в начале запроса и записывает в метрики в конце,
+ * что позволяет увидеть N+1 на конкретном endpoint.
+ */
+public class HibernateRequestCounters extends EmptyInterceptor
+        implements StatementInspector, Integrator, InitializeCollectionEventListener {
+
+    private static final ThreadLocal<long[]> COUNTERS = ThreadLocal.withInitial(() -> new long[3]);
+
+    private static final int STATEMENTS = 0;
+    private static final int ENTITY_LOADS = 1;
+    private static final int COLLECTION_LOADS = 2;
+
+    public static void reset() {
+        long[] counters = COUNTERS.get();
+        counters[STATEMENTS] = 0;
+        counters[ENTITY_LOADS] = 0;
+        counters[COLLECTION_LOADS] = 0;
+    }
+
+    public static long statements() {
+        return COUNTERS.get()[STATEMENTS];
+    }
+
+    public static long entityLoads() {
+        return COUNTERS.get()[ENTITY_LOADS];
+    }
+
+    public static long collectionLoads() {
+        return COUNTERS.get()[COLLECTION_LOADS];
+    }
+
+    @Override
+    public String inspect(String sql) {
+        COUNTERS.get()[STATEMENTS]++;
+        return sql;
+    }
+
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        COUNTERS.get()[ENTITY_LOADS]++;
+        return false;
+    }
+
+    /**
+     * Стоит перед стандартным слушателем, поэтому видит, загружена ли коллекция: считаются только
+     * действительные загрузки (ленивые и EAGER-коллекции, догружаемые отдельным запросом).
+     */
+    @Override
+    public void onInitializeCollection(InitializeCollectionEvent event) {
+        if (!event.getCollection().wasInitialized()) {
+            COUNTERS.get()[COLLECTION_LOADS]++;
+        }
+    }
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        serviceRegistry.getService(EventListenerRegistry.class).prependListeners(EventType.INIT_COLLECTION, this);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
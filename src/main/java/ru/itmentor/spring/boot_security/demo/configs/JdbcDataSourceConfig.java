@@ -0,0 +1,31 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * JDBC-пул по spring.datasource.* (для JPA, JdbcTemplate и Flyway).
+ * <p>
+ * Объявлен явно, потому что DataSourceAutoConfiguration отключается, как только в контексте есть
+ * io.r2dbc.spi.ConnectionFactory, а ее создает автоконфигурация R2DBC для неблокирующего read-only API
+ * (см. R2dbcConfig). Вместе с ней отключается и регистрация DataSourceProperties, поэтому она включена здесь.
+ * При чтении с реплик этот пул становится основным (см. ReplicaRoutingConfig).
+ */
+@Configuration
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class JdbcDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        if (properties.getName() != null) {
+            dataSource.setPoolName(properties.getName());
+        }
+        return dataSource;
+    }
+}
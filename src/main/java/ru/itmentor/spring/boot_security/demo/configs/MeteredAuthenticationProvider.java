@@ -0,0 +1,50 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Обертка над AuthenticationProvider, которая замеряет время каждой попытки логина.
+ * Таймер app.login помечается тегами outcome (success/failure) и reason (класс исключения при неудаче),
+ * поэтому одновременно дает и латентность, и счетчики успешных и неудачных логинов.
+ */
+public class MeteredAuthenticationProvider implements AuthenticationProvider {
+
+    private final AuthenticationProvider delegate;
+    private final MeterRegistry meterRegistry;
+
+    public MeteredAuthenticationProvider(AuthenticationProvider delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            Authentication result = delegate.authenticate(authentication);
+            sample.stop(timer("success", "none"));
+            return result;
+        } catch (AuthenticationException e) {
+            sample.stop(timer("failure", e.getClass().getSimpleName()));
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+
+    private Timer timer(String outcome, String reason) {
+        return Timer.builder("app.login")
+                .description("Form login authentication time")
+                .tag("outcome", outcome)
+                .tag("reason", reason)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,19 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * Единственный экземпляр BCryptPasswordEncoder в приложении.
+ * Вынесен из WebSecurityConfig, чтобы сервисы могли получить его без циклической зависимости
+ * (WebSecurityConfig сам зависит от UserServiceImpl).
+ */
+@Configuration
+public class PasswordEncoderConfig {
+
+    @Bean
+    public BCryptPasswordEncoder bCryptPasswordEncoder() {
+        return new BCryptPasswordEncoder();
+    }
+}
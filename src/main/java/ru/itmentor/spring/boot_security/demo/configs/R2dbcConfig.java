@@ -0,0 +1,21 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+/**
+ * DatabaseClient для неблокирующего read-only API.
+ * ConnectionFactory (с пулом) создает автоконфигурация по spring.r2dbc.*; Spring Data R2DBC не подключается,
+ * чтобы не конкурировать с JPA-репозиториями и JpaTransactionManager.
+ * Из-за этой ConnectionFactory Boot не создает JDBC-пул сам, поэтому он объявлен в JdbcDataSourceConfig.
+ */
+@Configuration
+public class R2dbcConfig {
+
+    @Bean
+    public DatabaseClient databaseClient(ConnectionFactory connectionFactory) {
+        return DatabaseClient.create(connectionFactory);
+    }
+}
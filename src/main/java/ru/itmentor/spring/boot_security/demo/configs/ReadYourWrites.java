@@ -0,0 +1,43 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import java.util.function.Supplier;
+
+/**
+ * Закрепление чтений текущего потока за основной базой, чтобы сразу после записи не прочитать
+ * с реплики старые данные. Закрепление ставит ReadYourWritesFilter (на время окна после записи)
+ * или код, которому нужно гарантированно свежее чтение. Без ReplicaRoutingDataSource ни на что не влияет.
+ */
+public final class ReadYourWrites {
+
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private ReadYourWrites() {
+    }
+
+    public static boolean isPinned() {
+        return PINNED.get() != null;
+    }
+
+    static void pin() {
+        PINNED.set(Boolean.TRUE);
+    }
+
+    static void clear() {
+        PINNED.remove();
+    }
+
+    /**
+     * Выполняет чтение на основной базе, даже внутри read-only транзакции.
+     */
+    public static <T> T onPrimary(Supplier<T> read) {
+        if (isPinned()) {
+            return read.get();
+        }
+        pin();
+        try {
+            return read.get();
+        } finally {
+            clear();
+        }
+    }
+}
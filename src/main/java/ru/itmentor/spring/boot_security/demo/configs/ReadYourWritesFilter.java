@@ -0,0 +1,99 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Read-your-writes при чтении с реплик: после изменения пользователя браузер, который его сделал,
+ * в течение window читает только с основной базы. Так сохраненный профиль не откатывается на странице,
+ * открытой сразу после редиректа, пока реплика догоняет.
+ * <p>
+ * Срок закрепления хранится в cookie, а не в сессии, чтобы работать и для запросов с токеном.
+ * Фильтр стоит до Spring Security: загрузка пользователя при аутентификации тоже читает с основной базы.
+ * Не компонент: его создает ReplicaRoutingConfig.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String COOKIE = "rw_until";
+
+    private final long windowMillis;
+
+    public ReadYourWritesFilter(Duration window) {
+        this.windowMillis = window.toMillis();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (pinnedUntil(request) > System.currentTimeMillis()) {
+            ReadYourWrites.pin();
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ReadYourWrites.clear();
+        }
+    }
+
+    /**
+     * После коммита изменения закрепляет за основной базой остаток текущего запроса и следующие запросы этого браузера.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        if (!event.isRemote()) {
+            pinAfterWrite();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        pinAfterWrite();
+    }
+
+    private void pinAfterWrite() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return;
+        }
+        HttpServletResponse response = ((ServletRequestAttributes) attributes).getResponse();
+        if (response == null || response.isCommitted()) {
+            return;
+        }
+        ReadYourWrites.pin();
+        Cookie cookie = new Cookie(COOKIE, Long.toString(System.currentTimeMillis() + windowMillis));
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge((int) Math.max(1, (windowMillis + 999) / 1000));
+        response.addCookie(cookie);
+    }
+
+    private static long pinnedUntil(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return 0;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,84 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Чтение с реплик (app.datasource.replicas.enabled=true).
+ * <p>
+ * Основной пул - обычный пул по spring.datasource.* (JdbcDataSourceConfig), пул каждой реплики - по адресу из
+ * app.datasource.replicas.urls с теми же учетными данными. Приложение видит один DataSource:
+ * read-only транзакции (@Transactional(readOnly = true) в UserServiceImpl и репозиториях Spring Data)
+ * идут на реплики, остальное - на основную базу. R2DBC API работает со своим пулом по spring.r2dbc.*.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.datasource.replicas.enabled", havingValue = "true")
+public class ReplicaRoutingConfig {
+
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(
+            HikariDataSource dataSource,
+            DataSourceProperties properties,
+            MeterRegistry meterRegistry,
+            @Value("${app.datasource.replicas.urls}") String[] urls,
+            @Value("${app.datasource.replicas.pool-size:10}") int poolSize,
+            @Value("${app.datasource.replicas.lag-query}") String lagQuery,
+            @Value("${app.datasource.replicas.max-lag:PT5S}") Duration maxLag,
+            @Value("${app.datasource.replicas.check-interval:PT1S}") Duration checkInterval) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < urls.length; i++) {
+            String name = "replica-" + (i + 1);
+            HikariDataSource replica = properties.initializeDataSourceBuilder()
+                    .type(HikariDataSource.class)
+                    .url(urls[i].trim())
+                    .build();
+            replica.setPoolName(name);
+            replica.setMaximumPoolSize(poolSize);
+            replica.setReadOnly(true);
+            // Недоступная при старте реплика не должна мешать запуску: ее исключит проверка здоровья
+            replica.setInitializationFailTimeout(-1);
+            replicas.put(name, replica);
+        }
+        ReplicaRoutingDataSource routing =
+                new ReplicaRoutingDataSource(dataSource, replicas, lagQuery, maxLag, meterRegistry);
+        routing.start(checkInterval);
+        return routing;
+    }
+
+    /**
+     * Источник для JPA, JdbcTemplate и Flyway. Ленивое соединение нужно, чтобы реплика выбиралась по признаку
+     * read-only, который транзакция выставляет уже после того, как Hibernate запросил соединение.
+     */
+    @Bean
+    @Primary
+    public DataSource routingDataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter(
+            @Value("${app.datasource.replicas.read-your-writes-window:PT5S}") Duration window) {
+        return new ReadYourWritesFilter(window);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilterRegistration(ReadYourWritesFilter filter) {
+        FilterRegistrationBean<ReadYourWritesFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
+    }
+}
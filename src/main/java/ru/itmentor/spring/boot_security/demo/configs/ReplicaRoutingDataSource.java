@@ -0,0 +1,146 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Направляет read-only транзакции на реплики, все остальное - на основную базу.
+ * <p>
+ * Реплика выбирается по кругу из здоровых. Здоровье и отставание проверяются в фоне каждые check-interval
+ * запросом lag-query (секунды отставания); реплика, которая не отвечает или отстает больше max-lag,
+ * исключается до следующей успешной проверки. Если здоровых реплик нет или поток закреплен
+ * за основной базой (ReadYourWrites), чтение идет на основную базу.
+ * <p>
+ * Решение принимается при получении соединения, поэтому источник оборачивается в LazyConnectionDataSourceProxy:
+ * соединение берется при первом запросе, когда признак read-only транзакции уже выставлен.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final String lagQuery;
+    private final double maxLagSeconds;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService checker =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("replica-check-"));
+    private final Counter fallbacks;
+
+    // До первой проверки здоровых реплик нет, и чтения идут на основную базу
+    private volatile Replica[] healthy = new Replica[0];
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicaDataSources,
+                                    String lagQuery, Duration maxLag, MeterRegistry meterRegistry) {
+        this.lagQuery = lagQuery;
+        this.maxLagSeconds = maxLag.toMillis() / 1000.0;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        replicaDataSources.forEach((name, dataSource) -> {
+            Replica replica = new Replica(name, dataSource);
+            replicas.add(replica);
+            targets.put(name, dataSource);
+            Gauge.builder("app.datasource.replica.lag", replica, r -> r.lagSeconds)
+                    .description("Отставание реплики в секундах по последней проверке, -1 - реплика недоступна")
+                    .baseUnit("seconds")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        });
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        this.fallbacks = Counter.builder("app.datasource.replica.fallbacks")
+                .description("Read-only транзакции, отправленные на основную базу из-за отсутствия здоровых реплик")
+                .register(meterRegistry);
+    }
+
+    public void start(Duration checkInterval) {
+        checker.scheduleWithFixedDelay(this::check, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Останавливает проверки и закрывает пулы реплик. Основной пул закрывается как отдельный бин.
+     */
+    public void close() {
+        checker.shutdownNow();
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) replica.dataSource).close();
+                } catch (Exception e) {
+                    log.warn("Failed to close replica {}", replica.name, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || ReadYourWrites.isPinned()) {
+            return PRIMARY;
+        }
+        Replica[] candidates = healthy;
+        if (candidates.length == 0) {
+            fallbacks.increment();
+            return PRIMARY;
+        }
+        return candidates[Math.floorMod(next.getAndIncrement(), candidates.length)].name;
+    }
+
+    void check() {
+        List<Replica> up = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            double lag = lagOf(replica);
+            replica.lagSeconds = lag;
+            if (lag >= 0 && lag <= maxLagSeconds) {
+                up.add(replica);
+            }
+        }
+        Replica[] current = up.toArray(new Replica[0]);
+        if (current.length != healthy.length) {
+            log.info("Healthy read replicas: {} of {}", current.length, replicas.size());
+        }
+        healthy = current;
+    }
+
+    private double lagOf(Replica replica) {
+        try (Connection connection = replica.dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(lagQuery)) {
+            return resultSet.next() ? Math.max(0, resultSet.getDouble(1)) : 0;
+        } catch (SQLException e) {
+            log.debug("Replica {} check failed", replica.name, e);
+            return -1;
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile double lagSeconds = -1;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики на каждый запрос к контроллерам:
+ * app.view.render - время рендера Thymeleaf-шаблона (между postHandle и afterCompletion),
+ * app.request.sql.statements, app.request.entity.loads и app.request.collection.loads - сколько SQL-запросов,
+ * загрузок сущностей и коллекций сделал запрос.
+ */
+@Component
+public class RequestMetricsInterceptor implements HandlerInterceptor {
+
+    private static final String RENDER_START = RequestMetricsInterceptor.class.getName() + ".renderStart";
+    private static final String VIEW_NAME = RequestMetricsInterceptor.class.getName() + ".viewName";
+
+    private final MeterRegistry meterRegistry;
+
+    public RequestMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        HibernateRequestCounters.reset();
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        if (modelAndView != null && modelAndView.getViewName() != null
+                && !modelAndView.getViewName().startsWith("redirect:")) {
+            request.setAttribute(VIEW_NAME, modelAndView.getViewName());
+            request.setAttribute(RENDER_START, System.nanoTime());
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object renderStart = request.getAttribute(RENDER_START);
+        if (renderStart != null) {
+            Timer.builder("app.view.render")
+                    .description("Thymeleaf view render time")
+                    .tag("view", (String) request.getAttribute(VIEW_NAME))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - (Long) renderStart, TimeUnit.NANOSECONDS);
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+        DistributionSummary.builder("app.request.sql.statements")
+                .description("SQL statements executed per request")
+                .tag("uri", uri)
+                .tag("method", request.getMethod())
+                .register(meterRegistry)
+                .record(HibernateRequestCounters.statements());
+        DistributionSummary.builder("app.request.entity.loads")
+                .description("Hibernate entity loads per request")
+                .tag("uri", uri)
+                .tag("method", request.getMethod())
+                .register(meterRegistry)
+                .record(HibernateRequestCounters.entityLoads());
+        DistributionSummary.builder("app.request.collection.loads")
+                .description("Hibernate collection loads per request")
+                .tag("uri", uri)
+                .tag("method", request.getMethod())
+                .register(meterRegistry)
+                .record(HibernateRequestCounters.collectionLoads());
+    }
+}
@@ -0,0 +1,40 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.itmentor.spring.boot_security.demo.service.InvalidationBus;
+import ru.itmentor.spring.boot_security.demo.service.InvalidationTransport;
+import ru.itmentor.spring.boot_security.demo.service.UserReadModel;
+
+/**
+ * Настройки старта приложения.
+ * <p>
+ * При spring.main.lazy-initialization=true (профиль prod) бины создаются при первом обращении.
+ * Исключения: UserReadModel (ее проверка при старте должна пройти до приема трафика) и шина инвалидации
+ * InvalidationBus с транспортом - они подписываются на сообщения других узлов при создании.
+ * Слушатели событий и ApplicationRunner (DataSeeder) ленивыми быть могут: Spring создает их при первом событии
+ * и при запуске runner-ов.
+ * <p>
+ * app.startup.exit-on-ready=true останавливает приложение сразу после старта - для разовых задач
+ * (профиль seed) и для тренировочного запуска при создании CDS-архива.
+ */
+@Configuration
+public class StartupConfig {
+
+    @Bean
+    public static LazyInitializationExcludeFilter eagerStartupBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                UserReadModel.class, InvalidationBus.class, InvalidationTransport.class);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.startup.exit-on-ready", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> exitOnReady() {
+        return event -> System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+}
@@ -1,29 +1,32 @@
 package ru.itmentor.spring.boot_security.demo.configs;
 
+import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.web.authentication.AuthenticationSuccessHandler;
 import org.springframework.stereotype.Component;
+import ru.itmentor.spring.boot_security.demo.security.AuthorityMasks;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Set;
 
 @Component
+@RequiredArgsConstructor
 public class SuccessUserHandler implements AuthenticationSuccessHandler {
+    private final AuthorityMasks authorityMasks;
+
     // Spring Security использует объект Authentication, пользователя авторизованной сессии.
+    // Роли проверяются по маске из MaskedAuthenticationToken, без построения набора строк.
     @Override
     public void onAuthenticationSuccess(HttpServletRequest httpServletRequest,
                                         HttpServletResponse httpServletResponse,
                                         Authentication authentication) throws IOException {
-        Set<String> roles = AuthorityUtils.authorityListToSet(authentication.getAuthorities());
-        if (roles.contains("ROLE_ADMIN")) {
+        if (authorityMasks.hasAuthority(authentication, "ROLE_ADMIN")) {
             httpServletResponse.sendRedirect("/admin");
-        } else if (roles.contains("ROLE_USER")) {
+        } else if (authorityMasks.hasAuthority(authentication, "ROLE_USER")) {
             httpServletResponse.sendRedirect("/user");
         } else {
             httpServletResponse.sendRedirect("/");
         }
     }
-}
\ No newline at end of file
+}
@@ -1,12 +1,22 @@
 package ru.itmentor.spring.boot_security.demo.configs;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import ru.itmentor.spring.boot_security.demo.security.AuthorityMasks;
+import ru.itmentor.spring.boot_security.demo.security.LoginThrottle;
+import ru.itmentor.spring.boot_security.demo.security.LoginThrottleFilter;
+import ru.itmentor.spring.boot_security.demo.security.MaskingDaoAuthenticationProvider;
+import ru.itmentor.spring.boot_security.demo.security.RoleMaskAuthorizationManager;
+import ru.itmentor.spring.boot_security.demo.service.PasswordHashingService;
+import ru.itmentor.spring.boot_security.demo.service.UserDetailsCache;
 import ru.itmentor.spring.boot_security.demo.service.UserServiceImpl;
 
 @Configuration
@@ -14,10 +24,22 @@ import ru.itmentor.spring.boot_security.demo.service.UserServiceImpl;
 public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
     private final SuccessUserHandler successUserHandler;
     final UserServiceImpl userService;
+    private final UserDetailsCache userDetailsCache;
+    private final PasswordHashingService passwordHashingService;
+    private final MeterRegistry meterRegistry;
+    private final AuthorityMasks authorityMasks;
+    private final LoginThrottle loginThrottle;
 
-    public WebSecurityConfig(SuccessUserHandler successUserHandler, UserServiceImpl userService) {
+    public WebSecurityConfig(SuccessUserHandler successUserHandler, UserServiceImpl userService,
+                             UserDetailsCache userDetailsCache, PasswordHashingService passwordHashingService,
+                             MeterRegistry meterRegistry, AuthorityMasks authorityMasks, LoginThrottle loginThrottle) {
         this.successUserHandler = successUserHandler;
         this.userService = userService;
+        this.userDetailsCache = userDetailsCache;
+        this.passwordHashingService = passwordHashingService;
+        this.meterRegistry = meterRegistry;
+        this.authorityMasks = authorityMasks;
+        this.loginThrottle = loginThrottle;
     }
 
 
@@ -25,36 +47,56 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
     @Override
     protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth
-                .userDetailsService(userService)
-                .passwordEncoder(bCryptPasswordEncoder());
+        auth.authenticationProvider(new MeteredAuthenticationProvider(daoAuthenticationProvider(), meterRegistry));
+    }
+
+    // Нужен TokenController для логина через /api/auth/token тем же провайдером, что и у формы
+    @Bean
+    @Override
+    public AuthenticationManager authenticationManagerBean() throws Exception {
+        return super.authenticationManagerBean();
+    }
+
+    // Провайдер сначала ищет пользователя в UserDetailsCache и идет в базу только при промахе.
+    // После входа он кладет в Authentication маску ролей, по которой работают правила ниже.
+    @Bean
+    public DaoAuthenticationProvider daoAuthenticationProvider() {
+        DaoAuthenticationProvider provider = new MaskingDaoAuthenticationProvider(authorityMasks);
+        provider.setUserDetailsService(userService);
+        provider.setPasswordEncoder(passwordHashingService);
+        provider.setUserCache(userDetailsCache);
+        return provider;
     }
 
     @Override
     protected void configure(HttpSecurity http) throws Exception {
         http
-                .authorizeRequests()
-                .antMatchers("/login").permitAll()
-                .antMatchers("/admin/**").hasAnyRole("ADMIN")
-                .antMatchers("/user/**").hasAnyRole("ADMIN", "USER")
+                // Ограничение частоты логина срабатывает раньше проверки пароля
+                .addFilterBefore(new LoginThrottleFilter(loginThrottle), UsernamePasswordAuthenticationFilter.class)
+                .authorizeHttpRequests()
+                // permitAll() на formLogin/logout работает только с authorizeRequests(), поэтому страницы входа
+                // и выхода открыты здесь
+                .antMatchers("/login", "/logout").permitAll()
+                .antMatchers("/admin/**").access(hasAnyRole("ADMIN"))
+                .antMatchers("/user/**").access(hasAnyRole("ADMIN", "USER"))
                 .antMatchers("/news").permitAll()
+                .antMatchers("/actuator/health").permitAll()
+                .antMatchers("/actuator/**").access(hasAnyRole("ADMIN"))
+                .antMatchers("/api/read/**").access(hasAnyRole("ADMIN"))
+                .antMatchers("/api/users/me", "/api/roles").access(hasAnyRole("ADMIN", "USER"))
+                .antMatchers("/api/users/**").access(hasAnyRole("ADMIN"))
                 .anyRequest().authenticated()
                 .and()
                 .formLogin().successHandler(successUserHandler)
-                .permitAll()
                 .and()
-                .logout()
-                .permitAll();
+                .logout();
     }
 
 
-    @Bean
-    public BCryptPasswordEncoder bCryptPasswordEncoder() {
-        return new BCryptPasswordEncoder();
+    private RoleMaskAuthorizationManager hasAnyRole(String... roles) {
+        return RoleMaskAuthorizationManager.hasAnyRole(authorityMasks, roles);
     }
 
-    ;
-
     // аутентификация inMemory
 //    @Bean
 //    @Override
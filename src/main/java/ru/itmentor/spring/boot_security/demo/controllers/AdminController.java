@@ -1,23 +1,67 @@
 package ru.itmentor.spring.boot_security.demo.controllers;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.itmentor.spring.boot_security.demo.model.AuditEntry;
+import ru.itmentor.spring.boot_security.demo.model.BulkOperationResult;
+import ru.itmentor.spring.boot_security.demo.model.ReadModelReport;
 import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserBulkRequest;
+import ru.itmentor.spring.boot_security.demo.model.UserImportReport;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+import ru.itmentor.spring.boot_security.demo.model.UserSearchHit;
+import ru.itmentor.spring.boot_security.demo.service.AdminRenderCache;
+import ru.itmentor.spring.boot_security.demo.service.AuditLog;
+import ru.itmentor.spring.boot_security.demo.service.PasswordHashingService;
 import ru.itmentor.spring.boot_security.demo.service.RoleServiceImpl;
+import ru.itmentor.spring.boot_security.demo.service.UserBulkService;
+import ru.itmentor.spring.boot_security.demo.service.UserChangeStream;
+import ru.itmentor.spring.boot_security.demo.service.UserDetailsCache;
+import ru.itmentor.spring.boot_security.demo.service.UserImportService;
+import ru.itmentor.spring.boot_security.demo.service.UserReadModel;
+import ru.itmentor.spring.boot_security.demo.service.UserSearchIndex;
 import ru.itmentor.spring.boot_security.demo.service.UserServiceImpl;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 
 /**
- * @GetMapping("/admin"): Отображает страницу администратора со списком всех пользователей.
+ * @GetMapping("/admin"): Отображает страницу администратора со списком пользователей (постранично, с фильтрами).
+ * @GetMapping("/admin/users/table"): Отдает закэшированную таблицу пользователей готовыми байтами (gzip, если клиент его принимает).
+ * @GetMapping("/admin/users/changes"): Поток изменений пользователей (server-sent events) для открытой страницы админки.
  * @GetMapping("/admin/user-save"): Отображает форму для создания нового пользователя администратором.
  * @PostMapping("/admin/user-save"): Обрабатывает POST-запрос для сохранения нового пользователя администратором.
  * @DeleteMapping("/admin/user-delete/{id}"): Обрабатывает DELETE-запрос для удаления пользователя администратором.
  * @GetMapping("/admin/user-update/{id}"): Отображает форму для обновления информации о пользователе администратором.
  * @PostMapping("/admin/user-update"): Обрабатывает POST-запрос для обновления информации о пользователе администратором.
+ * @PatchMapping("/admin/user-update"): Частичное обновление пользователя администратором, меняются только переданные поля.
+ * @GetMapping("/admin/cache/user-details"): Возвращает счетчики кэша UserDetails в JSON.
+ * @GetMapping("/admin/hashing/stats"): Возвращает состояние пула хэширования паролей в JSON.
+ * @PostMapping("/admin/users/import"): Массовый импорт пользователей из CSV или NDJSON.
+ * @GetMapping("/admin/users/search"): Поиск пользователей для автодополнения по имени, фамилии и email.
+ * @PostMapping("/admin/users/bulk/delete"): Массовое удаление пользователей по списку id или фильтру.
+ * @PostMapping("/admin/users/bulk/grant-role"), @PostMapping("/admin/users/bulk/revoke-role"): Массовая выдача и отзыв роли.
+ * @GetMapping("/admin/audit"): История изменений пользователей из журнала аудита, новые записи первыми.
+ * @GetMapping("/admin/audit/stats"): Счетчики журнала аудита в JSON.
+ * @GetMapping("/admin/read-model/check"): Проверяет read-модель пользователей против основных таблиц.
+ * @PostMapping("/admin/read-model/rebuild"): Пересобирает read-модель пользователей целиком.
  */
 
 @Controller
@@ -26,17 +70,35 @@ public class AdminController {
 
     private final UserServiceImpl userService;
     private final RoleServiceImpl roleService;
+    private final UserDetailsCache userDetailsCache;
+    private final UserImportService userImportService;
+    private final PasswordHashingService passwordHashingService;
+    private final UserSearchIndex userSearchIndex;
+    private final AdminRenderCache adminRenderCache;
+    private final UserBulkService userBulkService;
+    private final UserReadModel userReadModel;
+    private final AuditLog auditLog;
+    private final UserChangeStream userChangeStream;
 
     /**
-     * Отображает страницу администратора со списком всех пользователей.
+     * Отображает страницу администратора со списком пользователей.
+     * Пагинация keyset: следующая страница начинается после пользователя с id = after.
      *
-     * @param model Модель для передачи данных в представление.
+     * @param filter Фильтр по роли, полу и домену почты.
+     * @param after  Курсор - id последнего пользователя предыдущей страницы.
+     * @param size   Размер страницы.
+     * @param model  Модель для передачи данных в представление.
      * @return Строка, представляющая имя представления "admin".
      */
     @GetMapping("/admin")
-    public String showAllUsers(Model model) {
-        List<User> user = userService.findAllUsers();
-        model.addAttribute("allUser", user);
+    public String showAllUsers(UserFilter filter,
+                               @RequestParam(value = "after", required = false) Long after,
+                               @RequestParam(value = "size", defaultValue = "50") int size,
+                               Model model) {
+        model.addAttribute("userTableHtml", adminRenderCache.userTable(filter, after, size).getHtml());
+        model.addAttribute("filter", filter);
+        model.addAttribute("size", size);
+        model.addAttribute("roles", roleService.getAllRoles());
         return "admin";
     }
 
@@ -49,7 +111,7 @@ public class AdminController {
      */
     @GetMapping("/admin/user-save")
     public String saveUserForm(Model model) {
-        model.addAttribute("roles", roleService.getAllRoles());
+        model.addAttribute("roleOptionsHtml", adminRenderCache.roleOptions().getHtml());
         model.addAttribute("user", new User());
         return "admin-save";
     }
@@ -89,7 +151,7 @@ public class AdminController {
      */
     @GetMapping("/admin/user-update/{id}")
     public String updateUserForm(@PathVariable("id")Long id,Model model){
-        model.addAttribute("roles",roleService.getAllRoles());
+        model.addAttribute("roleOptionsHtml", adminRenderCache.roleOptions().getHtml());
         model.addAttribute("user",userService.findUserById(id));
         return "admin-update";
     }
@@ -107,4 +169,229 @@ public class AdminController {
         return "redirect:/admin";
     }
 
+    /**
+     * Обрабатывает PATCH-запрос для частичного обновления пользователя администратором.
+     * Пустые поля формы не меняются; если роли не выбраны, у пользователя остаются прежние роли.
+     *
+     * @param user Новые значения полей пользователя.
+     * @param role Новые роли пользователя, может отсутствовать.
+     * @return Строка перенаправления на страницу администратора после успешного обновления.
+     */
+    @PatchMapping("/admin/user-update")
+    public String patchUser(@ModelAttribute("user") User user, @RequestParam(value = "nameRole", required = false) String[] role) {
+        user.setRole(role == null ? null : roleService.getRoleByName(role));
+        userService.updateUser(user);
+        return "redirect:/admin";
+    }
+
+    /**
+     * Возвращает счетчики кэша UserDetails: попадания, промахи, вытеснения и текущий размер.
+     *
+     * @return Счетчики кэша в виде JSON.
+     */
+    @GetMapping("/admin/cache/user-details")
+    @ResponseBody
+    public Map<String, Long> userDetailsCacheStats() {
+        return userDetailsCache.getStats();
+    }
+
+    /**
+     * Возвращает состояние пула хэширования паролей: размер очереди, отказы, таймауты, суммарное время BCrypt.
+     *
+     * @return Счетчики пула в виде JSON.
+     */
+    @GetMapping("/admin/hashing/stats")
+    @ResponseBody
+    public Map<String, Long> passwordHashingStats() {
+        return passwordHashingService.getStats();
+    }
+
+    /**
+     * Массовый импорт пользователей из тела запроса. Тело читается потоково, в кодировке UTF-8.
+     *
+     * @param contentType text/csv или application/x-ndjson.
+     * @param body        Поток с данными пользователей.
+     * @return Отчет о результате импорта каждой строки.
+     */
+    @PostMapping(value = "/admin/users/import", consumes = {"text/csv", "application/x-ndjson"})
+    @ResponseBody
+    public UserImportReport importUsers(@RequestHeader("Content-Type") String contentType,
+                                        InputStream body) throws IOException {
+        UserImportService.Format format = contentType.startsWith("application/x-ndjson")
+                ? UserImportService.Format.NDJSON
+                : UserImportService.Format.CSV;
+        return userImportService.importUsers(new InputStreamReader(body, StandardCharsets.UTF_8), format);
+    }
+
+    /**
+     * Массовый импорт пользователей из загруженного файла (.csv, .ndjson или .jsonl).
+     *
+     * @param file Файл с данными пользователей.
+     * @return Отчет о результате импорта каждой строки.
+     */
+    @PostMapping(value = "/admin/users/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseBody
+    public UserImportReport importUsersFile(@RequestParam("file") MultipartFile file) throws IOException {
+        String name = file.getOriginalFilename() == null ? "" : file.getOriginalFilename().toLowerCase();
+        UserImportService.Format format = name.endsWith(".ndjson") || name.endsWith(".jsonl")
+                ? UserImportService.Format.NDJSON
+                : UserImportService.Format.CSV;
+        try (Reader reader = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
+            return userImportService.importUsers(reader, format);
+        }
+    }
+
+    /**
+     * Поиск пользователей по префиксу или подстроке имени, фамилии и email.
+     *
+     * @param q     Строка запроса.
+     * @param limit Максимальное число результатов (не больше UserSearchIndex.MAX_LIMIT).
+     * @return Найденные пользователи в порядке релевантности.
+     */
+    @GetMapping("/admin/users/search")
+    @ResponseBody
+    public List<UserSearchHit> searchUsers(@RequestParam("q") String q,
+                                           @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return userSearchIndex.search(q, limit);
+    }
+
+    /**
+     * Поток изменений пользователей: события user с UserChangeDelta в JSON, id события - номер изменения.
+     * Браузер при переподключении сам передает Last-Event-ID, и поток продолжается с пропущенных изменений;
+     * если они уже вытеснены из буфера, приходит событие reset.
+     *
+     * @param lastEventId Номер последнего полученного изменения.
+     * @return Открытый поток событий; 503, если открыто слишком много потоков.
+     */
+    @GetMapping(value = "/admin/users/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter userChanges(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        SseEmitter emitter = userChangeStream.subscribe(lastEventId);
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many change stream subscribers");
+        }
+        return emitter;
+    }
+
+    /**
+     * Таблица пользователей из AdminRenderCache без повторного рендера: готовые байты UTF-8 или gzip.
+     * ETag меняется вместе с версией данных пользователей, поэтому повторный запрос без изменений получает 304.
+     *
+     * @param filter         Фильтр по роли, полу и домену почты.
+     * @param after          Курсор - id последнего пользователя предыдущей страницы.
+     * @param size           Размер страницы.
+     * @param acceptEncoding Заголовок Accept-Encoding запроса.
+     * @param request        Запрос для проверки If-None-Match.
+     * @return HTML-фрагмент таблицы.
+     */
+    @GetMapping("/admin/users/table")
+    @ResponseBody
+    public ResponseEntity<byte[]> userTable(UserFilter filter,
+                                            @RequestParam(value = "after", required = false) Long after,
+                                            @RequestParam(value = "size", defaultValue = "50") int size,
+                                            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                            WebRequest request) {
+        AdminRenderCache.Fragment fragment = adminRenderCache.userTable(filter, after, size);
+        if (request.checkNotModified(fragment.getEtag())) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(fragment.getEtag())
+                .contentType(new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8))
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(fragment.getGzip());
+        }
+        return response.body(fragment.getBytes());
+    }
+
+    /**
+     * Массовое удаление пользователей фиксированным числом SQL-запросов в одной транзакции.
+     *
+     * @param request Список id и/или фильтр; пустой выбор отклоняется.
+     * @return Число удаленных пользователей и строк или 400 при некорректном выборе.
+     */
+    @PostMapping("/admin/users/bulk/delete")
+    @ResponseBody
+    public ResponseEntity<BulkOperationResult> bulkDelete(@RequestBody UserBulkRequest request) {
+        return bulk(() -> userBulkService.deleteUsers(request));
+    }
+
+    /**
+     * Выдает роль roleName всем выбранным пользователям, у которых ее еще нет.
+     */
+    @PostMapping("/admin/users/bulk/grant-role")
+    @ResponseBody
+    public ResponseEntity<BulkOperationResult> bulkGrantRole(@RequestBody UserBulkRequest request) {
+        return bulk(() -> userBulkService.grantRole(request));
+    }
+
+    /**
+     * Отзывает роль roleName у всех выбранных пользователей.
+     */
+    @PostMapping("/admin/users/bulk/revoke-role")
+    @ResponseBody
+    public ResponseEntity<BulkOperationResult> bulkRevokeRole(@RequestBody UserBulkRequest request) {
+        return bulk(() -> userBulkService.revokeRole(request));
+    }
+
+    /**
+     * История изменений пользователей и ролей, постранично от новых к старым.
+     *
+     * @param userId   Только изменения этого пользователя.
+     * @param actor    Только изменения, сделанные этим пользователем.
+     * @param beforeId Курсор: id последней записи предыдущей страницы.
+     * @param size     Размер страницы, не больше AuditLog.MAX_HISTORY.
+     * @return Записи журнала аудита в виде JSON.
+     */
+    @GetMapping("/admin/audit")
+    @ResponseBody
+    public List<AuditEntry> auditHistory(@RequestParam(required = false) Long userId,
+                                         @RequestParam(required = false) String actor,
+                                         @RequestParam(required = false) Long beforeId,
+                                         @RequestParam(defaultValue = "50") int size) {
+        return auditLog.history(userId, actor, beforeId, size);
+    }
+
+    /**
+     * Возвращает состояние журнала аудита: записи в буфере, записанные, отброшенные, записанные синхронно.
+     *
+     * @return Счетчики журнала в виде JSON.
+     */
+    @GetMapping("/admin/audit/stats")
+    @ResponseBody
+    public Map<String, Long> auditStats() {
+        return auditLog.getStats();
+    }
+
+    /**
+     * Сравнивает read-модель с таблицами пользователей и ролей.
+     *
+     * @return Число отсутствующих, лишних и устаревших строк модели.
+     */
+    @GetMapping("/admin/read-model/check")
+    @ResponseBody
+    public ReadModelReport checkReadModel() {
+        return userReadModel.check();
+    }
+
+    /**
+     * Пересобирает read-модель из таблиц пользователей и ролей одной транзакцией.
+     *
+     * @return Число строк в новой модели.
+     */
+    @PostMapping("/admin/read-model/rebuild")
+    @ResponseBody
+    public Map<String, Long> rebuildReadModel() {
+        return Map.of("rows", userReadModel.rebuild());
+    }
+
+    private static ResponseEntity<BulkOperationResult> bulk(Supplier<BulkOperationResult> operation) {
+        try {
+            return ResponseEntity.ok(operation.get());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
 }
@@ -0,0 +1,67 @@
+package ru.itmentor.spring.boot_security.demo.controllers;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.UserView;
+import ru.itmentor.spring.boot_security.demo.service.ReactiveUserReadService;
+
+/**
+ * Неблокирующее read-only API пользователей и ролей.
+ * Методы возвращают Mono/Flux: Spring MVC обрабатывает их асинхронно, и поток Tomcat освобождается
+ * на время ожидания базы, поэтому медленная база не съедает пул потоков остального приложения.
+ *
+ * @GetMapping("/api/read/users/{id}"): Пользователь по id.
+ * @GetMapping("/api/read/users/by-username/{username}"): Пользователь по имени (без учета регистра).
+ * @GetMapping("/api/read/users"): Страница пользователей по курсору after (id последнего пользователя предыдущей страницы).
+ * @GetMapping("/api/read/users/stream"): Все пользователи потоком NDJSON, с учетом скорости чтения клиента.
+ * @GetMapping("/api/read/roles"): Все роли.
+ */
+@RestController
+@RequestMapping("/api/read")
+@RequiredArgsConstructor
+public class ReactiveReadController {
+
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final ReactiveUserReadService readService;
+
+    @GetMapping("/users/{id}")
+    public Mono<UserView> userById(@PathVariable("id") long id) {
+        return readService.findById(id).switchIfEmpty(notFound());
+    }
+
+    @GetMapping("/users/by-username/{username}")
+    public Mono<UserView> userByUsername(@PathVariable("username") String username) {
+        return readService.findByUsername(username).switchIfEmpty(notFound());
+    }
+
+    @GetMapping("/users")
+    public Flux<UserView> users(@RequestParam(value = "after", defaultValue = "0") long after,
+                                @RequestParam(value = "size", defaultValue = "50") int size) {
+        return readService.findPage(after, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+    }
+
+    @GetMapping(value = "/users/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserView> streamUsers() {
+        return readService.streamAll();
+    }
+
+    @GetMapping("/roles")
+    public Flux<Role> roles() {
+        return readService.findAllRoles();
+    }
+
+    private static <T> Mono<T> notFound() {
+        return Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    }
+}
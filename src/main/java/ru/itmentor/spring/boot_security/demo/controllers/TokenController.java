@@ -0,0 +1,132 @@
+package ru.itmentor.spring.boot_security.demo.controllers;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.security.LoginThrottle;
+import ru.itmentor.spring.boot_security.demo.security.TokenClaims;
+import ru.itmentor.spring.boot_security.demo.security.TokenRevocationList;
+import ru.itmentor.spring.boot_security.demo.security.TokenService;
+import ru.itmentor.spring.boot_security.demo.service.UserService;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Optional;
+
+/**
+ * Выдача, обновление и отзыв токенов для stateless-режима.
+ * POST /api/auth/token   - логин по имени и паролю (с ограничением частоты LoginThrottle), возвращает пару access/refresh.
+ * POST /api/auth/refresh - обмен refresh-токена на новую пару; старый refresh-токен отзывается,
+ *                          и обменять его второй раз нельзя.
+ * POST /api/auth/revoke  - отзыв токена (logout).
+ */
+@RestController
+@RequestMapping("/api/auth")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.security.token.enabled", havingValue = "true")
+public class TokenController {
+
+    private final AuthenticationManager authenticationManager;
+    private final TokenService tokenService;
+    private final TokenRevocationList revocationList;
+    private final UserService userService;
+    private final LoginThrottle loginThrottle;
+
+    @PostMapping("/token")
+    public ResponseEntity<TokenResponse> token(@RequestBody LoginRequest request, HttpServletRequest servletRequest) {
+        long waitMillis = loginThrottle.tryAcquire(servletRequest.getRemoteAddr(), request.getUsername());
+        if (waitMillis > 0) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf((waitMillis + 999) / 1000))
+                    .build();
+        }
+        Authentication authentication;
+        try {
+            authentication = authenticationManager.authenticate(
+                    new UsernamePasswordAuthenticationToken(request.getUsername(), request.getPassword()));
+        } catch (AuthenticationException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(issue((User) authentication.getPrincipal()));
+    }
+
+    /**
+     * Пользователь перечитывается из базы, чтобы новый access-токен содержал актуальные роли.
+     */
+    @PostMapping("/refresh")
+    public ResponseEntity<TokenResponse> refresh(@RequestBody RefreshRequest request) {
+        TokenClaims claims = verifyRefreshToken(request.getRefreshToken());
+        if (claims == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        Optional<User> user = userService.findExistingUserById(claims.getUserId());
+        if (user.isEmpty()) {
+            // Пользователь удален после выдачи токена
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (!revocationList.revoke(claims)) {
+            // Этот refresh-токен уже обменян параллельным запросом, возможно на другом узле
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(issue(user.get()));
+    }
+
+    @PostMapping("/revoke")
+    public ResponseEntity<Void> revoke(@RequestBody RefreshRequest request) {
+        TokenClaims claims = verifyRefreshToken(request.getRefreshToken());
+        if (claims != null) {
+            revocationList.revoke(claims);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    private TokenClaims verifyRefreshToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        try {
+            TokenClaims claims = tokenService.verify(token);
+            return claims.isRefresh() && !revocationList.isRevoked(claims) ? claims : null;
+        } catch (AuthenticationException e) {
+            return null;
+        }
+    }
+
+    private TokenResponse issue(User user) {
+        TokenResponse response = new TokenResponse();
+        response.setAccessToken(tokenService.issueAccessToken(user));
+        response.setRefreshToken(tokenService.issueRefreshToken(user));
+        response.setExpiresIn(tokenService.getAccessTtlMillis() / 1000);
+        return response;
+    }
+
+    @Data
+    public static class LoginRequest {
+        private String username;
+        private String password;
+    }
+
+    @Data
+    public static class RefreshRequest {
+        private String refreshToken;
+    }
+
+    @Data
+    public static class TokenResponse {
+        private String accessToken;
+        private String refreshToken;
+        private String tokenType = "Bearer";
+        private long expiresIn;
+    }
+}
@@ -0,0 +1,177 @@
+package ru.itmentor.spring.boot_security.demo.controllers;
+
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserView;
+import ru.itmentor.spring.boot_security.demo.service.RoleServiceImpl;
+import ru.itmentor.spring.boot_security.demo.service.UserServiceImpl;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JSON API пользователей и ролей с ETag.
+ * ETag пользователя - "id-version", где version - поле @Version сущности User.
+ * GET с совпадающим If-None-Match отвечает 304 по одному запросу версии, без загрузки пользователя и ролей.
+ * PATCH и DELETE с If-Match выполняются, только если запись не менялась, иначе 412 Precondition Failed.
+ *
+ * @GetMapping("/api/users/me"), @PatchMapping("/api/users/me"): Текущий пользователь (роли менять нельзя).
+ * @GetMapping("/api/users/{id}"), @PatchMapping("/api/users/{id}"), @DeleteMapping("/api/users/{id}"): Пользователь по id, для администратора.
+ * @GetMapping("/api/roles"): Все роли, ETag меняется вместе со снимком RoleRegistry.
+ */
+@RestController
+@RequestMapping("/api")
+@RequiredArgsConstructor
+public class UserApiController {
+
+    private final UserServiceImpl userService;
+    private final RoleServiceImpl roleService;
+
+    @GetMapping("/users/me")
+    public ResponseEntity<UserView> me(Principal principal, WebRequest request) {
+        return get(currentUserId(principal), request);
+    }
+
+    @PatchMapping("/users/me")
+    public ResponseEntity<UserView> patchMe(Principal principal, @RequestBody UserUpdateRequest body,
+                                            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        body.setRoles(null);
+        return patch(currentUserId(principal), body, ifMatch);
+    }
+
+    @GetMapping("/users/{id}")
+    public ResponseEntity<UserView> user(@PathVariable("id") long id, WebRequest request) {
+        return get(id, request);
+    }
+
+    @PatchMapping("/users/{id}")
+    public ResponseEntity<UserView> patchUser(@PathVariable("id") long id, @RequestBody UserUpdateRequest body,
+                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return patch(id, body, ifMatch);
+    }
+
+    @DeleteMapping("/users/{id}")
+    public ResponseEntity<Void> deleteUser(@PathVariable("id") long id,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long version = userService.findVersionById(id);
+        if (version == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (ifMatch != null && !matches(ifMatch, id, version)) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).eTag(etag(id, version)).build();
+        }
+        userService.deleteUserById(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/roles")
+    public ResponseEntity<Set<Role>> roles(WebRequest request) {
+        Set<Role> roles = roleService.getAllRoles();
+        String etag = "\"roles-" + Integer.toHexString(roleService.getRegistry().fingerprint()) + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).body(roles);
+    }
+
+    private ResponseEntity<UserView> get(long id, WebRequest request) {
+        Long version = userService.findVersionById(id);
+        if (version == null) {
+            return ResponseEntity.notFound().build();
+        }
+        // checkNotModified сам выставит 304 и заголовок ETag
+        if (request.checkNotModified(etag(id, version))) {
+            return null;
+        }
+        User user = userService.findUserById(id);
+        return ResponseEntity.ok().eTag(etag(user.getId(), user.getVersion())).body(UserView.of(user));
+    }
+
+    private ResponseEntity<UserView> patch(long id, UserUpdateRequest body, String ifMatch) {
+        Long expectedVersion = null;
+        if (ifMatch != null) {
+            Long version = userService.findVersionById(id);
+            if (version == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (!matches(ifMatch, id, version)) {
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).eTag(etag(id, version)).build();
+            }
+            expectedVersion = version;
+        }
+        User user = body.toUser(id, roleService);
+        try {
+            if (!userService.updateUser(user, expectedVersion)) {
+                return userService.findVersionById(id) == null
+                        ? ResponseEntity.notFound().build()
+                        : ResponseEntity.status(HttpStatus.CONFLICT).build();
+            }
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
+        User updated = userService.findUserById(id);
+        return ResponseEntity.ok().eTag(etag(updated.getId(), updated.getVersion())).body(UserView.of(updated));
+    }
+
+    private long currentUserId(Principal principal) {
+        return userService.findUserByUsername(principal.getName()).getId();
+    }
+
+    private static String etag(long id, long version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    // If-Match сравнивается строго: слабые ETag (W/"...") не подходят, "*" означает "любая версия существующей записи"
+    private static boolean matches(String ifMatch, long id, long version) {
+        String expected = etag(id, version);
+        for (String candidate : ifMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || value.equals(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Тело PATCH-запроса. Отсутствующие поля не меняются, roles = null оставляет роли как есть.
+     */
+    @Data
+    public static class UserUpdateRequest {
+        private String firstName;
+        private String lastName;
+        private String email;
+        private String password;
+        private Gender gender;
+        private List<String> roles;
+
+        User toUser(long id, RoleServiceImpl roleService) {
+            User user = new User();
+            user.setId(id);
+            user.setFirstName(firstName);
+            user.setLastName(lastName);
+            user.setEmail(email);
+            user.setPassword(password);
+            user.setGender(gender);
+            user.setRole(roles == null ? null : roleService.getRoleByName(roles.toArray(new String[0])));
+            return user;
+        }
+    }
+}
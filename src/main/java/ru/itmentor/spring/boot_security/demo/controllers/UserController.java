@@ -34,7 +34,7 @@ public class UserController {
 
     @GetMapping("/user")
     public String showUser(Principal principal,Model model){
-        User user = (User) userService.loadUserByUsername(principal.getName());
+        User user = userService.findUserByUsername(principal.getName());
         model.addAttribute("oneUser",user);
         return "/user";
     }
@@ -67,6 +67,22 @@ public class UserController {
         return "redirect:/user";
     }
 
+    /**
+     * Частичное обновление своих данных пользователем. Меняются только переданные поля,
+     * id берется из аутентифицированного пользователя, роли пользователь менять не может.
+     *
+     * @param user      Объект пользователя с новыми значениями полей.
+     * @param principal Аутентифицированный пользователь.
+     * @return Путь к представлению информации о пользователе (редирект).
+     */
+    @PatchMapping("/user/user-update")
+    public String patchUser(@ModelAttribute("user")User user,Principal principal){
+        user.setId(userService.findUserByUsername(principal.getName()).getId());
+        user.setRole(null);
+        userService.updateUser(user);
+        return "redirect:/user";
+    }
+
     @GetMapping("/news")
     public String showNews(){
         return "/news";
@@ -0,0 +1,9 @@
+package ru.itmentor.spring.boot_security.demo.event;
+
+/**
+ * Требование сбросить все локальные кэши пользователей и ролей целиком. Публикуется InvalidationBus,
+ * когда часть инвалидаций с других узлов могла потеряться (пропуск в номерах сообщений, переподключение
+ * к шине или слишком много изменений сразу), и точечно сбросить устаревшие записи уже нельзя.
+ */
+public class CachesFlushEvent {
+}
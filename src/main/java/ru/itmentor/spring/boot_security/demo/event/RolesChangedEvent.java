@@ -0,0 +1,26 @@
+package ru.itmentor.spring.boot_security.demo.event;
+
+import lombok.Getter;
+
+/**
+ * Событие об изменении таблицы ролей. Публикуется RoleServiceImpl после saveRole.
+ * roleId и roleName - id и имя сохраненной роли; null, если они неизвестны (изменение пришло с другого узла).
+ * remote - изменение сделано на другом узле и пришло через InvalidationBus.
+ */
+@Getter
+public class RolesChangedEvent {
+
+    private final Long roleId;
+    private final String roleName;
+    private final boolean remote;
+
+    public RolesChangedEvent(boolean remote) {
+        this(null, null, remote);
+    }
+
+    public RolesChangedEvent(Long roleId, String roleName, boolean remote) {
+        this.roleId = roleId;
+        this.roleName = roleName;
+        this.remote = remote;
+    }
+}
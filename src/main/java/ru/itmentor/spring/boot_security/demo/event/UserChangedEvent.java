@@ -0,0 +1,47 @@
+package ru.itmentor.spring.boot_security.demo.event;
+
+import lombok.Getter;
+
+/**
+ * Событие об изменении пользователя. Публикуется UserServiceImpl после сохранения, обновления или удаления.
+ * username может быть null, если он неизвестен (например, при удалении по id).
+ * details - что именно изменилось, для журнала аудита: список полей ("email,roles") или изменение роли
+ * ("role+ROLE_ADMIN", "role-ROLE_ADMIN"); null, если подробностей нет.
+ * remote - изменение сделано на другом узле и пришло через InvalidationBus: по нему сбрасываются только
+ * локальные кэши, а запись в базу (read-модель, аудит) уже выполнил узел, где произошло изменение.
+ */
+@Getter
+public class UserChangedEvent {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    private final Type type;
+
+    private final long userId;
+
+    private final String username;
+
+    private final String details;
+
+    private final boolean remote;
+
+    public UserChangedEvent(Type type, long userId, String username) {
+        this(type, userId, username, null);
+    }
+
+    public UserChangedEvent(Type type, long userId, String username, String details) {
+        this(type, userId, username, details, false);
+    }
+
+    public UserChangedEvent(Type type, long userId, String username, String details, boolean remote) {
+        this.type = type;
+        this.userId = userId;
+        this.username = username;
+        this.details = details;
+        this.remote = remote;
+    }
+}
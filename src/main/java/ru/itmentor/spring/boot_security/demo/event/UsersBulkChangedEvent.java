@@ -0,0 +1,27 @@
+package ru.itmentor.spring.boot_security.demo.event;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Одно событие на массовую операцию UserBulkServiceImpl вместо UserChangedEvent на каждого пользователя.
+ * Журнал аудита операция пишет сама одним insert ... select, read-модель пересобирается по userIds,
+ * а локальные кэши сбрасываются целиком. На другие узлы событие уходит через InvalidationBus сообщением
+ * о полном сбросе, поэтому remote-варианта у него нет.
+ */
+@Getter
+public class UsersBulkChangedEvent {
+
+    private final UserChangedEvent.Type type;
+
+    private final List<Long> userIds;
+
+    private final String details;
+
+    public UsersBulkChangedEvent(UserChangedEvent.Type type, List<Long> userIds, String details) {
+        this.type = type;
+        this.userIds = userIds;
+        this.details = details;
+    }
+}
@@ -0,0 +1,34 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Запись журнала аудита: кто (actor), когда и что сделал с пользователем или ролью.
+ * id назначается базой при записи, у записей, еще не сброшенных из буфера, он null.
+ * У изменения пользователя заполнены userId и username, у изменения роли - roleId, а имя роли лежит в details.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditEntry {
+
+    private Long id;
+
+    private Instant createdAt;
+
+    private String actor;
+
+    private String action;
+
+    private Long userId;
+
+    private Long roleId;
+
+    private String username;
+
+    private String details;
+}
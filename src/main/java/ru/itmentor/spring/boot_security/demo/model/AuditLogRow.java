@@ -0,0 +1,53 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Getter;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Строка журнала аудита (только добавление). Сущность нужна только для схемы при ddl-auto;
+ * пишет и читает таблицу AuditLog через JDBC.
+ */
+@Getter
+@Entity
+@Immutable
+@Table(name = "audit_log", indexes = {
+        @Index(name = "ix_audit_log_user_id", columnList = "user_id, id"),
+        @Index(name = "ix_audit_log_actor", columnList = "actor, id")
+})
+public class AuditLogRow {
+
+    @Id
+    @Column(name = "id")
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long id;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "actor", length = 100)
+    private String actor;
+
+    @Column(name = "action", length = 20, nullable = false)
+    private String action;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "role_id")
+    private Long roleId;
+
+    @Column(name = "username")
+    private String username;
+
+    @Column(name = "details", length = 1000)
+    private String details;
+}
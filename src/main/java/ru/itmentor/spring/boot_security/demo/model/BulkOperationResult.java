@@ -0,0 +1,18 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+
+/**
+ * Итог массовой операции: сколько пользователей затронуто и сколько строк изменено в базе.
+ */
+@Data
+public class BulkOperationResult {
+
+    private final String operation;
+
+    private final long users;
+
+    private final long rows;
+
+    private final long elapsedMillis;
+}
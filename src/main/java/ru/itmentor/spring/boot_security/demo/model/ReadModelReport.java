@@ -0,0 +1,24 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+
+/**
+ * Результат проверки read-модели против таблиц user_with_role/user_role.
+ * missing - пользователи без строки в read-модели, orphaned - строки удаленных пользователей,
+ * stale - строки с устаревшей версией или набором ролей.
+ */
+@Data
+public class ReadModelReport {
+
+    private final long users;
+
+    private final long missing;
+
+    private final long orphaned;
+
+    private final long stale;
+
+    public boolean isConsistent() {
+        return missing == 0 && orphaned == 0 && stale == 0;
+    }
+}
@@ -0,0 +1,28 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Getter;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Отозванный refresh-токен (id токена и срок его действия в миллисекундах). Сущность нужна только для схемы
+ * при ddl-auto; пишет и читает таблицу TokenRevocationList через JDBC.
+ */
+@Getter
+@Entity
+@Immutable
+@Table(name = "revoked_token", indexes = @Index(name = "ix_revoked_token_expires_at", columnList = "expires_at"))
+public class RevokedTokenRow {
+
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+
+    @Column(name = "expires_at", nullable = false)
+    private long expiresAt;
+}
@@ -1,8 +1,11 @@
 package ru.itmentor.spring.boot_security.demo.model;
 
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -10,13 +13,18 @@ import javax.persistence.*;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.Size;
 import java.util.Collection;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 
 @Getter
 @Entity
 @Data
-@Table(name = "UserWithRole")
+@DynamicUpdate
+@Table(name = "UserWithRole", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_user_username_key", columnNames = "username_key"),
+        @UniqueConstraint(name = "uk_user_email_key", columnNames = "email_key")
+})
 public class User implements UserDetails {
 
     @Id
@@ -38,6 +46,17 @@ public class User implements UserDetails {
     @NotEmpty(message = "Email should be valid")
     private String email;
 
+    // Нормализованные (trim + lower case) копии firstName и email для логина без учета регистра.
+    // На колонках уникальные индексы: поиск идет по индексу, а дубликаты отсекает база, а не проверка перед вставкой.
+    // Заполняются сеттерами firstName/email, напрямую не меняются.
+    @Column(name = "username_key")
+    @Setter(AccessLevel.NONE)
+    private String usernameKey;
+
+    @Column(name = "email_key")
+    @Setter(AccessLevel.NONE)
+    private String emailKey;
+
     @Column(name="password")
     @Size(min=6,max=100,message="Password should be min 6 characters")
     private String password;
@@ -46,6 +65,12 @@ public class User implements UserDetails {
     @Column
     private Gender gender;
 
+    // Версия записи для оптимистической блокировки и ETag в JSON API. Увеличивается Hibernate при каждом UPDATE,
+    // default 0 нужен, чтобы ddl-auto=update смог добавить колонку к уже существующим строкам.
+    @Version
+    @Column(name = "version", columnDefinition = "bigint default 0 not null")
+    private long version;
+
     @ManyToMany(cascade = CascadeType.MERGE ,fetch = FetchType.EAGER)
     @JoinTable(
             name="user_role",
@@ -55,9 +80,9 @@ public class User implements UserDetails {
     private Set<Role> role;
 
     public User(String firstName, String lastName,String email, String password, Gender gender, Set<Role> role) {
-        this.firstName = firstName;
+        setFirstName(firstName);
         this.lastName = lastName;
-        this.email = email;
+        setEmail(email);
         this.password = password;
         this.gender = gender;
         this.role=role;
@@ -66,6 +91,25 @@ public class User implements UserDetails {
     public User() {
     }
 
+    public static String normalize(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+        this.usernameKey = normalize(firstName);
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+        this.emailKey = normalize(email);
+    }
+
+    @PrePersist
+    void syncKeys() {
+        this.usernameKey = normalize(firstName);
+        this.emailKey = normalize(email);
+    }
 
 
     @Override
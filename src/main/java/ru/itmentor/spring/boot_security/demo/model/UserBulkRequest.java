@@ -0,0 +1,27 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Выбор пользователей для массовой операции: список id или фильтр (если заданы оба, условия объединяются через AND).
+ * roleName - роль для выдачи или отзыва.
+ */
+@Data
+public class UserBulkRequest {
+
+    private List<Long> ids;
+
+    private UserFilter filter;
+
+    private String roleName;
+
+    public boolean hasIds() {
+        return ids != null && !ids.isEmpty();
+    }
+
+    public boolean hasFilter() {
+        return filter != null && (filter.hasRole() || filter.hasGender() || filter.hasEmailDomain());
+    }
+}
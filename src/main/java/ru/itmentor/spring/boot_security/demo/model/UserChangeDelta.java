@@ -0,0 +1,22 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * Изменение пользователя в потоке /admin/users/changes. seq - номер изменения, он же id события SSE,
+ * по которому клиент продолжает поток после переподключения. user - состояние после изменения,
+ * у удаленных пользователей отсутствует.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserChangeDelta {
+
+    private final long seq;
+
+    private final String type;
+
+    private final long userId;
+
+    private final UserView user;
+}
@@ -0,0 +1,69 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+import org.springframework.util.StringUtils;
+
+/**
+ * Фильтр списка пользователей в панели администратора.
+ * Пустые поля означают отсутствие ограничения.
+ */
+@Data
+public class UserFilter {
+
+    /**
+     * Символ экранирования для шаблонов LIKE; запросы с этими шаблонами пишут {@code like :param escape '\'}.
+     */
+    public static final String LIKE_ESCAPE = "\\";
+
+    private String role;
+
+    private Gender gender;
+
+    private String emailDomain;
+
+    public boolean hasRole() {
+        return StringUtils.hasText(role);
+    }
+
+    public boolean hasGender() {
+        return gender != null;
+    }
+
+    public boolean hasEmailDomain() {
+        return StringUtils.hasText(emailDomain);
+    }
+
+    /**
+     * Шаблон для LIKE по домену почты: "gmail.com" и "@gmail.com" превращаются в "%@gmail.com".
+     * "_" и "%" в домене совпадают только сами с собой.
+     */
+    public String emailDomainPattern() {
+        String domain = emailDomain.trim().toLowerCase();
+        if (domain.startsWith("@")) {
+            domain = domain.substring(1);
+        }
+        return "%@" + escapeLike(domain);
+    }
+
+    /**
+     * Шаблон для LIKE по списку ролей через запятую, обрамленному запятыми: ROLE_USER -> "%,ROLE_USER,%".
+     */
+    public String roleListPattern() {
+        return "%," + escapeLike(role) + ",%";
+    }
+
+    /**
+     * Экранирует символы шаблона LIKE, чтобы значение совпадало буквально.
+     */
+    public static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                escaped.append(LIKE_ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Результат массового импорта пользователей: статус каждой строки и итоговая пропускная способность.
+ */
+@Data
+public class UserImportReport {
+
+    public enum Status {
+        CREATED,
+        DUPLICATE,
+        INVALID,
+        FAILED
+    }
+
+    @Data
+    public static class RowResult {
+        private final long line;
+        private final String username;
+        private final Status status;
+        private final String message;
+    }
+
+    private final List<RowResult> rows = new ArrayList<>();
+
+    private long created;
+
+    private long skipped;
+
+    private long failed;
+
+    private long elapsedMillis;
+
+    private double usersPerSecond;
+
+    public void add(RowResult row) {
+        rows.add(row);
+        switch (row.getStatus()) {
+            case CREATED:
+                created++;
+                break;
+            case FAILED:
+                failed++;
+                break;
+            default:
+                skipped++;
+        }
+    }
+
+    public void finish(long elapsedNanos) {
+        rows.sort(Comparator.comparingLong(RowResult::getLine));
+        this.elapsedMillis = elapsedNanos / 1_000_000;
+        this.usersPerSecond = elapsedNanos == 0 ? 0 : created * 1_000_000_000.0 / elapsedNanos;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Одна страница списка пользователей при keyset-пагинации.
+ * nextCursor - id последнего пользователя страницы, null если страница последняя.
+ */
+@Data
+public class UserPage {
+
+    private final List<User> users;
+
+    private final Long nextCursor;
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Getter;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Строка денормализованной read-модели: пользователь вместе с именами ролей, без join-ов с user_role и role.
+ * Сущность нужна только для схемы (ddl-auto создает таблицу); пишет и читает таблицу UserReadModel через JDBC.
+ */
+@Getter
+@Entity
+@Immutable
+@Table(name = "user_read_model", indexes = {
+        @Index(name = "ix_user_read_model_username_key", columnList = "username_key"),
+        @Index(name = "ix_user_read_model_email_key", columnList = "email_key")
+})
+public class UserReadModelRow {
+
+    @Id
+    @Column(name = "user_id")
+    private long id;
+
+    @Column(name = "first_name")
+    private String firstName;
+
+    @Column(name = "last_name")
+    private String lastName;
+
+    @Column(name = "email")
+    private String email;
+
+    @Column(name = "gender")
+    private String gender;
+
+    @Column(name = "username_key")
+    private String usernameKey;
+
+    @Column(name = "email_key")
+    private String emailKey;
+
+    @Column(name = "password")
+    private String password;
+
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    // Имена ролей через запятую в алфавитном порядке
+    @Column(name = "role_names", length = 1000)
+    private String roleNames;
+}
@@ -0,0 +1,20 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+
+/**
+ * Один результат поиска пользователей. score - чем больше, тем выше в выдаче.
+ */
+@Data
+public class UserSearchHit {
+
+    private final long id;
+
+    private final String firstName;
+
+    private final String lastName;
+
+    private final String email;
+
+    private final int score;
+}
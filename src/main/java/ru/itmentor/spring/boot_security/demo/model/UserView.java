@@ -0,0 +1,34 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Пользователь в ответах read-only API: без пароля и служебных ключей, роли - именами.
+ */
+@Data
+public class UserView {
+
+    private final long id;
+
+    private final String firstName;
+
+    private final String lastName;
+
+    private final String email;
+
+    private final String gender;
+
+    private final List<String> roles;
+
+    public static UserView of(User user) {
+        List<String> roles = user.getRole() == null ? List.of() : user.getRole().stream()
+                .map(Role::getName)
+                .sorted()
+                .collect(Collectors.toList());
+        return new UserView(user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(),
+                user.getGender() == null ? null : user.getGender().name(), roles);
+    }
+}
@@ -1,8 +1,33 @@
 package ru.itmentor.spring.boot_security.demo.repository;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.itmentor.spring.boot_security.demo.model.User;
 
 
-public interface UserRepository extends JpaRepository<User,Long> {
-    User findByFirstName(String name);
+public interface UserRepository extends JpaRepository<User,Long>, UserRepositoryCustom {
+    // Ключи передаются уже нормализованными через User.normalize
+    User findByUsernameKey(String usernameKey);
+
+    User findByEmailKey(String emailKey);
+
+    boolean existsByUsernameKey(String usernameKey);
+
+    /**
+     * Заполняет ключи у записей, созданных до появления колонок username_key и email_key.
+     */
+    @Transactional
+    @Modifying
+    @Query("update User u set u.usernameKey = lower(trim(u.firstName)), u.emailKey = lower(trim(u.email)) " +
+            "where u.usernameKey is null or u.emailKey is null")
+    int backfillKeys();
+
+    @Query("select u.password from User u where u.id = :id")
+    String findPasswordById(@Param("id") long id);
+
+    // Для ETag: проверка If-None-Match / If-Match без загрузки пользователя с ролями
+    @Query("select u.version from User u where u.id = :id")
+    Long findVersionById(@Param("id") long id);
 }
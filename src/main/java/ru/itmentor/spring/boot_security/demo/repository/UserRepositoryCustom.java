@@ -0,0 +1,15 @@
+package ru.itmentor.spring.boot_security.demo.repository;
+
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+
+import java.util.List;
+
+public interface UserRepositoryCustom {
+
+    /**
+     * Keyset-выборка: до limit пользователей с user_id больше afterId, подходящих под фильтр,
+     * в порядке возрастания id. Роли подгружаются одним join fetch запросом на страницу.
+     */
+    List<User> findPage(UserFilter filter, long afterId, int limit);
+}
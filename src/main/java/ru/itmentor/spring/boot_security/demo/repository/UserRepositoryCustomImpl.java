@@ -0,0 +1,57 @@
+package ru.itmentor.spring.boot_security.demo.repository;
+
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.Collections;
+import java.util.List;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<User> findPage(UserFilter filter, long afterId, int limit) {
+        // Шаг 1: выбираем только id страницы - seek по первичному ключу, фильтры уходят в SQL.
+        // Пагинация вместе с join fetch коллекции выполнялась бы Hibernate в памяти, поэтому разделяем.
+        StringBuilder jpql = new StringBuilder("select u.id from User u where u.id > :afterId");
+        if (filter.hasRole()) {
+            jpql.append(" and u.id in (select ur.id from User ur join ur.role r where r.name = :role)");
+        }
+        if (filter.hasGender()) {
+            jpql.append(" and u.gender = :gender");
+        }
+        if (filter.hasEmailDomain()) {
+            jpql.append(" and lower(u.email) like :emailDomain escape '\\'");
+        }
+        jpql.append(" order by u.id");
+
+        TypedQuery<Long> idQuery = entityManager.createQuery(jpql.toString(), Long.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit);
+        if (filter.hasRole()) {
+            idQuery.setParameter("role", filter.getRole());
+        }
+        if (filter.hasGender()) {
+            idQuery.setParameter("gender", filter.getGender());
+        }
+        if (filter.hasEmailDomain()) {
+            idQuery.setParameter("emailDomain", filter.emailDomainPattern());
+        }
+        List<Long> ids = idQuery.getResultList();
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Шаг 2: один запрос на страницу загружает пользователей вместе с ролями.
+        return entityManager.createQuery(
+                        "select distinct u from User u left join fetch u.role where u.id in :ids order by u.id",
+                        User.class)
+                .setParameter("ids", ids)
+                .getResultList();
+    }
+}
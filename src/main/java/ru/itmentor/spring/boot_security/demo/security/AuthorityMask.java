@@ -0,0 +1,105 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемая битовая маска ролей. Номер бита роли назначает RoleRegistry при загрузке.
+ * Пока ролей не больше 64, маска - одно слово long, и проверки hasRole/hasAnyRole сводятся к одной операции AND.
+ * Номера битов действуют только в этом процессе, поэтому маска не сериализуется: в сессии хранятся имена ролей.
+ */
+public final class AuthorityMask {
+
+    public static final AuthorityMask EMPTY = new AuthorityMask(new long[0]);
+
+    private final long[] words;
+
+    private AuthorityMask(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Собирает маску из номеров битов; отрицательные номера (неизвестные роли) пропускаются.
+     */
+    public static AuthorityMask of(int... bits) {
+        int max = -1;
+        for (int bit : bits) {
+            max = Math.max(max, bit);
+        }
+        if (max < 0) {
+            return EMPTY;
+        }
+        long[] words = new long[(max >>> 6) + 1];
+        for (int bit : bits) {
+            if (bit >= 0) {
+                words[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return new AuthorityMask(words);
+    }
+
+    public boolean get(int bit) {
+        int word = bit >>> 6;
+        return bit >= 0 && word < words.length && (words[word] & (1L << bit)) != 0;
+    }
+
+    /**
+     * true, если есть хотя бы одна общая роль (hasAnyRole).
+     */
+    public boolean intersects(AuthorityMask other) {
+        int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * true, если в маске есть все роли из other.
+     */
+    public boolean containsAll(AuthorityMask other) {
+        for (int i = 0; i < other.words.length; i++) {
+            long mine = i < words.length ? words[i] : 0L;
+            if ((mine & other.words[i]) != other.words[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AuthorityMask)) return false;
+        AuthorityMask other = (AuthorityMask) o;
+        return containsAll(other) && other.containsAll(this);
+    }
+
+    @Override
+    public int hashCode() {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.hashCode(Arrays.copyOf(words, length));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AuthorityMask[");
+        for (int i = words.length - 1; i >= 0; i--) {
+            sb.append(Long.toBinaryString(words[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
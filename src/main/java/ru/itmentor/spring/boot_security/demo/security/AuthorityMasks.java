@@ -0,0 +1,37 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import ru.itmentor.spring.boot_security.demo.service.RoleRegistry;
+import ru.itmentor.spring.boot_security.demo.service.RoleServiceImpl;
+
+/**
+ * Перевод ролей в маски по текущему RoleRegistry.
+ */
+@Component
+@RequiredArgsConstructor
+public class AuthorityMasks {
+
+    private final RoleServiceImpl roleService;
+
+    public RoleRegistry registry() {
+        return roleService.getRegistry();
+    }
+
+    /**
+     * Маска аутентификации: закэшированная в MaskedAuthenticationToken, иначе (anonymous, сторонние провайдеры)
+     * вычисляется по строкам ролей.
+     */
+    public AuthorityMask of(Authentication authentication) {
+        RoleRegistry registry = registry();
+        if (authentication instanceof MaskedAuthenticationToken) {
+            return ((MaskedAuthenticationToken) authentication).getAuthorityMask(registry);
+        }
+        return registry.maskOf(authentication.getAuthorities());
+    }
+
+    public boolean hasAuthority(Authentication authentication, String authority) {
+        return of(authentication).get(registry().bitOf(authority));
+    }
+}
@@ -0,0 +1,74 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.itmentor.spring.boot_security.demo.model.User;
+
+/**
+ * Ограничение частоты попыток логина по IP клиента и по имени пользователя.
+ * Проверка выполняется до загрузки пользователя и BCrypt, поэтому волна подбора паролей
+ * не занимает процессор хэшированием. Обе проверки - RateSketch: без блокировок и с фиксированной памятью.
+ * Сначала проверяется IP, и только разрешенная попытка расходует токен имени: так атака с одного адреса
+ * не выбирает лимит чужого имени пользователя.
+ * IP клиента - request.getRemoteAddr(): за балансировщиком его подставляет из X-Forwarded-For
+ * server.forward-headers-strategy=native, и только для запросов от доверенных прокси (server.tomcat.remoteip.*).
+ * Отказы считаются в app.login.throttled с тегом limit (ip/username).
+ */
+@Component
+public class LoginThrottle {
+
+    private final boolean enabled;
+    private final RateSketch byIp;
+    private final RateSketch byUsername;
+    private final Counter rejectedByIp;
+    private final Counter rejectedByUsername;
+
+    public LoginThrottle(@Value("${app.login-throttle.enabled:true}") boolean enabled,
+                         @Value("${app.login-throttle.width:65536}") int width,
+                         @Value("${app.login-throttle.ip.rate-per-minute:60}") int ipRate,
+                         @Value("${app.login-throttle.ip.burst:20}") int ipBurst,
+                         @Value("${app.login-throttle.username.rate-per-minute:10}") int usernameRate,
+                         @Value("${app.login-throttle.username.burst:5}") int usernameBurst,
+                         MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.byIp = new RateSketch(2, width, ipRate, ipBurst);
+        this.byUsername = new RateSketch(2, width, usernameRate, usernameBurst);
+        this.rejectedByIp = Counter.builder("app.login.throttled")
+                .description("Login attempts rejected before authentication")
+                .tag("limit", "ip")
+                .register(meterRegistry);
+        this.rejectedByUsername = Counter.builder("app.login.throttled")
+                .description("Login attempts rejected before authentication")
+                .tag("limit", "username")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return 0, если попытку можно выполнять, иначе сколько миллисекунд клиенту стоит подождать.
+     */
+    public long tryAcquire(String clientIp, String username) {
+        if (!enabled) {
+            return 0;
+        }
+        long wait = byIp.tryAcquire(clientIp == null ? "" : clientIp);
+        if (wait > 0) {
+            rejectedByIp.increment();
+            return toMillis(wait);
+        }
+        String key = User.normalize(username);
+        if (key != null && !key.isEmpty()) {
+            wait = byUsername.tryAcquire(key);
+            if (wait > 0) {
+                rejectedByUsername.increment();
+                return toMillis(wait);
+            }
+        }
+        return 0;
+    }
+
+    private static long toMillis(long nanos) {
+        return Math.max(1, (nanos + 999_999) / 1_000_000);
+    }
+}
@@ -0,0 +1,50 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Пропускает POST /login через LoginThrottle до UsernamePasswordAuthenticationFilter.
+ * Отклоненная попытка получает 429 с Retry-After и не доходит ни до базы, ни до BCrypt.
+ * Не компонент: его добавляет в цепочку WebSecurityConfig.
+ */
+public class LoginThrottleFilter extends OncePerRequestFilter {
+
+    private static final RequestMatcher LOGIN = new AntPathRequestMatcher("/login", "POST");
+
+    private final LoginThrottle loginThrottle;
+
+    public LoginThrottleFilter(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !LOGIN.matches(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long waitMillis = loginThrottle.tryAcquire(request.getRemoteAddr(), request.getParameter("username"));
+        if (waitMillis > 0) {
+            reject(response, waitMillis);
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    static void reject(HttpServletResponse response, long waitMillis) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((waitMillis + 999) / 1000));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many login attempts");
+    }
+}
@@ -0,0 +1,50 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import ru.itmentor.spring.boot_security.demo.service.RoleRegistry;
+
+import java.util.Collection;
+
+/**
+ * Аутентифицированный токен с маской ролей, вычисленной по реестру ролей.
+ * Маска считается при входе и дальше используется во всех проверках доступа вместо перебора строк.
+ * <p>
+ * Номера битов назначает RoleRegistry в каждом процессе заново, поэтому в сессии хранятся только имена ролей
+ * (authorities), а маска - transient: после десериализации на другом узле или после перезапуска
+ * она заново вычисляется по местному реестру при первой проверке.
+ */
+public class MaskedAuthenticationToken extends UsernamePasswordAuthenticationToken {
+
+    private static final long serialVersionUID = 2L;
+
+    private transient volatile Cached cached;
+
+    public MaskedAuthenticationToken(Object principal, Object credentials,
+                                     Collection<? extends GrantedAuthority> authorities, RoleRegistry registry) {
+        super(principal, credentials, authorities);
+        this.cached = new Cached(registry, registry.maskOf(authorities));
+    }
+
+    /**
+     * Маска по реестру registry; пересчитывается, только если маска вычислена по другому снимку реестра.
+     */
+    public AuthorityMask getAuthorityMask(RoleRegistry registry) {
+        Cached current = cached;
+        if (current == null || current.registry != registry) {
+            current = new Cached(registry, registry.maskOf(getAuthorities()));
+            cached = current;
+        }
+        return current.mask;
+    }
+
+    private static final class Cached {
+        private final RoleRegistry registry;
+        private final AuthorityMask mask;
+
+        private Cached(RoleRegistry registry, AuthorityMask mask) {
+            this.registry = registry;
+            this.mask = mask;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * DaoAuthenticationProvider, который после успешного входа вычисляет маску ролей
+ * и возвращает MaskedAuthenticationToken.
+ */
+public class MaskingDaoAuthenticationProvider extends DaoAuthenticationProvider {
+
+    private final AuthorityMasks authorityMasks;
+
+    public MaskingDaoAuthenticationProvider(AuthorityMasks authorityMasks) {
+        this.authorityMasks = authorityMasks;
+    }
+
+    @Override
+    protected Authentication createSuccessAuthentication(Object principal, Authentication authentication,
+                                                         UserDetails user) {
+        Authentication result = super.createSuccessAuthentication(principal, authentication, user);
+        MaskedAuthenticationToken masked = new MaskedAuthenticationToken(result.getPrincipal(),
+                result.getCredentials(), result.getAuthorities(), authorityMasks.registry());
+        masked.setDetails(result.getDetails());
+        return masked;
+    }
+}
@@ -0,0 +1,91 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Приближенный набор token bucket-ов фиксированного размера в духе count-min sketch.
+ * Ключ хэшируется в одну ячейку каждой из depth строк; ячейка хранит "теоретическое время прибытия"
+ * следующего запроса (алгоритм GCRA), поэтому весь bucket - один long, и обновляется он одним CAS без блокировок.
+ * Попытка разрешена, только если разрешают все строки: коллизии могут лишь ужесточить лимит для ключа,
+ * но никогда не ослабить его. Память не зависит от числа ключей: depth * width * 8 байт.
+ */
+final class RateSketch {
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final AtomicLongArray cells;
+    private final int depth;
+    private final int mask;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    // Точка отсчета времени: nanoTime может быть отрицательным, а пустая ячейка (0) должна означать "давно"
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param depth         Число строк (1..4).
+     * @param width         Ячеек в строке, округляется вверх до степени двойки.
+     * @param ratePerMinute Средняя разрешенная частота попыток на ключ.
+     * @param burst         Сколько попыток подряд разрешено сверх средней частоты.
+     */
+    RateSketch(int depth, int width, int ratePerMinute, int burst) {
+        if (depth < 1 || depth > SEEDS.length) {
+            throw new IllegalArgumentException("depth must be between 1 and " + SEEDS.length);
+        }
+        int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(depth * size);
+        this.intervalNanos = 60_000_000_000L / Math.max(1, ratePerMinute);
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+    }
+
+    /**
+     * Пытается взять токен для ключа. Каждая строка проверяется и обновляется одним циклом CAS, поэтому
+     * параллельные попытки не могут вместе превысить лимит. Если отказала не первая строка, токены уже взятых
+     * строк не возвращаются: это лишь ужесточает лимит для ключей, разделяющих с этим ячейки.
+     *
+     * @return 0, если попытка разрешена, иначе через сколько наносекунд появится следующий токен.
+     */
+    long tryAcquire(String key) {
+        return tryAcquire(key, System.nanoTime() - origin);
+    }
+
+    /**
+     * То же, что tryAcquire(key), но в момент now (наносекунды от создания скетча, не меньше 0).
+     */
+    long tryAcquire(String key, long now) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        for (int row = 0; row < depth; row++) {
+            int index = index(row, bytes);
+            long current;
+            long tat;
+            do {
+                current = cells.get(index);
+                tat = Math.max(current, now);
+                if (tat - now > toleranceNanos) {
+                    return tat - now - toleranceNanos;
+                }
+            } while (!cells.compareAndSet(index, current, tat + intervalNanos));
+        }
+        return 0;
+    }
+
+    /**
+     * Ячейка ключа в строке row. У каждой строки свое зерно, и хэшируются сами байты ключа, а не общий
+     * 32-битный hashCode: ключи, совпавшие в одной строке, почти никогда не совпадают в другой.
+     */
+    private int index(int row, byte[] key) {
+        long h = SEEDS[row];
+        for (byte b : key) {
+            h = (h ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (row << Integer.numberOfTrailingZeros(mask + 1)) + (int) (h & mask);
+    }
+}
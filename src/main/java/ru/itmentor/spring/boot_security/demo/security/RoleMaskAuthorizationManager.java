@@ -0,0 +1,70 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.access.intercept.RequestAuthorizationContext;
+import ru.itmentor.spring.boot_security.demo.service.RoleRegistry;
+
+import java.util.function.Supplier;
+
+/**
+ * hasRole/hasAnyRole для authorizeHttpRequests(), вычисляемые одной операцией над масками.
+ * Требуемая маска компилируется лениво (роли появляются в базе уже после сборки цепочки фильтров)
+ * и пересобирается только при смене снимка RoleRegistry. Решения заранее созданы, так что проверка не аллоцирует.
+ */
+public final class RoleMaskAuthorizationManager implements AuthorizationManager<RequestAuthorizationContext> {
+
+    private static final String ROLE_PREFIX = "ROLE_";
+    private static final AuthorizationDecision GRANTED = new AuthorizationDecision(true);
+    private static final AuthorizationDecision DENIED = new AuthorizationDecision(false);
+
+    private final AuthorityMasks authorityMasks;
+    private final String[] authorities;
+    private volatile Compiled compiled;
+
+    private RoleMaskAuthorizationManager(AuthorityMasks authorityMasks, String... roles) {
+        this.authorityMasks = authorityMasks;
+        this.authorities = new String[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            this.authorities[i] = roles[i].startsWith(ROLE_PREFIX) ? roles[i] : ROLE_PREFIX + roles[i];
+        }
+    }
+
+    public static RoleMaskAuthorizationManager hasRole(AuthorityMasks authorityMasks, String role) {
+        return new RoleMaskAuthorizationManager(authorityMasks, role);
+    }
+
+    public static RoleMaskAuthorizationManager hasAnyRole(AuthorityMasks authorityMasks, String... roles) {
+        return new RoleMaskAuthorizationManager(authorityMasks, roles);
+    }
+
+    @Override
+    public AuthorizationDecision check(Supplier<Authentication> authentication, RequestAuthorizationContext context) {
+        Authentication current = authentication.get();
+        if (current == null || !current.isAuthenticated()) {
+            return DENIED;
+        }
+        return authorityMasks.of(current).intersects(required()) ? GRANTED : DENIED;
+    }
+
+    private AuthorityMask required() {
+        RoleRegistry registry = authorityMasks.registry();
+        Compiled snapshot = compiled;
+        if (snapshot == null || snapshot.registry != registry) {
+            snapshot = new Compiled(registry, registry.maskOfNames(authorities));
+            compiled = snapshot;
+        }
+        return snapshot.mask;
+    }
+
+    private static final class Compiled {
+        final RoleRegistry registry;
+        final AuthorityMask mask;
+
+        Compiled(RoleRegistry registry, AuthorityMask mask) {
+            this.registry = registry;
+            this.mask = mask;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Аутентифицирует запрос по заголовку "Authorization: Bearer ...".
+ * Проверяются только подпись, срок действия и список отзыва - без обращения к базе.
+ * Намеренно не объявлен компонентом: его добавляет TokenSecurityConfig только в цепочку /api/**.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final String BEARER = "Bearer ";
+
+    private final TokenService tokenService;
+    private final TokenRevocationList revocationList;
+    private final AuthorityMasks authorityMasks;
+
+    public TokenAuthenticationFilter(TokenService tokenService, TokenRevocationList revocationList,
+                                     AuthorityMasks authorityMasks) {
+        this.tokenService = tokenService;
+        this.revocationList = revocationList;
+        this.authorityMasks = authorityMasks;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.startsWith(BEARER)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        TokenClaims claims;
+        try {
+            claims = tokenService.verify(header.substring(BEARER.length()).trim());
+        } catch (InvalidTokenException e) {
+            reject(response, e.getMessage());
+            return;
+        }
+        if (!claims.isAccess() || revocationList.isRevoked(claims)) {
+            reject(response, "Token revoked");
+            return;
+        }
+        String[] roles = claims.getRoles().toArray(new String[0]);
+        MaskedAuthenticationToken authentication = new MaskedAuthenticationToken(claims.getUsername(), null,
+                AuthorityUtils.createAuthorityList(roles), authorityMasks.registry());
+        authentication.setDetails(claims);
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(authentication);
+        SecurityContextHolder.setContext(context);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    private static void reject(HttpServletResponse response, String message) throws IOException {
+        response.setHeader(HttpHeaders.WWW_AUTHENTICATE,
+                "Bearer error=\"invalid_token\", error_description=\"" + message + "\"");
+        response.sendError(HttpServletResponse.SC_UNAUTHORIZED, message);
+    }
+}
@@ -0,0 +1,40 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Содержимое подписанного токена. Время - в миллисекундах с эпохи.
+ */
+@Data
+public class TokenClaims {
+
+    public static final String ACCESS = "access";
+    public static final String REFRESH = "refresh";
+
+    private String id;
+
+    private String type;
+
+    private long userId;
+
+    private String username;
+
+    private List<String> roles;
+
+    private long issuedAt;
+
+    private long expiresAt;
+
+    @JsonIgnore
+    public boolean isAccess() {
+        return ACCESS.equals(type);
+    }
+
+    @JsonIgnore
+    public boolean isRefresh() {
+        return REFRESH.equals(type);
+    }
+}
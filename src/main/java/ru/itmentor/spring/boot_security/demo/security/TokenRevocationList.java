@@ -0,0 +1,156 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Список отозванных токенов.
+ * Отдельные refresh-токены отзываются по id (jti) до истечения их срока. Отзыв хранится в таблице revoked_token,
+ * общей для всех узлов: refresh-токен, отозванный или уже обмененный на одном узле, не примет и другой.
+ * Первичный ключ по id делает проверку и отзыв одной операцией, поэтому один refresh-токен обменивается
+ * только один раз, даже если запросы пришли на разные узлы одновременно. Отозванные id дополнительно
+ * помнятся локально, и повторная проверка не идет в базу.
+ * Кроме того, при изменении или удалении пользователя все его access-токены, выпущенные раньше, становятся недействительны:
+ * роли в них могли устареть. С других узлов изменения приходят через InvalidationBus как remote-события.
+ * Refresh-токены при этом остаются валидными - при обновлении пользователь перечитывается из базы,
+ * а удаленный пользователь обновиться не сможет.
+ * Если изменения с других узлов могли потеряться (CachesFlushEvent), недействительными становятся все
+ * выпущенные раньше access-токены: клиенты получат новые по refresh-токену.
+ * Проверка access-токена в базу не обращается. Просроченные записи вычищаются при записи,
+ * поэтому память и таблица ограничены числом живых токенов.
+ */
+@Component
+@ConditionalOnProperty(name = "app.security.token.enabled", havingValue = "true")
+public class TokenRevocationList {
+
+    private static final int PURGE_THRESHOLD = 1024;
+    private static final long TABLE_PURGE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String INSERT = "insert into revoked_token (id, expires_at) values (:id, :expiresAt)";
+    private static final String EXISTS = "select count(*) from revoked_token where id = :id";
+    private static final String PURGE = "delete from revoked_token where expires_at <= :now";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    private final Map<Long, Long> accessNotBefore = new ConcurrentHashMap<>();
+    private final long accessTtlMillis;
+    private volatile long globalAccessNotBefore;
+    private volatile long tablePurgedAt;
+
+    public TokenRevocationList(NamedParameterJdbcTemplate jdbcTemplate,
+                               @Value("${app.security.token.access-ttl:PT15M}") Duration accessTtl) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.accessTtlMillis = accessTtl.toMillis();
+    }
+
+    public boolean isRevoked(TokenClaims claims) {
+        if (claims.isAccess()) {
+            if (claims.getIssuedAt() < globalAccessNotBefore) {
+                return true;
+            }
+            Long notBefore = accessNotBefore.get(claims.getUserId());
+            return notBefore != null && claims.getIssuedAt() < notBefore;
+        }
+        if (revokedTokens.containsKey(claims.getId())) {
+            return true;
+        }
+        Integer count = jdbcTemplate.queryForObject(EXISTS, new MapSqlParameterSource("id", claims.getId()),
+                Integer.class);
+        if (count == null || count == 0) {
+            return false;
+        }
+        revokedTokens.putIfAbsent(claims.getId(), claims.getExpiresAt());
+        return true;
+    }
+
+    /**
+     * Отзывает refresh-токен. Возвращает false, если он уже был отозван (здесь или на другом узле):
+     * обменять refresh-токен на новую пару можно, только если отзыв удался.
+     */
+    public boolean revoke(TokenClaims claims) {
+        if (revokedTokens.putIfAbsent(claims.getId(), claims.getExpiresAt()) != null) {
+            return false;
+        }
+        try {
+            jdbcTemplate.update(INSERT, new MapSqlParameterSource()
+                    .addValue("id", claims.getId())
+                    .addValue("expiresAt", claims.getExpiresAt()));
+        } catch (DuplicateKeyException e) {
+            return false;
+        } catch (RuntimeException e) {
+            // Отзыв не сохранен: токен не должен считаться отозванным только на этом узле
+            revokedTokens.remove(claims.getId());
+            throw e;
+        }
+        purgeIfNeeded();
+        return true;
+    }
+
+    public void revokeAccessTokens(long userId) {
+        accessNotBefore.put(userId, System.currentTimeMillis());
+        purgeIfNeeded();
+    }
+
+    public void revokeAccessTokens(Collection<Long> userIds) {
+        long now = System.currentTimeMillis();
+        for (Long userId : userIds) {
+            accessNotBefore.put(userId, now);
+        }
+        purgeIfNeeded();
+    }
+
+    public void revokeAllAccessTokens() {
+        globalAccessNotBefore = System.currentTimeMillis();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.getType() != UserChangedEvent.Type.CREATED) {
+            revokeAccessTokens(event.getUserId());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        revokeAccessTokens(event.getUserIds());
+    }
+
+    @EventListener(CachesFlushEvent.class)
+    public void onCachesFlush() {
+        revokeAllAccessTokens();
+    }
+
+    public int size() {
+        return revokedTokens.size() + accessNotBefore.size();
+    }
+
+    private void purgeIfNeeded() {
+        if (size() < PURGE_THRESHOLD) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+        // Через accessTtl после отзыва все токены, выпущенные до него, истекли сами
+        accessNotBefore.values().removeIf(notBefore -> notBefore + accessTtlMillis <= now);
+        // Таблицу чистят все узлы, поэтому не чаще раза в минуту
+        if (now - tablePurgedAt >= TABLE_PURGE_INTERVAL_MILLIS) {
+            tablePurgedAt = now;
+            jdbcTemplate.update(PURGE, new MapSqlParameterSource("now", now));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+
+/**
+ * Stateless-цепочка безопасности для /api/**: без сессий и CSRF, аутентификация только по токену.
+ * Включается свойством app.security.token.enabled=true и работает рядом с формой логина из WebSecurityConfig.
+ * Токены выдает TokenController по /api/auth/**.
+ */
+@Configuration
+@Order(1)
+@ConditionalOnProperty(name = "app.security.token.enabled", havingValue = "true")
+public class TokenSecurityConfig extends WebSecurityConfigurerAdapter {
+
+    private final TokenService tokenService;
+    private final TokenRevocationList revocationList;
+    private final AuthorityMasks authorityMasks;
+
+    public TokenSecurityConfig(TokenService tokenService, TokenRevocationList revocationList,
+                               AuthorityMasks authorityMasks) {
+        this.tokenService = tokenService;
+        this.revocationList = revocationList;
+        this.authorityMasks = authorityMasks;
+    }
+
+    @Override
+    protected void configure(HttpSecurity http) throws Exception {
+        http
+                .antMatcher("/api/**")
+                .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                .and()
+                .csrf().disable()
+                .addFilterBefore(new TokenAuthenticationFilter(tokenService, revocationList, authorityMasks),
+                        UsernamePasswordAuthenticationFilter.class)
+                .exceptionHandling().authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED))
+                .and()
+                .authorizeHttpRequests()
+                .antMatchers("/api/auth/**").permitAll()
+                .antMatchers("/api/users/me", "/api/roles")
+                .access(RoleMaskAuthorizationManager.hasAnyRole(authorityMasks, "ADMIN", "USER"))
+                .antMatchers("/api/admin/**", "/api/read/**", "/api/users/**")
+                .access(RoleMaskAuthorizationManager.hasAnyRole(authorityMasks, "ADMIN"))
+                .anyRequest().authenticated();
+    }
+}
@@ -0,0 +1,147 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import ru.itmentor.spring.boot_security.demo.model.User;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Выпуск и проверка подписанных токенов для stateless-режима (app.security.token.enabled=true).
+ * Формат как у JWT: base64url(заголовок).base64url(claims).base64url(HMAC-SHA256), но время в claims
+ * хранится в миллисекундах. Проверка токена не обращается ни к базе, ни к UserServiceImpl.
+ * Для нескольких узлов app.security.token.secret должен быть одинаковым; если он пуст,
+ * ключ генерируется при старте и токены переживают только этот процесс.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "app.security.token.enabled", havingValue = "true")
+public class TokenService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String HEADER = base64(
+            "{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+
+    private final ObjectMapper objectMapper;
+    private final SecretKeySpec key;
+    private final long accessTtlMillis;
+    private final long refreshTtlMillis;
+    private final ThreadLocal<Mac> mac;
+
+    public TokenService(ObjectMapper objectMapper,
+                        @Value("${app.security.token.secret:}") String secret,
+                        @Value("${app.security.token.access-ttl:PT15M}") Duration accessTtl,
+                        @Value("${app.security.token.refresh-ttl:P7D}") Duration refreshTtl) {
+        this.objectMapper = objectMapper;
+        this.accessTtlMillis = accessTtl.toMillis();
+        this.refreshTtlMillis = refreshTtl.toMillis();
+        byte[] keyBytes;
+        if (StringUtils.hasText(secret)) {
+            keyBytes = Base64.getDecoder().decode(secret);
+        } else {
+            log.warn("app.security.token.secret is not set, tokens will be signed with a random per-process key");
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        // Mac не потокобезопасен, держим по экземпляру на поток
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(ALGORITHM);
+                instance.init(key);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+    }
+
+    public long getAccessTtlMillis() {
+        return accessTtlMillis;
+    }
+
+    public String issueAccessToken(User user) {
+        return issue(user, TokenClaims.ACCESS, accessTtlMillis);
+    }
+
+    public String issueRefreshToken(User user) {
+        return issue(user, TokenClaims.REFRESH, refreshTtlMillis);
+    }
+
+    /**
+     * Проверяет подпись и срок действия и возвращает claims. Отзыв токена проверяется отдельно в TokenRevocationList.
+     */
+    public TokenClaims verify(String token) {
+        int firstDot = token.indexOf('.');
+        int lastDot = token.lastIndexOf('.');
+        if (firstDot <= 0 || lastDot == firstDot) {
+            throw new InvalidTokenException("Malformed token");
+        }
+        byte[] expected = sign(token.substring(0, lastDot));
+        byte[] actual;
+        try {
+            actual = Base64.getUrlDecoder().decode(token.substring(lastDot + 1));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidTokenException("Malformed token signature", e);
+        }
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new InvalidTokenException("Invalid token signature");
+        }
+        TokenClaims claims;
+        try {
+            claims = objectMapper.readValue(Base64.getUrlDecoder().decode(token.substring(firstDot + 1, lastDot)),
+                    TokenClaims.class);
+        } catch (Exception e) {
+            throw new InvalidTokenException("Malformed token claims", e);
+        }
+        if (claims.getExpiresAt() <= System.currentTimeMillis()) {
+            throw new InvalidTokenException("Token expired");
+        }
+        return claims;
+    }
+
+    private String issue(User user, String type, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        TokenClaims claims = new TokenClaims();
+        claims.setId(UUID.randomUUID().toString());
+        claims.setType(type);
+        claims.setUserId(user.getId());
+        claims.setUsername(user.getUsername());
+        claims.setRoles(user.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .collect(Collectors.toList()));
+        claims.setIssuedAt(now);
+        claims.setExpiresAt(now + ttlMillis);
+        String payload;
+        try {
+            payload = base64(objectMapper.writeValueAsBytes(claims));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize token claims", e);
+        }
+        String unsigned = HEADER + "." + payload;
+        return unsigned + "." + base64(sign(unsigned));
+    }
+
+    private byte[] sign(String unsigned) {
+        return mac.get().doFinal(unsigned.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,218 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.Context;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+import ru.itmentor.spring.boot_security.demo.model.UserPage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Кэш отрендеренных фрагментов админки: таблица пользователей (по фильтру и странице) и списки ролей в формах.
+ * Таблица действительна, пока не изменилась UserDataVersion, списки ролей - пока не изменился RoleRegistry.
+ * Фрагмент хранится сразу в UTF-8 и в gzip, чтобы отдавать готовые байты без повторного рендера и сжатия.
+ * <p>
+ * Фрагменты рендерятся вне запроса (обычный Context, а не WebContext), поэтому в них нет CSRF-токенов
+ * и данных сессии - их можно отдавать любому администратору. Формы с токенами остаются в самих страницах.
+ * Размер кэша ограничен суммарным числом байт; вытесняется давно не использованный фрагмент.
+ */
+@Component
+public class AdminRenderCache {
+
+    private static final String USER_TABLE_TEMPLATE = "fragments/admin-user-table";
+    private static final String ROLE_OPTIONS_TEMPLATE = "fragments/role-options";
+
+    private final ITemplateEngine templateEngine;
+    private final UserService userService;
+    private final RoleServiceImpl roleService;
+    private final UserDataVersion dataVersion;
+    private final String contextPath;
+    private final long maxBytes;
+
+    // Порядок доступа - для вытеснения LRU; защищен монитором this, как и bytes
+    private final LinkedHashMap<String, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public AdminRenderCache(ITemplateEngine templateEngine,
+                            UserService userService,
+                            RoleServiceImpl roleService,
+                            UserDataVersion dataVersion,
+                            @Value("${server.servlet.context-path:}") String contextPath,
+                            @Value("${app.render-cache.max-size:16MB}") DataSize maxSize,
+                            MeterRegistry meterRegistry) {
+        this.templateEngine = templateEngine;
+        this.userService = userService;
+        this.roleService = roleService;
+        this.dataVersion = dataVersion;
+        this.contextPath = contextPath;
+        this.maxBytes = maxSize.toBytes();
+
+        FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                .tag("cache", "adminRender").tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                .tag("cache", "adminRender").tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", evictions, LongAdder::sum)
+                .tag("cache", "adminRender").register(meterRegistry);
+        Gauge.builder("cache.size", this, AdminRenderCache::size)
+                .tag("cache", "adminRender").register(meterRegistry);
+        Gauge.builder("app.render.cache.bytes", this, AdminRenderCache::bytes)
+                .description("Объем отрендеренных фрагментов в кэше, включая gzip-копии")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Таблица пользователей со ссылками на соседние страницы.
+     */
+    public Fragment userTable(UserFilter filter, Long after, int size) {
+        // Версия читается до данных: если запись закоммитится во время рендера,
+        // фрагмент сохранится под уже устаревшей версией и просто не будет использован
+        long version = dataVersion.current();
+        String key = "table|" + filter.getRole() + '|' + filter.getGender() + '|'
+                + filter.getEmailDomain() + '|' + after + '|' + size;
+        Fragment cached = get(key, version);
+        if (cached != null) {
+            return cached;
+        }
+        UserPage page = userService.findUsersPage(filter, after, size);
+        Context context = new Context(Locale.ROOT);
+        context.setVariable("users", page.getUsers());
+        context.setVariable("contextPath", contextPath);
+        context.setVariable("firstPageUrl", pageUrl(filter, null, size));
+        context.setVariable("nextPageUrl", page.hasNext() ? pageUrl(filter, page.getNextCursor(), size) : null);
+        return put(key, version, templateEngine.process(USER_TABLE_TEMPLATE, context));
+    }
+
+    /**
+     * Теги option со всеми ролями для форм создания и изменения пользователя.
+     */
+    public Fragment roleOptions() {
+        RoleRegistry registry = roleService.getRegistry();
+        long version = registry.fingerprint();
+        Fragment cached = get("roles", version);
+        if (cached != null) {
+            return cached;
+        }
+        Context context = new Context(Locale.ROOT);
+        context.setVariable("roles", registry.getAll());
+        return put("roles", version, templateEngine.process(ROLE_OPTIONS_TEMPLATE, context));
+    }
+
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private synchronized Fragment get(String key, long version) {
+        Fragment fragment = fragments.get(key);
+        if (fragment == null || fragment.version != version) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return fragment;
+    }
+
+    private Fragment put(String key, long version, String html) {
+        Fragment fragment = new Fragment(html, version, key);
+        if (fragment.weight() > maxBytes) {
+            return fragment;
+        }
+        synchronized (this) {
+            Fragment previous = fragments.put(key, fragment);
+            if (previous != null) {
+                bytes -= previous.weight();
+            }
+            bytes += fragment.weight();
+            while (bytes > maxBytes) {
+                Fragment eldest = fragments.remove(fragments.keySet().iterator().next());
+                bytes -= eldest.weight();
+                evictions.increment();
+            }
+        }
+        return fragment;
+    }
+
+    private String pageUrl(UserFilter filter, Long after, int size) {
+        return UriComponentsBuilder.fromPath(contextPath + "/admin")
+                .queryParamIfPresent("after", Optional.ofNullable(after))
+                .queryParamIfPresent("role", Optional.ofNullable(filter.hasRole() ? filter.getRole() : null))
+                .queryParamIfPresent("gender", Optional.ofNullable(filter.getGender()))
+                .queryParamIfPresent("emailDomain",
+                        Optional.ofNullable(filter.hasEmailDomain() ? filter.getEmailDomain() : null))
+                .queryParam("size", size)
+                .encode()
+                .toUriString();
+    }
+
+    /**
+     * Готовый фрагмент: HTML-строка для вставки в страницу, байты UTF-8 и gzip для отдачи как есть.
+     */
+    public static final class Fragment {
+        private final String html;
+        private final byte[] bytes;
+        private final byte[] gzip;
+        private final long version;
+        private final String etag;
+
+        private Fragment(String html, long version, String key) {
+            this.html = html;
+            this.bytes = html.getBytes(StandardCharsets.UTF_8);
+            this.gzip = gzip(bytes);
+            this.version = version;
+            this.etag = "\"" + Long.toHexString(version) + "-" + Integer.toHexString(key.hashCode()) + "\"";
+        }
+
+        public String getHtml() {
+            return html;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        // Строка в памяти занимает примерно столько же, сколько байты UTF-8 (compact strings для латиницы)
+        private long weight() {
+            return 2L * bytes.length + gzip.length;
+        }
+
+        private static byte[] gzip(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+}
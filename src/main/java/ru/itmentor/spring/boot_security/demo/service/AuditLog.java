@@ -0,0 +1,332 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmentor.spring.boot_security.demo.event.RolesChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.AuditEntry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронный журнал аудита изменений пользователей, их ролей и самих ролей (RolesChangedEvent от saveRole).
+ * <p>
+ * После коммита каждого изменения (UserChangedEvent от UserServiceImpl и импорта)
+ * запись с автором из SecurityContext кладется в ограниченный кольцевой буфер без блокировок - это вся
+ * стоимость аудита для запроса. Фоновый поток audit-writer забирает записи пачками по batch-size
+ * и пишет их в таблицу audit_log одним batch insert: сразу, когда набралась пачка, иначе раз в flush-interval.
+ * <p>
+ * Если буфер заполнен (база недоступна или не успевает), поведение задает app.audit.overflow:
+ * CALLER_RUNS - запись пишется синхронно в потоке запроса (ничего не теряется, запрос платит записью в базу),
+ * BLOCK - запрос ждет места в буфере до offer-timeout, затем запись отбрасывается,
+ * DROP - запись сразу отбрасывается. Отброшенные записи считаются в app.audit.dropped.
+ * <p>
+ * Массовые операции буфер не используют: они заполнили бы его целиком. Их записи пишет recordAll
+ * одним insert ... select в транзакции самой операции.
+ */
+@Slf4j
+@Service
+public class AuditLog {
+
+    public enum Overflow {
+        CALLER_RUNS,
+        BLOCK,
+        DROP
+    }
+
+    public static final int MAX_HISTORY = 500;
+
+    public static final String ROLE_SAVED = "ROLE_SAVED";
+
+    private static final String INSERT = "insert into audit_log " +
+            "(created_at, actor, action, user_id, role_id, username, details) " +
+            "values (:createdAt, :actor, :action, :userId, :roleId, :username, :details)";
+    private static final String INSERT_FOR_USERS = "insert into audit_log " +
+            "(created_at, actor, action, user_id, username, details) " +
+            "select :createdAt, :actor, :action, u.user_id, u.first_name, :details from user_with_role u " +
+            "where u.user_id in (:userIds)";
+    private static final String SELECT = "select id, created_at, actor, action, user_id, role_id, username, details " +
+            "from audit_log where id < :beforeId";
+
+    private static final String SYSTEM_ACTOR = "system";
+    // После стольких неудачных попыток записи пачка отбрасывается, чтобы не останавливать журнал навсегда
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    private static final int USER_IDS_CHUNK = 1000;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate requiresNew;
+    private final RingBuffer<AuditEntry> buffer;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Overflow overflow;
+    private final long offerTimeoutNanos;
+
+    private final Counter written;
+    private final Counter dropped;
+    private final Counter callerRuns;
+    private final Counter failedBatches;
+
+    private final Thread writer = new Thread(this::runWriter, "audit-writer");
+    private volatile boolean running = true;
+
+    public AuditLog(NamedParameterJdbcTemplate jdbcTemplate,
+                    PlatformTransactionManager transactionManager,
+                    MeterRegistry meterRegistry,
+                    @Value("${app.audit.capacity:65536}") int capacity,
+                    @Value("${app.audit.batch-size:500}") int batchSize,
+                    @Value("${app.audit.flush-interval:PT1S}") Duration flushInterval,
+                    @Value("${app.audit.overflow:CALLER_RUNS}") Overflow overflow,
+                    @Value("${app.audit.offer-timeout:PT0.1S}") Duration offerTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Синхронная запись идет после коммита основной транзакции и должна фиксироваться отдельно от нее
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.buffer = new RingBuffer<>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.overflow = overflow;
+        this.offerTimeoutNanos = offerTimeout.toNanos();
+        this.written = Counter.builder("app.audit.written")
+                .description("Записи журнала аудита, сохраненные в базу")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("app.audit.dropped")
+                .description("Записи журнала аудита, отброшенные из-за переполнения буфера или ошибок записи")
+                .register(meterRegistry);
+        this.callerRuns = Counter.builder("app.audit.caller-runs")
+                .description("Записи журнала аудита, записанные синхронно в потоке запроса")
+                .register(meterRegistry);
+        this.failedBatches = Counter.builder("app.audit.failed-batches")
+                .description("Неудачные попытки записи пачки журнала аудита")
+                .register(meterRegistry);
+        Gauge.builder("app.audit.pending", buffer, RingBuffer::size)
+                .description("Записи журнала аудита в буфере, ожидающие записи")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.isRemote()) {
+            // Запись журнала делает узел, на котором произошло изменение
+            return;
+        }
+        record(new AuditEntry(null, Instant.now(), currentActor(), event.getType().name(),
+                event.getUserId(), null, event.getUsername(), event.getDetails()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRolesChanged(RolesChangedEvent event) {
+        if (event.isRemote() || event.getRoleId() == null) {
+            return;
+        }
+        record(new AuditEntry(null, Instant.now(), currentActor(), ROLE_SAVED,
+                null, event.getRoleId(), null, event.getRoleName()));
+    }
+
+    /**
+     * Ставит запись в очередь на запись. Не обращается к базе, пока в буфере есть место.
+     */
+    public void record(AuditEntry entry) {
+        if (buffer.offer(entry)) {
+            if (buffer.size() >= batchSize) {
+                LockSupport.unpark(writer);
+            }
+            return;
+        }
+        LockSupport.unpark(writer);
+        switch (overflow) {
+            case CALLER_RUNS:
+                callerRuns.increment();
+                try {
+                    requiresNew.executeWithoutResult(status -> jdbcTemplate.update(INSERT, parameters(entry)));
+                    written.increment();
+                } catch (DataAccessException e) {
+                    // Изменение уже закоммичено, поэтому ошибка аудита не должна превращаться в ошибку запроса
+                    log.warn("Failed to write audit entry for user {}", entry.getUserId(), e);
+                    dropped.increment();
+                }
+                break;
+            case BLOCK:
+                long deadline = System.nanoTime() + offerTimeoutNanos;
+                while (System.nanoTime() < deadline) {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    if (buffer.offer(entry)) {
+                        return;
+                    }
+                }
+                dropped.increment();
+                break;
+            default:
+                dropped.increment();
+        }
+    }
+
+    /**
+     * Записывает одно и то же изменение пользователей userIds набором insert ... select в текущей транзакции,
+     * без буфера: записи фиксируются или откатываются вместе с самой операцией. Вызывается до изменения строк,
+     * чтобы удаляемые пользователи еще были в user_with_role.
+     *
+     * @return Число записей журнала.
+     */
+    public int recordAll(UserChangedEvent.Type action, String details, List<Long> userIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("createdAt", Timestamp.from(Instant.now()))
+                .addValue("actor", currentActor())
+                .addValue("action", action.name())
+                .addValue("details", details);
+        int rows = 0;
+        for (int from = 0; from < userIds.size(); from += USER_IDS_CHUNK) {
+            params.addValue("userIds", userIds.subList(from, Math.min(from + USER_IDS_CHUNK, userIds.size())));
+            rows += jdbcTemplate.update(INSERT_FOR_USERS, params);
+        }
+        written.increment(rows);
+        return rows;
+    }
+
+    /**
+     * История изменений, новые записи первыми, постранично по курсору id.
+     * Записи, еще не сброшенные из буфера, в выдачу не попадают (задержка не больше flush-interval).
+     *
+     * @param userId   Только изменения этого пользователя или null.
+     * @param actor    Только изменения, сделанные этим пользователем, или null.
+     * @param beforeId Курсор: id последней записи предыдущей страницы или null для первой страницы.
+     */
+    public List<AuditEntry> history(Long userId, String actor, Long beforeId, int size) {
+        StringBuilder sql = new StringBuilder(SELECT);
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("beforeId", beforeId == null ? Long.MAX_VALUE : beforeId)
+                .addValue("limit", Math.max(1, Math.min(size, MAX_HISTORY)));
+        if (userId != null) {
+            sql.append(" and user_id = :userId");
+            params.addValue("userId", userId);
+        }
+        if (actor != null) {
+            sql.append(" and actor = :actor");
+            params.addValue("actor", actor);
+        }
+        sql.append(" order by id desc limit :limit");
+        return jdbcTemplate.query(sql.toString(), params, (rs, rowNum) -> new AuditEntry(
+                rs.getLong("id"),
+                rs.getTimestamp("created_at").toInstant(),
+                rs.getString("actor"),
+                rs.getString("action"),
+                rs.getObject("user_id", Long.class),
+                rs.getObject("role_id", Long.class),
+                rs.getString("username"),
+                rs.getString("details")));
+    }
+
+    /**
+     * Счетчики журнала: записи в буфере, записанные, отброшенные, записанные синхронно и неудачные пачки.
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("pending", (long) buffer.size());
+        stats.put("capacity", (long) buffer.capacity());
+        stats.put("written", (long) written.count());
+        stats.put("dropped", (long) dropped.count());
+        stats.put("callerRuns", (long) callerRuns.count());
+        stats.put("failedBatches", (long) failedBatches.count());
+        return stats;
+    }
+
+    private void runWriter() {
+        List<AuditEntry> batch = new ArrayList<>(batchSize);
+        int attempts = 0;
+        while (running || !buffer.isEmpty() || !batch.isEmpty()) {
+            if (batch.isEmpty()) {
+                buffer.drainTo(batch, batchSize);
+            }
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+            if (write(batch)) {
+                attempts = 0;
+            } else if (++attempts >= MAX_WRITE_ATTEMPTS || !running) {
+                log.error("Dropping {} audit entries after {} failed attempts", batch.size(), attempts);
+                dropped.increment(batch.size());
+                attempts = 0;
+            } else {
+                // Неудачная пачка остается и пишется повторно после паузы
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+            boolean full = batch.size() == batchSize;
+            batch.clear();
+            if (!full && running) {
+                // Неполная пачка: буфер опустел, следующие записи копятся до flush-interval или полной пачки
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    private boolean write(List<AuditEntry> batch) {
+        SqlParameterSource[] rows = new SqlParameterSource[batch.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = parameters(batch.get(i));
+        }
+        try {
+            jdbcTemplate.batchUpdate(INSERT, rows);
+            written.increment(rows.length);
+            return true;
+        } catch (DataAccessException e) {
+            failedBatches.increment();
+            log.warn("Failed to write {} audit entries", rows.length, e);
+            return false;
+        }
+    }
+
+    private static SqlParameterSource parameters(AuditEntry entry) {
+        return new MapSqlParameterSource()
+                .addValue("createdAt", Timestamp.from(entry.getCreatedAt()))
+                .addValue("actor", entry.getActor())
+                .addValue("action", entry.getAction())
+                .addValue("userId", entry.getUserId())
+                .addValue("roleId", entry.getRoleId())
+                .addValue("username", entry.getUsername())
+                .addValue("details", entry.getDetails());
+    }
+
+    private static String currentActor() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? SYSTEM_ACTOR : authentication.getName();
+    }
+}
@@ -0,0 +1,29 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Создает роли и тестовых пользователей после старта контекста, а не в @PostConstruct UserServiceImpl:
+ * создание бинов не ждет BCrypt и записи в базу, а в prod сидирование выключено и запускается
+ * отдельной разовой задачей (профиль seed).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.seed.enabled", havingValue = "true", matchIfMissing = true)
+public class DataSeeder implements ApplicationRunner {
+
+    private final UserService userService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        userService.addTestUsers();
+        log.info("Seed data checked in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+}
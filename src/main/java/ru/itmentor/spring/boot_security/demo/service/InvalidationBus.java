@@ -0,0 +1,267 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.RolesChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Шина инвалидации кэшей между узлами приложения (app.invalidation.transport: postgres или loopback).
+ * <p>
+ * После коммита локальные UserChangedEvent и RolesChangedEvent копятся в течение coalesce-window
+ * и уходят на другие узлы одним сообщением (несколько изменений одного пользователя схлопываются).
+ * Там они публикуются заново как remote-события: по ним сбрасываются кэши UserDetails, рендера, поиска,
+ * реестр ролей и поток изменений админки, а запись в базу (read-модель, аудит) не повторяется.
+ * <p>
+ * Каждое сообщение несет id узла и его порядковый номер. Пропуск в номерах, переподключение транспорта,
+ * массовая операция (UsersBulkChangedEvent) или больше max-keys изменений за окно означают, что точечно сбросить кэши нельзя: публикуется
+ * CachesFlushEvent, и все локальные кэши сбрасываются целиком. Неудачная отправка повторяется
+ * через секунду сообщением о полном сбросе.
+ * <p>
+ * Бин и транспорт создаются при старте и при ленивой инициализации (см. StartupConfig): иначе узел не подпишется
+ * на сообщения, пока сам что-нибудь не изменит.
+ */
+@Slf4j
+@Service
+@ConditionalOnExpression("'${app.invalidation.transport:none}' != 'none'")
+public class InvalidationBus implements InvalidationTransport.Listener {
+
+    // Изменений в одном сообщении: так сообщение заведомо меньше 8000 байт (предел NOTIFY)
+    private static final int USERS_PER_MESSAGE = 50;
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final InvalidationTransport transport;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    private final long coalesceWindowMillis;
+    private final int maxKeys;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    // Номер последнего отправленного сообщения; меняет только поток invalidation-
+    private long sequence;
+    // Отправка не удалась: какие изменения не дошли, неизвестно, поэтому следующим сообщением уходит полный сброс.
+    // Как и sequence, меняет только поток invalidation-
+    private boolean resyncRequired;
+    private final Map<String, Long> lastSequenceByNode = new ConcurrentHashMap<>();
+
+    private final Queue<UserKey> pendingUsers = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean pendingRoles = new AtomicBoolean();
+    private final AtomicBoolean pendingBulk = new AtomicBoolean();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean connected = new AtomicBoolean();
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("invalidation-"));
+
+    private final Counter sent;
+    private final Counter received;
+    private final Counter fullFlushes;
+
+    public InvalidationBus(InvalidationTransport transport,
+                           ApplicationEventPublisher eventPublisher,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.invalidation.coalesce-window:PT0.05S}") Duration coalesceWindow,
+                           @Value("${app.invalidation.max-keys:1000}") int maxKeys) {
+        this.transport = transport;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+        this.coalesceWindowMillis = coalesceWindow.toMillis();
+        this.maxKeys = maxKeys;
+        this.sent = Counter.builder("app.invalidation.sent")
+                .description("Сообщения шины инвалидации, отправленные другим узлам")
+                .register(meterRegistry);
+        this.received = Counter.builder("app.invalidation.received")
+                .description("Сообщения шины инвалидации, полученные от других узлов")
+                .register(meterRegistry);
+        this.fullFlushes = Counter.builder("app.invalidation.full-flushes")
+                .description("Полные сбросы локальных кэшей из-за потерянных сообщений шины")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        transport.start(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        transport.stop();
+        executor.shutdownNow();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.isRemote()) {
+            return;
+        }
+        pendingUsers.add(new UserKey(event.getType().name(), event.getUserId(), event.getUsername()));
+        scheduleFlush();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        pendingBulk.set(true);
+        scheduleFlush();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRolesChanged(RolesChangedEvent event) {
+        if (event.isRemote()) {
+            return;
+        }
+        pendingRoles.set(true);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onMessage(String payload) {
+        Message message;
+        try {
+            message = objectMapper.readValue(payload, Message.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring malformed invalidation message", e);
+            return;
+        }
+        if (nodeId.equals(message.getNode())) {
+            return;
+        }
+        received.increment();
+        Long previous = lastSequenceByNode.put(message.getNode(), message.getSeq());
+        // Первое сообщение от узла принимается как есть: узел мог стартовать раньше этого
+        if (message.isFlush() || previous != null && message.getSeq() != previous + 1) {
+            flushAll();
+            return;
+        }
+        if (message.isRoles()) {
+            eventPublisher.publishEvent(new RolesChangedEvent(true));
+        }
+        for (UserKey user : message.getUsers()) {
+            eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.valueOf(user.getType()),
+                    user.getId(), user.getUsername(), null, true));
+        }
+    }
+
+    @Override
+    public void onConnected() {
+        lastSequenceByNode.clear();
+        // При первом подключении кэши еще пусты; после переподключения в них могут быть пропущенные изменения
+        if (!connected.compareAndSet(false, true)) {
+            flushAll();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flush, coalesceWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        Map<Long, UserKey> users = new LinkedHashMap<>();
+        for (UserKey user; (user = pendingUsers.poll()) != null; ) {
+            // Из нескольких изменений одного пользователя важно последнее; созданный и сразу измененный
+            // пользователь для других узлов остается новым
+            UserKey previous = users.put(user.getId(), user);
+            if (previous != null && "CREATED".equals(previous.getType()) && "UPDATED".equals(user.getType())) {
+                user.setType(previous.getType());
+            }
+        }
+        boolean roles = pendingRoles.getAndSet(false);
+        boolean bulk = pendingBulk.getAndSet(false);
+        try {
+            if (resyncRequired || bulk || users.size() > maxKeys) {
+                // Изменения этого окна уже закоммичены, полный сброс на других узлах покрывает и их
+                send(new Message(nodeId, ++sequence, true, false, List.of()));
+                resyncRequired = false;
+                return;
+            }
+            List<UserKey> chunk = new ArrayList<>(USERS_PER_MESSAGE);
+            for (UserKey user : users.values()) {
+                chunk.add(user);
+                if (chunk.size() == USERS_PER_MESSAGE) {
+                    send(new Message(nodeId, ++sequence, false, roles, chunk));
+                    roles = false;
+                    chunk = new ArrayList<>(USERS_PER_MESSAGE);
+                }
+            }
+            if (!chunk.isEmpty() || roles) {
+                send(new Message(nodeId, ++sequence, false, roles, chunk));
+            }
+        } catch (RuntimeException e) {
+            // Не дожидаясь следующего изменения, через паузу отправляется полный сброс
+            log.warn("Failed to send cache invalidation, retrying with a full flush", e);
+            resyncRequired = true;
+            if (flushScheduled.compareAndSet(false, true)) {
+                executor.schedule(this::flush, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void send(Message message) {
+        try {
+            transport.send(objectMapper.writeValueAsString(message));
+            sent.increment();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void flushAll() {
+        fullFlushes.increment();
+        eventPublisher.publishEvent(new CachesFlushEvent());
+    }
+
+    /**
+     * Сообщение шины. flush - сбросить кэши целиком вместо точечной инвалидации.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Message {
+        private String node;
+        private long seq;
+        private boolean flush;
+        private boolean roles;
+        private List<UserKey> users = new ArrayList<>();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class UserKey {
+        private String type;
+        private long id;
+        private String username;
+    }
+}
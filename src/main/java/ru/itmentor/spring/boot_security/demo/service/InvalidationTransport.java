@@ -0,0 +1,30 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+/**
+ * Транспорт InvalidationBus между узлами приложения. Доставка "не более одного раза" без гарантии:
+ * потерю сообщений InvalidationBus обнаруживает по номерам и сбрасывает кэши целиком.
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Отправляет сообщение всем узлам, в том числе, возможно, самому отправителю.
+     */
+    void send(String payload);
+
+    /**
+     * Начинает прием сообщений. Вызывается один раз.
+     */
+    void start(Listener listener);
+
+    void stop();
+
+    interface Listener {
+
+        void onMessage(String payload);
+
+        /**
+         * Транспорт (пере)подключился: сообщения, отправленные, пока связи не было, потеряны.
+         */
+        void onConnected();
+    }
+}
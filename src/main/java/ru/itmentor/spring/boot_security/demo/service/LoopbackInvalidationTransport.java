@@ -0,0 +1,42 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Транспорт в памяти процесса: сообщение получают все контексты приложения, запущенные в этой JVM.
+ * Для тестов и бенчмарков с несколькими "узлами" в одном процессе; доставка синхронная, в потоке отправителя.
+ */
+@Component
+@ConditionalOnProperty(name = "app.invalidation.transport", havingValue = "loopback")
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+
+    private static final Set<Listener> LISTENERS = new CopyOnWriteArraySet<>();
+
+    private volatile Listener listener;
+
+    @Override
+    public void send(String payload) {
+        for (Listener target : LISTENERS) {
+            target.onMessage(payload);
+        }
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        LISTENERS.add(listener);
+        listener.onConnected();
+    }
+
+    @Override
+    public void stop() {
+        Listener current = listener;
+        if (current != null) {
+            LISTENERS.remove(current);
+        }
+    }
+}
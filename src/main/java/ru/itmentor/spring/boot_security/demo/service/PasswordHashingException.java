@@ -0,0 +1,11 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+/**
+ * Хэширование пароля не выполнено: очередь пула хэширования переполнена, истек таймаут или поток прерван.
+ */
+public class PasswordHashingException extends RuntimeException {
+
+    public PasswordHashingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,205 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Все хэширование и проверка паролей в приложении идут через этот сервис.
+ * BCrypt выполняется в отдельном пуле фиксированного размера с ограниченной очередью,
+ * поэтому всплеск логинов или регистраций не занимает все потоки Tomcat.
+ * Если очередь заполнена или ответ не получен за таймаут, запрос получает отказ вместо ожидания.
+ * Длительность BCrypt пишется в таймер app.password.hashing, состояние пула - в метрики executor.* с тегом name=bcrypt.
+ */
+@Service
+public class PasswordHashingService implements PasswordEncoder {
+
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutNanos;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder hashingNanos = new LongAdder();
+
+    public PasswordHashingService(BCryptPasswordEncoder delegate,
+                                  @Value("${app.hashing.threads:0}") int threads,
+                                  @Value("${app.hashing.queue-capacity:256}") int queueCapacity,
+                                  @Value("${app.hashing.timeout:PT5S}") Duration timeout,
+                                  MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.delegate = delegate;
+        this.timeoutNanos = timeout.toNanos();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("bcrypt-"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.encodeTimer = hashingTimer(meterRegistry, "encode");
+        this.matchesTimer = hashingTimer(meterRegistry, "matches");
+        new ExecutorServiceMetrics(executor, "bcrypt", Tags.empty()).bindTo(meterRegistry);
+        FunctionCounter.builder("app.password.hashing.rejected", rejected, LongAdder::sum)
+                .description("Hashing tasks rejected because the queue was full")
+                .register(meterRegistry);
+        FunctionCounter.builder("app.password.hashing.timeouts", timedOut, LongAdder::sum)
+                .description("Hashing tasks that did not finish within the timeout")
+                .register(meterRegistry);
+    }
+
+    private static Timer hashingTimer(MeterRegistry meterRegistry, String operation) {
+        return Timer.builder("app.password.hashing")
+                .description("BCrypt time on the hashing pool")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return call(encodeTimer, () -> delegate.encode(rawPassword), timeoutNanos);
+    }
+
+    /**
+     * Ошибка пула при проверке пароля превращается в AuthenticationServiceException,
+     * чтобы логин завершился обычной неудачей, а не ошибкой 500.
+     */
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        try {
+            return call(matchesTimer, () -> delegate.matches(rawPassword, encodedPassword), timeoutNanos);
+        } catch (PasswordHashingException e) {
+            throw new AuthenticationServiceException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Хэширует много паролей сразу: список делится на части по числу потоков пула,
+     * так что массовый импорт занимает в очереди всего несколько мест.
+     */
+    public List<String> encodeAll(List<? extends CharSequence> rawPasswords) {
+        int parts = Math.min(executor.getCorePoolSize(), rawPasswords.size());
+        if (parts == 0) {
+            return new ArrayList<>();
+        }
+        int partSize = (rawPasswords.size() + parts - 1) / parts;
+        List<Future<List<String>>> futures = new ArrayList<>(parts);
+        try {
+            for (int from = 0; from < rawPasswords.size(); from += partSize) {
+                List<? extends CharSequence> part = rawPasswords.subList(from, Math.min(from + partSize, rawPasswords.size()));
+                futures.add(submit(encodeTimer, () -> {
+                    List<String> hashes = new ArrayList<>(part.size());
+                    for (CharSequence raw : part) {
+                        hashes.add(delegate.encode(raw));
+                    }
+                    return hashes;
+                }));
+            }
+            List<String> result = new ArrayList<>(rawPasswords.size());
+            for (Future<List<String>> future : futures) {
+                result.addAll(await(future, timeoutNanos * partSize));
+            }
+            return result;
+        } catch (PasswordHashingException e) {
+            // Результат уже не нужен: остальные части не должны занимать пул после отказа
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("poolSize", (long) executor.getCorePoolSize());
+        stats.put("active", (long) executor.getActiveCount());
+        stats.put("queued", (long) executor.getQueue().size());
+        stats.put("queueRemainingCapacity", (long) executor.getQueue().remainingCapacity());
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", completed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("timedOut", timedOut.sum());
+        stats.put("hashingMillis", TimeUnit.NANOSECONDS.toMillis(hashingNanos.sum()));
+        return stats;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    private <T> T call(Timer timer, Callable<T> task, long waitNanos) {
+        return await(submit(timer, task), waitNanos);
+    }
+
+    private <T> Future<T> submit(Timer timer, Callable<T> task) {
+        try {
+            Future<T> future = executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    hashingNanos.add(elapsed);
+                    timer.record(elapsed, TimeUnit.NANOSECONDS);
+                    completed.increment();
+                }
+            });
+            submitted.increment();
+            return future;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHashingException("Password hashing queue is full", e);
+        }
+    }
+
+    private <T> T await(Future<T> future, long waitNanos) {
+        try {
+            return future.get(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.increment();
+            throw new PasswordHashingException("Password hashing timed out", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new PasswordHashingException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            throw new PasswordHashingException("Password hashing failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.UserView;
+
+/**
+ * Неблокирующее чтение пользователей и ролей через R2DBC, в обход JPA и пула потоков Tomcat.
+ */
+public interface ReactiveUserReadService {
+
+    Mono<UserView> findById(long id);
+
+    Mono<UserView> findByUsername(String username);
+
+    Flux<UserView> findPage(long afterId, int size);
+
+    Flux<UserView> streamAll();
+
+    Flux<Role> findAllRoles();
+}
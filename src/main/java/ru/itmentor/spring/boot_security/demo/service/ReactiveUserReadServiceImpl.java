@@ -0,0 +1,109 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.r2dbc.spi.Row;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Пользователь читается одним запросом вместе с ролями (left join), строки одного пользователя идут подряд
+ * и собираются в UserView через bufferUntilChanged. Поэтому весь список можно отдавать потоком:
+ * в памяти держится только текущий пользователь, а строки читаются из базы по мере спроса подписчика.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReactiveUserReadServiceImpl implements ReactiveUserReadService {
+
+    private static final String SELECT_USERS =
+            "select u.user_id, u.first_name, u.last_name, u.email, u.gender, r.name as role_name " +
+            "from %s u " +
+            "left join user_role ur on ur.user_id = u.user_id " +
+            "left join role r on r.role_id = ur.role_id ";
+    private static final String BY_ID = String.format(SELECT_USERS, "user_with_role") +
+            "where u.user_id = :id";
+    private static final String BY_USERNAME_KEY = String.format(SELECT_USERS, "user_with_role") +
+            "where u.username_key = :usernameKey";
+    // Лимит применяется к пользователям в подзапросе, а не к строкам join-а
+    private static final String PAGE = String.format(SELECT_USERS,
+            "(select * from user_with_role where user_id > :afterId order by user_id limit :size)") +
+            "order by u.user_id";
+    private static final String ALL = String.format(SELECT_USERS, "user_with_role") +
+            "order by u.user_id";
+    private static final String ROLES = "select role_id, name from role order by role_id";
+
+    // Сколько строк запрашивать у драйвера за раз при потоковой выдаче
+    private static final int STREAM_PREFETCH = 256;
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<UserView> findById(long id) {
+        return users(databaseClient.sql(BY_ID).bind("id", id)).next();
+    }
+
+    @Override
+    public Mono<UserView> findByUsername(String username) {
+        return users(databaseClient.sql(BY_USERNAME_KEY).bind("usernameKey", User.normalize(username))).next();
+    }
+
+    @Override
+    public Flux<UserView> findPage(long afterId, int size) {
+        return users(databaseClient.sql(PAGE).bind("afterId", afterId).bind("size", size));
+    }
+
+    @Override
+    public Flux<UserView> streamAll() {
+        return users(databaseClient.sql(ALL)).limitRate(STREAM_PREFETCH);
+    }
+
+    @Override
+    public Flux<Role> findAllRoles() {
+        return databaseClient.sql(ROLES)
+                .map(row -> new Role(row.get("name", String.class), row.get("role_id", Long.class)))
+                .all();
+    }
+
+    private static Flux<UserView> users(DatabaseClient.GenericExecuteSpec spec) {
+        return spec.map(row -> new UserRoleRow(row))
+                .all()
+                .bufferUntilChanged(row -> row.id)
+                .map(ReactiveUserReadServiceImpl::toView);
+    }
+
+    private static UserView toView(List<UserRoleRow> rows) {
+        UserRoleRow first = rows.get(0);
+        List<String> roles = new ArrayList<>(rows.size());
+        for (UserRoleRow row : rows) {
+            if (row.roleName != null) {
+                roles.add(row.roleName);
+            }
+        }
+        return new UserView(first.id, first.firstName, first.lastName, first.email, first.gender, roles);
+    }
+
+    private static final class UserRoleRow {
+        final long id;
+        final String firstName;
+        final String lastName;
+        final String email;
+        final String gender;
+        final String roleName;
+
+        UserRoleRow(Row row) {
+            this.id = row.get("user_id", Long.class);
+            this.firstName = row.get("first_name", String.class);
+            this.lastName = row.get("last_name", String.class);
+            this.email = row.get("email", String.class);
+            this.gender = row.get("gender", String.class);
+            this.roleName = row.get("role_name", String.class);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ограниченная очередь без блокировок: много производителей, один потребитель.
+ * У каждой ячейки есть номер последовательности (схема Вьюкова): производитель занимает позицию одним CAS
+ * по хвосту и публикует элемент записью номера, потребитель читает ячейки по порядку без CAS.
+ * Переполнение не ждет: offer возвращает false, и что делать дальше, решает вызывающий код.
+ */
+final class RingBuffer<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Пишет только потребитель; AtomicLong нужен, чтобы size() в потоках производителей видел актуальное значение
+    private final AtomicLong head = new AtomicLong();
+
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Добавляет элемент; вызывается из любого потока.
+     *
+     * @return false, если очередь заполнена.
+     */
+    boolean offer(T item) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, item);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // diff > 0: другой производитель уже занял позицию, перечитываем хвост
+        }
+    }
+
+    /**
+     * Забирает до max элементов в порядке добавления; вызывается только из потока потребителя.
+     *
+     * @return Число перенесенных элементов.
+     */
+    int drainTo(Collection<? super T> target, int max) {
+        long position = head.get();
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                // Ячейка пуста или производитель еще не опубликовал элемент
+                break;
+            }
+            target.add(items.get(index));
+            items.lazySet(index, null);
+            sequences.lazySet(index, position + mask + 1);
+            position++;
+            drained++;
+        }
+        head.lazySet(position);
+        return drained;
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import org.springframework.security.core.GrantedAuthority;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.security.AuthorityMask;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Неизменяемый снимок таблицы role: индексы имя -> роль и id -> роль.
+ * RoleServiceImpl строит новый снимок при старте и после каждой записи ролей
+ * и подменяет его одной volatile-записью, поэтому читатели никогда не видят частично обновленный реестр.
+ * <p>
+ * Каждой роли назначается плотный номер бита для AuthorityMask. Номера переносятся из предыдущего снимка,
+ * новые роли получают следующие свободные, поэтому маски, вычисленные по прежнему снимку, остаются верными.
+ * Номера зависят от порядка загрузки и различаются между узлами и запусками, поэтому маски за пределы
+ * процесса не выходят (см. MaskedAuthenticationToken).
+ */
+public final class RoleRegistry {
+
+    static final RoleRegistry EMPTY = new RoleRegistry(Collections.emptyList(), null);
+
+    private final Map<String, Role> byName;
+    private final Map<Long, Role> byId;
+    private final Set<Role> all;
+    private final Map<String, Integer> bitByName;
+    private final int fingerprint;
+
+    RoleRegistry(Collection<Role> roles, RoleRegistry previous) {
+        Map<String, Role> names = new HashMap<>();
+        Map<Long, Role> ids = new HashMap<>();
+        for (Role role : roles) {
+            names.put(role.getName(), role);
+            ids.put(role.getId(), role);
+        }
+        Map<String, Integer> bits = previous == null ? new HashMap<>() : new HashMap<>(previous.bitByName);
+        List<Role> sorted = new ArrayList<>(roles);
+        sorted.sort(Comparator.comparing(Role::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+        for (Role role : sorted) {
+            bits.putIfAbsent(role.getName(), bits.size());
+        }
+        this.byName = Collections.unmodifiableMap(names);
+        this.byId = Collections.unmodifiableMap(ids);
+        this.all = Collections.unmodifiableSet(new LinkedHashSet<>(roles));
+        this.bitByName = Collections.unmodifiableMap(bits);
+        int hash = 1;
+        for (Role role : sorted) {
+            hash = 31 * hash + Long.hashCode(role.getId());
+            hash = 31 * hash + Objects.hashCode(role.getName());
+        }
+        this.fingerprint = hash;
+    }
+
+    public Role getByName(String name) {
+        return byName.get(name);
+    }
+
+    public Role getById(long id) {
+        return byId.get(id);
+    }
+
+    public Set<Role> getAll() {
+        return all;
+    }
+
+    /**
+     * Хэш содержимого реестра (id и имена ролей). Совпадает у снимков с одинаковыми ролями, в том числе после перезапуска.
+     */
+    public int fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Номер бита роли или -1, если такой роли нет.
+     */
+    public int bitOf(String authority) {
+        Integer bit = bitByName.get(authority);
+        return bit == null ? -1 : bit;
+    }
+
+    public AuthorityMask maskOf(Collection<? extends GrantedAuthority> authorities) {
+        int[] bits = new int[authorities.size()];
+        int i = 0;
+        for (GrantedAuthority authority : authorities) {
+            bits[i++] = bitOf(authority.getAuthority());
+        }
+        return AuthorityMask.of(bits);
+    }
+
+    public AuthorityMask maskOfNames(String... authorities) {
+        int[] bits = new int[authorities.length];
+        for (int i = 0; i < authorities.length; i++) {
+            bits[i] = bitOf(authorities[i]);
+        }
+        return AuthorityMask.of(bits);
+    }
+}
@@ -8,4 +8,8 @@ public interface RoleService {
     Set<Role> getAllRoles();
 
     Set<Role>getRoleByName(String[] roleName);
+
+    Role getRoleById(long id);
+
+    Role saveRole(Role role);
 }
@@ -1,28 +1,85 @@
 package ru.itmentor.spring.boot_security.demo.service;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import ru.itmentor.spring.boot_security.demo.configs.ReadYourWrites;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.RolesChangedEvent;
 import ru.itmentor.spring.boot_security.demo.model.Role;
 import ru.itmentor.spring.boot_security.demo.repository.RoleRepository;
 
+import javax.annotation.PostConstruct;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Роли меняются крайне редко, поэтому все чтения обслуживаются из RoleRegistry в памяти.
+ * В базу сервис ходит только при старте, при записи ролей через saveRole и при изменении ролей
+ * на другом узле (RolesChangedEvent из InvalidationBus).
+ */
 @Service
 @RequiredArgsConstructor
 public class RoleServiceImpl implements RoleService {
     private final RoleRepository roleRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile RoleRegistry registry = RoleRegistry.EMPTY;
+
+    /**
+     * Перечитывает таблицу role и атомарно подменяет реестр.
+     * Читает с основной базы: реплика сразу после saveRole может еще не видеть новую роль.
+     */
+    @PostConstruct
+    public synchronized void refresh() {
+        registry = new RoleRegistry(ReadYourWrites.onPrimary(roleRepository::findAll), registry);
+    }
+
+    public RoleRegistry getRegistry() {
+        return registry;
+    }
 
     @Override
     public Set<Role> getAllRoles() {
-        return new HashSet<>(roleRepository.findAll());
+        return registry.getAll();
     }
 
     @Override
     public Set<Role> getRoleByName(String[] roleName) {
+        RoleRegistry current = registry;
         Set<Role> roleSet = new HashSet<>();
-        for (String role : roleName) {
-            roleSet.add(roleRepository.findRoleByName(role));
+        for (String name : roleName) {
+            Role role = current.getByName(name);
+            // Неизвестные имена пропускаем, а не кладем null в набор ролей пользователя
+            if (role != null) {
+                roleSet.add(role);
+            }
         }
         return roleSet;
     }
+
+    @Override
+    public Role getRoleById(long id) {
+        return registry.getById(id);
+    }
+
+    @Override
+    public synchronized Role saveRole(Role role) {
+        Role saved = roleRepository.save(role);
+        refresh();
+        eventPublisher.publishEvent(new RolesChangedEvent(saved.getId(), saved.getName(), false));
+        return saved;
+    }
+
+    @EventListener
+    public void onRolesChanged(RolesChangedEvent event) {
+        if (event.isRemote()) {
+            refresh();
+        }
+    }
+
+    @EventListener(CachesFlushEvent.class)
+    public void onCachesFlush() {
+        refresh();
+    }
 }
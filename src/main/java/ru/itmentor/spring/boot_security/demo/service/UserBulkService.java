@@ -0,0 +1,15 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import ru.itmentor.spring.boot_security.demo.model.BulkOperationResult;
+import ru.itmentor.spring.boot_security.demo.model.UserBulkRequest;
+
+public interface UserBulkService {
+
+    int MAX_IDS = 10_000;
+
+    BulkOperationResult deleteUsers(UserBulkRequest request);
+
+    BulkOperationResult grantRole(UserBulkRequest request);
+
+    BulkOperationResult revokeRole(UserBulkRequest request);
+}
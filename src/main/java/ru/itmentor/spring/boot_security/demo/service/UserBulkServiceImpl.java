@@ -0,0 +1,181 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.BulkOperationResult;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.UserBulkRequest;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+
+import java.util.List;
+
+/**
+ * Массовое удаление пользователей и выдача/отзыв роли в одной транзакции.
+ * Сначала одним запросом выбираются и блокируются затронутые пользователи, затем user_role и user_with_role
+ * меняются по списку их id (пачками по ID_CHUNK): условие выбора вычисляется один раз, и изменения касаются
+ * ровно заблокированных строк, даже если условие зависит от меняемых таблиц (например, фильтр по роли).
+ * user_with_role удаляется или получает version + 1, чтобы ETag и оптимистическая блокировка видели смену ролей.
+ * Журнал аудита пишется в той же транзакции набором insert ... select (AuditLog.recordAll), а вместо события
+ * на каждого пользователя публикуется одно UsersBulkChangedEvent: read-модель пересобирается по списку id,
+ * кэши сбрасываются целиком, другие узлы получают сообщение о полном сбросе.
+ */
+@Slf4j
+@Service
+public class UserBulkServiceImpl implements UserBulkService {
+
+    private static final String HAS_ROLE =
+            "exists (select 1 from user_role ur where ur.user_id = u.user_id and ur.role_id = :roleId)";
+    private static final int ID_CHUNK = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RoleService roleService;
+    private final AuditLog auditLog;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public UserBulkServiceImpl(NamedParameterJdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               RoleService roleService,
+                               AuditLog auditLog,
+                               ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.roleService = roleService;
+        this.auditLog = auditLog;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public BulkOperationResult deleteUsers(UserBulkRequest request) {
+        long start = System.nanoTime();
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String where = where(request, params);
+        long[] counts = transactionTemplate.execute(status -> {
+            List<Long> ids = lockTargets(where, params);
+            if (ids.isEmpty()) {
+                return new long[2];
+            }
+            auditLog.recordAll(UserChangedEvent.Type.DELETED, null, ids);
+            int roleRows = updateByIds("delete from user_role where user_id in (:targetIds)", params, ids);
+            int userRows = updateByIds("delete from user_with_role where user_id in (:targetIds)", params, ids);
+            eventPublisher.publishEvent(new UsersBulkChangedEvent(UserChangedEvent.Type.DELETED, ids, null));
+            return new long[]{userRows, userRows + roleRows};
+        });
+        return result("delete", counts, start);
+    }
+
+    @Override
+    public BulkOperationResult grantRole(UserBulkRequest request) {
+        long start = System.nanoTime();
+        MapSqlParameterSource params = new MapSqlParameterSource("roleId", requireRole(request).getId());
+        String where = where(request, params) + " and not " + HAS_ROLE;
+        String details = "role+" + request.getRoleName();
+        long[] counts = transactionTemplate.execute(status -> {
+            List<Long> ids = lockTargets(where, params);
+            if (ids.isEmpty()) {
+                return new long[2];
+            }
+            auditLog.recordAll(UserChangedEvent.Type.UPDATED, details, ids);
+            int userRows = updateByIds(
+                    "update user_with_role set version = version + 1 where user_id in (:targetIds)", params, ids);
+            int roleRows = updateByIds("insert into user_role (user_id, role_id) " +
+                    "select u.user_id, :roleId from user_with_role u where u.user_id in (:targetIds)", params, ids);
+            eventPublisher.publishEvent(new UsersBulkChangedEvent(UserChangedEvent.Type.UPDATED, ids, details));
+            return new long[]{userRows, roleRows};
+        });
+        return result("grant-role", counts, start);
+    }
+
+    @Override
+    public BulkOperationResult revokeRole(UserBulkRequest request) {
+        long start = System.nanoTime();
+        MapSqlParameterSource params = new MapSqlParameterSource("roleId", requireRole(request).getId());
+        String where = where(request, params) + " and " + HAS_ROLE;
+        String details = "role-" + request.getRoleName();
+        long[] counts = transactionTemplate.execute(status -> {
+            List<Long> ids = lockTargets(where, params);
+            if (ids.isEmpty()) {
+                return new long[2];
+            }
+            auditLog.recordAll(UserChangedEvent.Type.UPDATED, details, ids);
+            int userRows = updateByIds(
+                    "update user_with_role set version = version + 1 where user_id in (:targetIds)", params, ids);
+            int roleRows = updateByIds(
+                    "delete from user_role where role_id = :roleId and user_id in (:targetIds)", params, ids);
+            eventPublisher.publishEvent(new UsersBulkChangedEvent(UserChangedEvent.Type.UPDATED, ids, details));
+            return new long[]{userRows, roleRows};
+        });
+        return result("revoke-role", counts, start);
+    }
+
+    // Выбирает затронутых пользователей и блокирует их строки до конца транзакции
+    private List<Long> lockTargets(String where, MapSqlParameterSource params) {
+        return jdbcTemplate.queryForList("select u.user_id from user_with_role u where " + where + " for update",
+                params, Long.class);
+    }
+
+    private int updateByIds(String sql, MapSqlParameterSource params, List<Long> ids) {
+        int rows = 0;
+        for (int from = 0; from < ids.size(); from += ID_CHUNK) {
+            MapSqlParameterSource chunk = new MapSqlParameterSource(params.getValues())
+                    .addValue("targetIds", ids.subList(from, Math.min(from + ID_CHUNK, ids.size())));
+            rows += jdbcTemplate.update(sql, chunk);
+        }
+        return rows;
+    }
+
+    private Role requireRole(UserBulkRequest request) {
+        Role role = roleService.getRoleByName(new String[]{request.getRoleName()}).stream().findFirst().orElse(null);
+        if (role == null) {
+            throw new IllegalArgumentException("Unknown role: " + request.getRoleName());
+        }
+        return role;
+    }
+
+    /**
+     * Условие выбора пользователей по списку id и/или фильтру. Пустой выбор запрещен,
+     * чтобы ошибка в запросе не затронула всех пользователей.
+     */
+    private static String where(UserBulkRequest request, MapSqlParameterSource params) {
+        if (!request.hasIds() && !request.hasFilter()) {
+            throw new IllegalArgumentException("Either ids or a non-empty filter is required");
+        }
+        StringBuilder where = new StringBuilder("1 = 1");
+        if (request.hasIds()) {
+            if (request.getIds().size() > MAX_IDS) {
+                throw new IllegalArgumentException("At most " + MAX_IDS + " ids per request, use a filter instead");
+            }
+            where.append(" and u.user_id in (:ids)");
+            params.addValue("ids", request.getIds());
+        }
+        if (request.hasFilter()) {
+            UserFilter filter = request.getFilter();
+            if (filter.hasRole()) {
+                where.append(" and exists (select 1 from user_role fr join role r on r.role_id = fr.role_id " +
+                        "where fr.user_id = u.user_id and r.name = :filterRole)");
+                params.addValue("filterRole", filter.getRole());
+            }
+            if (filter.hasGender()) {
+                where.append(" and u.gender = :gender");
+                params.addValue("gender", filter.getGender().name());
+            }
+            if (filter.hasEmailDomain()) {
+                where.append(" and lower(u.email) like :emailDomain escape '\\'");
+                params.addValue("emailDomain", filter.emailDomainPattern());
+            }
+        }
+        return where.toString();
+    }
+
+    private static BulkOperationResult result(String operation, long[] counts, long start) {
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Bulk {}: {} users, {} rows in {} ms", operation, counts[0], counts[1], elapsedMillis);
+        return new BulkOperationResult(operation, counts[0], counts[1], elapsedMillis);
+    }
+}
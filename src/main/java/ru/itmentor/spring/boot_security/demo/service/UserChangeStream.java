@@ -0,0 +1,326 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserChangeDelta;
+import ru.itmentor.spring.boot_security.demo.model.UserView;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Поток изменений пользователей для открытых страниц админки (server-sent events).
+ * <p>
+ * После коммита UserChangedEvent копятся и обрабатываются пачками в единственном потоке user-changes:
+ * состояние измененных пользователей читается из read-модели одним запросом на пачку (а не на каждого
+ * подписчика), каждому изменению присваивается номер, и оно кладется в общий кольцевой буфер последних
+ * capacity изменений. Нагрузка на базу не зависит от числа открытых страниц.
+ * <p>
+ * Подписчик хранит только курсор в общем буфере; его очередь - изменения от курсора до головы буфера,
+ * не длиннее max-lag. Отправкой занимается пул user-changes-send: медленный клиент задерживает только себя,
+ * а отставший больше чем на max-lag получает событие reset и отключается. EventSource переподключается сам
+ * и передает Last-Event-ID: если после него не больше max-lag изменений, поток продолжается с них, иначе
+ * клиент получает событие reset и перезагружает список.
+ */
+@Slf4j
+@Service
+public class UserChangeStream {
+
+    private static final int FETCH_CHUNK = 1000;
+
+    private final UserReadModel userReadModel;
+    private final UserChangeDelta[] ring;
+    private final int mask;
+    private final int maxLag;
+    private final int maxSubscribers;
+    private final long timeoutMillis;
+
+    // Номера изменений начинаются с текущего времени, чтобы Last-Event-ID от прошлого запуска не совпал с новыми
+    private final long firstSeq = System.currentTimeMillis();
+    // Номер следующего изменения; пишет только поток user-changes, запись head публикует заполненные ячейки
+    private volatile long head = firstSeq;
+
+    private final Queue<UserChangedEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // Число подписчиков вместе с занятыми, но еще не добавленными местами: проверка лимита и занятие места -
+    // один CAS, поэтому одновременные подписки не превышают max-subscribers
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final ScheduledExecutorService dispatcher =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("user-changes-"));
+    private final ExecutorService senders;
+
+    private final Counter droppedSubscribers;
+
+    public UserChangeStream(UserReadModel userReadModel,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.user-changes.capacity:4096}") int capacity,
+                            @Value("${app.user-changes.max-lag:1024}") int maxLag,
+                            @Value("${app.user-changes.max-subscribers:1000}") int maxSubscribers,
+                            @Value("${app.user-changes.sender-threads:4}") int senderThreads,
+                            @Value("${app.user-changes.timeout:PT30M}") Duration timeout,
+                            @Value("${app.user-changes.heartbeat:PT20S}") Duration heartbeat) {
+        this.userReadModel = userReadModel;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new UserChangeDelta[size];
+        this.mask = size - 1;
+        this.maxLag = Math.max(1, Math.min(maxLag, size));
+        this.maxSubscribers = maxSubscribers;
+        this.timeoutMillis = timeout.toMillis();
+        this.senders = Executors.newFixedThreadPool(Math.max(1, senderThreads),
+                new CustomizableThreadFactory("user-changes-send-"));
+        this.droppedSubscribers = Counter.builder("app.user-changes.dropped")
+                .description("Подписчики потока изменений, отключенные из-за отставания")
+                .register(meterRegistry);
+        Gauge.builder("app.user-changes.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Открытые подписки на поток изменений пользователей")
+                .register(meterRegistry);
+        // Комментарии SSE держат соединение открытым через прокси и выявляют закрытые клиентом соединения
+        long heartbeatMillis = heartbeat.toMillis();
+        dispatcher.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        pending.add(event);
+        if (publishScheduled.compareAndSet(false, true)) {
+            dispatcher.execute(this::publish);
+        }
+    }
+
+    /**
+     * Изменения с других узлов могли потеряться: всем подписчикам отправляется reset.
+     */
+    @EventListener(CachesFlushEvent.class)
+    public void onCachesFlush() {
+        resetSubscribers();
+    }
+
+    /**
+     * Массовая операция не разбивается на отдельные изменения: открытые страницы перезагружают список.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        resetSubscribers();
+    }
+
+    private void resetSubscribers() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.reset = true;
+            subscriber.signal();
+        }
+    }
+
+    /**
+     * Открывает подписку.
+     *
+     * @param lastEventId Номер последнего полученного изменения (Last-Event-ID) или null для новой подписки.
+     * @return Emitter подписки или null, если подписчиков уже max-subscribers.
+     */
+    public SseEmitter subscribe(Long lastEventId) {
+        if (!reserveSubscriber()) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        long end = head;
+        // Продолжить можно только в пределах max-lag от головы: иначе drain сразу отключит подписчика,
+        // а EventSource переподключится с тем же Last-Event-ID
+        long oldest = Math.max(firstSeq, end - maxLag);
+        boolean resumable = lastEventId != null && lastEventId + 1 >= oldest && lastEventId + 1 <= end;
+        Subscriber subscriber = new Subscriber(emitter, resumable ? lastEventId + 1 : end);
+        subscriber.reset = lastEventId != null && !resumable;
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+        subscribers.add(subscriber);
+        subscriber.signal();
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private boolean reserveSubscriber() {
+        int count;
+        do {
+            count = subscriberCount.get();
+            if (count >= maxSubscribers) {
+                return false;
+            }
+        } while (!subscriberCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        senders.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private void publish() {
+        publishScheduled.set(false);
+        List<UserChangedEvent> events = new ArrayList<>();
+        for (UserChangedEvent event; (event = pending.poll()) != null; ) {
+            events.add(event);
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            Map<Long, User> users = loadUsers(events);
+            long seq = head;
+            for (UserChangedEvent event : events) {
+                User user = users.get(event.getUserId());
+                // Пользователь, удаленный после изменения, отдается как удаление
+                String type = user == null ? UserChangedEvent.Type.DELETED.name() : event.getType().name();
+                ring[(int) seq & mask] = new UserChangeDelta(seq, type, event.getUserId(),
+                        user == null ? null : UserView.of(user));
+                seq++;
+            }
+            head = seq;
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish {} user changes", events.size(), e);
+            return;
+        }
+        subscribers.forEach(Subscriber::signal);
+    }
+
+    private Map<Long, User> loadUsers(List<UserChangedEvent> events) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (UserChangedEvent event : events) {
+            if (event.getType() != UserChangedEvent.Type.DELETED) {
+                ids.add(event.getUserId());
+            }
+        }
+        Map<Long, User> users = new HashMap<>();
+        List<Long> chunk = new ArrayList<>(Math.min(ids.size(), FETCH_CHUNK));
+        for (Long id : ids) {
+            chunk.add(id);
+            if (chunk.size() == FETCH_CHUNK) {
+                userReadModel.findByIds(chunk).forEach(user -> users.put(user.getId(), user));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            userReadModel.findByIds(chunk).forEach(user -> users.put(user.getId(), user));
+        }
+        return users;
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            senders.execute(subscriber::heartbeat);
+        }
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Читает и пишет только задача отправки, которая у подписчика всегда одна
+        private long cursor;
+        private volatile boolean reset;
+        private volatile boolean closed;
+
+        private Subscriber(SseEmitter emitter, long cursor) {
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+
+        private void signal() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                do {
+                    if (reset) {
+                        emitter.send(SseEmitter.event().name("reset").data("reset"));
+                        reset = false;
+                    }
+                    long end = head;
+                    if (end - cursor > maxLag) {
+                        drop();
+                        return;
+                    }
+                    for (; cursor < end; cursor++) {
+                        UserChangeDelta delta = ring[(int) cursor & mask];
+                        if (delta == null || delta.getSeq() != cursor) {
+                            // Ячейку уже перезаписали более новым изменением
+                            drop();
+                            return;
+                        }
+                        emitter.send(SseEmitter.event()
+                                .id(Long.toString(delta.getSeq()))
+                                .name("user")
+                                .data(delta, MediaType.APPLICATION_JSON));
+                    }
+                    scheduled.set(false);
+                    // Изменение могло прийти между последней проверкой head и сбросом флага
+                } while (!closed && head != cursor && scheduled.compareAndSet(false, true));
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+
+        private void heartbeat() {
+            try {
+                emitter.send(SseEmitter.event().comment("ping"));
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+
+        private void drop() {
+            droppedSubscribers.increment();
+            close();
+            // Клиент узнает, что список устарел; переподключившись, он продолжит с головы буфера
+            try {
+                emitter.send(SseEmitter.event().name("reset").data("reset"));
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Failed to send reset to a lagging subscriber", e);
+            }
+            emitter.complete();
+        }
+
+        private void close() {
+            closed = true;
+            // close вызывается и из onCompletion, и из onError/onTimeout, и при отключении; место освобождается один раз
+            if (subscribers.remove(this)) {
+                subscriberCount.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Глобальная версия данных пользователей. Увеличивается после коммита каждой записи
+ * (UserChangedEvent публикуют UserServiceImpl и импорт, изменения с других узлов приходят через InvalidationBus) и служит ключом кэшей отрендеренного HTML.
+ * Стартует с текущего времени, чтобы версии (и ETag на их основе) не повторялись после перезапуска.
+ */
+@Component
+public class UserDataVersion {
+
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    public long current() {
+        return version.get();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        version.incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        version.incrementAndGet();
+    }
+
+    @EventListener(CachesFlushEvent.class)
+    public void onCachesFlush() {
+        version.incrementAndGet();
+    }
+}
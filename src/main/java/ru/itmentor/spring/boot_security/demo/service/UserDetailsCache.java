@@ -0,0 +1,220 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.User;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный по размеру и времени жизни кэш UserDetails.
+ * Используется DaoAuthenticationProvider при логине и UserServiceImpl при показе страницы /user.
+ * Записи удаляются по событию UserChangedEvent, т.е. ровно тогда, когда пользователь изменился.
+ * Кэшируются только сущности User: max-size ограничивает число пользователей, а не ключей.
+ * Счетчики публикуются в стандартные метрики cache.* с тегом cache=userDetails.
+ */
+@Component
+public class UserDetailsCache implements UserCache {
+
+    private final long ttlNanos;
+    private final int maxSize;
+
+    // Ключи - нормализованные имя и email пользователя (User.normalize), чтобы логин по email
+    // и в другом регистре тоже попадал в кэш. Один Entry лежит под всеми своими ключами.
+    // LinkedHashMap в порядке доступа - самая старая по использованию запись вытесняется первой.
+    // Пользователь лежит под одним или двумя ключами, поэтому размер кэша - это размер entryById.
+    // Оба словаря защищены монитором this.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Entry> entryById = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public UserDetailsCache(@Value("${app.cache.user-details.ttl:PT5M}") Duration ttl,
+                            @Value("${app.cache.user-details.max-size:10000}") int maxSize,
+                            MeterRegistry meterRegistry) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+
+        FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                .tag("cache", "userDetails").tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                .tag("cache", "userDetails").tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", evictions, LongAdder::sum)
+                .tag("cache", "userDetails").register(meterRegistry);
+        FunctionCounter.builder("cache.expirations", expirations, LongAdder::sum)
+                .tag("cache", "userDetails").register(meterRegistry);
+        FunctionCounter.builder("cache.invalidations", invalidations, LongAdder::sum)
+                .tag("cache", "userDetails").register(meterRegistry);
+        Gauge.builder("cache.size", this, UserDetailsCache::size)
+                .tag("cache", "userDetails").register(meterRegistry);
+    }
+
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        String key = User.normalize(username);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            if (System.nanoTime() - entry.createdAt > ttlNanos) {
+                removeEntry(entry);
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+            // Обращение по одному ключу поднимает в порядке доступа и остальные ключи пользователя,
+            // иначе вытеснение по самому старому ключу выбрало бы недавно использованного пользователя
+            for (String other : entry.keys) {
+                if (!other.equals(key)) {
+                    entries.get(other);
+                }
+            }
+            hits.increment();
+            return entry.user;
+        }
+    }
+
+    @Override
+    public void putUserInCache(UserDetails user) {
+        if (maxSize <= 0 || !(user instanceof User)) {
+            return;
+        }
+        Entry entry = new Entry((User) user, System.nanoTime());
+        synchronized (this) {
+            Entry previousVersion = entryById.put(entry.userId, entry);
+            if (previousVersion != null) {
+                removeKeys(previousVersion);
+            }
+            for (String key : entry.keys) {
+                Entry previous = entries.put(key, entry);
+                if (previous != null && previous != entry) {
+                    removeEntry(previous);
+                }
+            }
+            while (entryById.size() > maxSize) {
+                removeEntry(entries.values().iterator().next());
+                evictions.increment();
+            }
+        }
+    }
+
+    @Override
+    public void removeUserFromCache(String username) {
+        synchronized (this) {
+            Entry entry = entries.get(User.normalize(username));
+            if (entry != null) {
+                removeEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * Удаляет из кэша пользователя по id и по имени. Удаление по id нужно при смене имени или email:
+     * в кэше пользователь лежит под старыми ключами.
+     */
+    public void invalidate(long userId, String username) {
+        synchronized (this) {
+            Entry entry = entryById.get(userId);
+            if (entry != null) {
+                removeEntry(entry);
+            }
+            if (username != null) {
+                removeUserFromCache(username);
+            }
+        }
+        invalidations.increment();
+    }
+
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            entryById.clear();
+        }
+        invalidations.increment();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        invalidate(event.getUserId(), event.getUsername());
+    }
+
+    /**
+     * Массовая операция могла затронуть большую часть кэша: он сбрасывается целиком, а не по одному id.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        clear();
+    }
+
+    @EventListener(CachesFlushEvent.class)
+    public void onCachesFlush() {
+        clear();
+    }
+
+    public synchronized int size() {
+        return entryById.size();
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("size", (long) entryById.size());
+        }
+        stats.put("maxSize", (long) maxSize);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private void removeEntry(Entry entry) {
+        removeKeys(entry);
+        entryById.remove(entry.userId, entry);
+    }
+
+    // Удаляем только те ключи, которые все еще указывают на этот Entry
+    private void removeKeys(Entry entry) {
+        for (String key : entry.keys) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private static final class Entry {
+        private final UserDetails user;
+        private final long createdAt;
+        private final long userId;
+        private final String[] keys;
+
+        private Entry(User user, long createdAt) {
+            this.user = user;
+            this.createdAt = createdAt;
+            this.userId = user.getId();
+            String usernameKey = User.normalize(user.getUsername());
+            this.keys = user.getEmailKey() == null || user.getEmailKey().equals(usernameKey)
+                    ? new String[]{usernameKey}
+                    : new String[]{usernameKey, user.getEmailKey()};
+        }
+    }
+}
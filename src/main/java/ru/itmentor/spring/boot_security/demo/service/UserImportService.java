@@ -0,0 +1,16 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import ru.itmentor.spring.boot_security.demo.model.UserImportReport;
+
+import java.io.IOException;
+import java.io.Reader;
+
+public interface UserImportService {
+
+    enum Format {
+        CSV,
+        NDJSON
+    }
+
+    UserImportReport importUsers(Reader reader, Format format) throws IOException;
+}
@@ -0,0 +1,400 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserImportReport;
+import ru.itmentor.spring.boot_security.demo.model.UserImportReport.RowResult;
+import ru.itmentor.spring.boot_security.demo.model.UserImportReport.Status;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Потоковый импорт пользователей из CSV или NDJSON.
+ * Строки читаются по одной и обрабатываются пачками: проверка существования одним запросом на пачку,
+ * хэширование паролей параллельно в общем пуле PasswordHashingService, запись JDBC batch-ами в одной транзакции на пачку.
+ * Строка, пароль которой не удалось захэшировать, получает FAILED и не останавливает импорт остальных.
+ * Роли берутся из RoleRegistry, без обращений к базе.
+ *
+ * CSV: первая строка - заголовок с колонками firstName,lastName,email,password[,gender][,roles],
+ * роли внутри ячейки разделяются ';'. Значения не должны содержать запятых.
+ * NDJSON: по одному объекту на строку с теми же полями, roles - массив строк.
+ */
+@Slf4j
+@Service
+public class UserImportServiceImpl implements UserImportService {
+
+    private static final String DEFAULT_ROLE = "ROLE_USER";
+
+    private static final String INSERT_USER =
+            "insert into user_with_role (first_name, last_name, email, password, gender, username_key, email_key) " +
+            "values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_USER_ROLE =
+            "insert into user_role (user_id, role_id) values (:userId, :roleId)";
+    private static final String SELECT_EXISTING =
+            "select username_key, email_key from user_with_role " +
+            "where username_key in (:usernameKeys) or email_key in (:emailKeys)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RoleService roleService;
+    private final PasswordHashingService passwordHashingService;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int batchSize;
+
+    public UserImportServiceImpl(NamedParameterJdbcTemplate jdbcTemplate,
+                                 TransactionTemplate transactionTemplate,
+                                 RoleService roleService,
+                                 PasswordHashingService passwordHashingService,
+                                 ObjectMapper objectMapper,
+                                 ApplicationEventPublisher eventPublisher,
+                                 @Value("${app.import.batch-size:1000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.roleService = roleService;
+        this.passwordHashingService = passwordHashingService;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public UserImportReport importUsers(Reader reader, Format format) throws IOException {
+        long start = System.nanoTime();
+        UserImportReport report = new UserImportReport();
+        Set<String> seenKeys = new HashSet<>();
+        List<ImportRow> chunk = new ArrayList<>(batchSize);
+        Map<String, Integer> header = null;
+
+        BufferedReader in = new BufferedReader(reader);
+        long lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (format == Format.CSV && header == null) {
+                try {
+                    header = parseHeader(line);
+                } catch (IllegalArgumentException e) {
+                    report.add(new RowResult(lineNumber, null, Status.INVALID, e.getMessage()));
+                    break;
+                }
+                continue;
+            }
+            try {
+                chunk.add(format == Format.CSV ? parseCsv(lineNumber, line, header) : parseJson(lineNumber, line));
+            } catch (IllegalArgumentException | JsonProcessingException e) {
+                report.add(new RowResult(lineNumber, null, Status.INVALID, e.getMessage()));
+                continue;
+            }
+            if (chunk.size() >= batchSize) {
+                processChunk(chunk, seenKeys, report);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            processChunk(chunk, seenKeys, report);
+        }
+
+        report.finish(System.nanoTime() - start);
+        log.info("Imported {} users ({} skipped, {} failed) in {} ms, {} users/sec",
+                report.getCreated(), report.getSkipped(), report.getFailed(),
+                report.getElapsedMillis(), String.format(Locale.ROOT, "%.1f", report.getUsersPerSecond()));
+        return report;
+    }
+
+    /**
+     * seenKeys - имена и email (с префиксами "u:" и "e:"), уже встреченные в этом импорте.
+     */
+    private void processChunk(List<ImportRow> chunk, Set<String> seenKeys, UserImportReport report) {
+        List<ImportRow> candidates = new ArrayList<>(chunk.size());
+        for (ImportRow row : chunk) {
+            String error = resolveAndValidate(row);
+            if (error != null) {
+                report.add(new RowResult(row.line, row.firstName, Status.INVALID, error));
+            } else {
+                candidates.add(row);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // Одна проверка существования на всю пачку вместо запроса на каждого пользователя.
+        // Она только экономит BCrypt на заведомых дубликатах; окончательно уникальность гарантируют индексы.
+        Set<String> existing = new HashSet<>();
+        jdbcTemplate.query(SELECT_EXISTING, new MapSqlParameterSource()
+                        .addValue("usernameKeys", usernameKeys(candidates))
+                        .addValue("emailKeys", candidates.stream().map(row -> row.emailKey).collect(Collectors.toList())),
+                rs -> {
+                    existing.add("u:" + rs.getString("username_key"));
+                    existing.add("e:" + rs.getString("email_key"));
+                });
+        List<ImportRow> unique = new ArrayList<>(candidates.size());
+        for (ImportRow row : candidates) {
+            String usernameKey = "u:" + row.usernameKey;
+            String emailKey = "e:" + row.emailKey;
+            if (existing.contains(usernameKey) || existing.contains(emailKey)) {
+                report.add(new RowResult(row.line, row.firstName, Status.DUPLICATE, "User already exists"));
+            } else if (!seenKeys.add(usernameKey) | !seenKeys.add(emailKey)) {
+                report.add(new RowResult(row.line, row.firstName, Status.DUPLICATE, "Duplicate name or email in import"));
+            } else {
+                unique.add(row);
+            }
+        }
+        if (unique.isEmpty()) {
+            return;
+        }
+
+        List<ImportRow> rows = hashPasswords(unique, report);
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        try {
+            // События публикуются внутри транзакции: read-модель пишется вместе с пачкой пользователей
+            transactionTemplate.executeWithoutResult(status -> {
+                insert(rows);
+                publishCreated(rows);
+            });
+        } catch (DataAccessException e) {
+            log.warn("Import batch starting at line {} failed", rows.get(0).line, e);
+            for (ImportRow row : rows) {
+                report.add(new RowResult(row.line, row.firstName, Status.FAILED, e.getMostSpecificCause().getMessage()));
+            }
+            return;
+        }
+        for (ImportRow row : rows) {
+            report.add(new RowResult(row.line, row.firstName, Status.CREATED, null));
+        }
+    }
+
+    private void insert(List<ImportRow> rows) {
+        // id новых пользователей берутся из сгенерированных ключей batch-а, а не отдельным поиском по имени
+        jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_USER, new String[]{"user_id"})) {
+                for (ImportRow row : rows) {
+                    statement.setString(1, row.firstName);
+                    statement.setString(2, row.lastName);
+                    statement.setString(3, row.email);
+                    statement.setString(4, row.passwordHash);
+                    statement.setString(5, row.resolvedGender.name());
+                    statement.setString(6, row.usernameKey);
+                    statement.setString(7, row.emailKey);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    for (ImportRow row : rows) {
+                        if (!keys.next()) {
+                            throw new SQLException("No generated key for user at line " + row.line);
+                        }
+                        row.id = keys.getLong(1);
+                    }
+                }
+            }
+            return null;
+        });
+        List<SqlParameterSource> userRoles = new ArrayList<>();
+        for (ImportRow row : rows) {
+            for (Role role : row.resolvedRoles) {
+                userRoles.add(new MapSqlParameterSource()
+                        .addValue("userId", row.id)
+                        .addValue("roleId", role.getId()));
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_USER_ROLE, userRoles.toArray(new SqlParameterSource[0]));
+    }
+
+    /**
+     * Хэширует пароли пачки. Если общий вызов не удался, пароли хэшируются по одному:
+     * строка, для которой хэширование снова не удалось, получает FAILED, остальные импортируются.
+     *
+     * @return Строки с хэшем пароля.
+     */
+    private List<ImportRow> hashPasswords(List<ImportRow> rows, UserImportReport report) {
+        try {
+            List<String> hashes = passwordHashingService.encodeAll(
+                    rows.stream().map(row -> row.password).collect(Collectors.toList()));
+            for (int i = 0; i < rows.size(); i++) {
+                rows.get(i).passwordHash = hashes.get(i);
+            }
+            return rows;
+        } catch (PasswordHashingException e) {
+            log.warn("Hashing passwords of batch starting at line {} failed, hashing one by one", rows.get(0).line, e);
+        }
+        List<ImportRow> hashed = new ArrayList<>(rows.size());
+        for (ImportRow row : rows) {
+            try {
+                row.passwordHash = passwordHashingService.encode(row.password);
+                hashed.add(row);
+            } catch (PasswordHashingException e) {
+                report.add(new RowResult(row.line, row.firstName, Status.FAILED, e.getMessage()));
+            }
+        }
+        return hashed;
+    }
+
+    private void publishCreated(List<ImportRow> rows) {
+        for (ImportRow row : rows) {
+            eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED, row.id, row.firstName));
+        }
+    }
+
+    private String resolveAndValidate(ImportRow row) {
+        if (isBlank(row.firstName) || row.firstName.length() < 2 || row.firstName.length() > 30) {
+            return "First name should be between 2 and 30 characters";
+        }
+        if (isBlank(row.lastName) || row.lastName.length() < 2 || row.lastName.length() > 30) {
+            return "Last name should be between 2 and 30 characters";
+        }
+        if (isBlank(row.email)) {
+            return "Email should be valid";
+        }
+        row.usernameKey = User.normalize(row.firstName);
+        row.emailKey = User.normalize(row.email);
+        if (row.password == null || row.password.length() < 6 || row.password.length() > 100) {
+            return "Password should be min 6 characters";
+        }
+        try {
+            row.resolvedGender = isBlank(row.gender)
+                    ? Gender.PREFER_NOT_TO_SAY
+                    : Gender.valueOf(row.gender.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return "Unknown gender " + row.gender;
+        }
+        String[] names = row.roles.length == 0 ? new String[]{DEFAULT_ROLE} : row.roles;
+        row.resolvedRoles = roleService.getRoleByName(names);
+        if (row.resolvedRoles.size() != new HashSet<>(Arrays.asList(names)).size()) {
+            return "Unknown role in " + String.join(";", names);
+        }
+        return null;
+    }
+
+    private Map<String, Integer> parseHeader(String line) {
+        Map<String, Integer> header = new HashMap<>();
+        String[] cells = line.split(",", -1);
+        for (int i = 0; i < cells.length; i++) {
+            header.put(cells[i].trim().toLowerCase(Locale.ROOT), i);
+        }
+        for (String required : new String[]{"firstname", "lastname", "email", "password"}) {
+            if (!header.containsKey(required)) {
+                throw new IllegalArgumentException("CSV header must contain column " + required);
+            }
+        }
+        return header;
+    }
+
+    private ImportRow parseCsv(long line, String text, Map<String, Integer> header) {
+        String[] cells = text.split(",", -1);
+        ImportRow row = new ImportRow(line);
+        row.firstName = cell(cells, header, "firstname");
+        row.lastName = cell(cells, header, "lastname");
+        row.email = cell(cells, header, "email");
+        row.password = cell(cells, header, "password");
+        row.gender = cell(cells, header, "gender");
+        String roles = cell(cells, header, "roles");
+        row.roles = isBlank(roles) ? new String[0] : splitRoles(roles.split(";"));
+        return row;
+    }
+
+    private ImportRow parseJson(long line, String text) throws JsonProcessingException {
+        JsonNode node = objectMapper.readTree(text);
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        ImportRow row = new ImportRow(line);
+        row.firstName = text(node, "firstName");
+        row.lastName = text(node, "lastName");
+        row.email = text(node, "email");
+        row.password = text(node, "password");
+        row.gender = text(node, "gender");
+        List<String> roles = new ArrayList<>();
+        node.path("roles").forEach(role -> roles.add(role.asText()));
+        row.roles = splitRoles(roles.toArray(new String[0]));
+        return row;
+    }
+
+    private static String[] splitRoles(String[] roles) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String role : roles) {
+            if (!role.isBlank()) {
+                names.add(role.trim());
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    private static String cell(String[] cells, Map<String, Integer> header, String column) {
+        Integer index = header.get(column);
+        if (index == null || index >= cells.length) {
+            return null;
+        }
+        return cells[index].trim();
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static List<String> usernameKeys(List<ImportRow> rows) {
+        return rows.stream().map(row -> row.usernameKey).collect(Collectors.toList());
+    }
+
+    private static final class ImportRow {
+        private final long line;
+        private String firstName;
+        private String lastName;
+        private String email;
+        private String password;
+        private String gender;
+        private String[] roles;
+        private String usernameKey;
+        private String emailKey;
+        private Gender resolvedGender;
+        private Set<Role> resolvedRoles;
+        private String passwordHash;
+        private long id;
+
+        private ImportRow(long line) {
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import ru.itmentor.spring.boot_security.demo.event.RolesChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.ReadModelReport;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Денормализованная read-модель пользователей (таблица user_read_model): одна строка на пользователя
+ * с уже собранными именами ролей. Список в админке, страница профиля и логин читают ее одним запросом по индексу,
+ * без join-а user_with_role с user_role и role, который делает EAGER @ManyToMany.
+ * <p>
+ * Модель обновляется в той же транзакции, что и запись: UserChangedEvent внутри транзакции копит id,
+ * а перед коммитом (после flush JPA) строки этих пользователей пересобираются из основных таблиц
+ * пачками по 1000 - двумя запросами на пачку. Вне транзакции строка обновляется сразу.
+ * Сохранение роли (RolesChangedEvent) пересобирает role_names ее пользователей.
+ * check() сравнивает модель с основными таблицами, rebuild() пересобирает ее целиком. Проверка при старте
+ * читает все таблицы пользователей и ролей, поэтому включается явно (app.read-model.verify-on-startup, профиль seed)
+ * и тогда выполняется до запуска веб-сервера.
+ */
+@Slf4j
+@Component
+public class UserReadModel implements SmartInitializingSingleton {
+
+    private static final String COLUMNS =
+            "user_id, first_name, last_name, email, gender, username_key, email_key, password, version, role_names";
+    private static final String ROLE_NAMES_OF =
+            "(select string_agg(r.name, ',' order by r.name) from user_role ur " +
+            "join role r on r.role_id = ur.role_id where ur.user_id = %s)";
+    private static final String ROLE_NAMES = String.format(ROLE_NAMES_OF, "u.user_id");
+    private static final String INSERT_FROM_USERS =
+            "insert into user_read_model (" + COLUMNS + ") " +
+            "select u.user_id, u.first_name, u.last_name, u.email, u.gender, u.username_key, u.email_key, " +
+            "u.password, u.version, " + ROLE_NAMES + " from user_with_role u";
+    private static final String DELETE_BY_IDS = "delete from user_read_model where user_id in (:ids)";
+    private static final String INSERT_BY_IDS = INSERT_FROM_USERS + " where u.user_id in (:ids)";
+    private static final String SELECT = "select " + COLUMNS + " from user_read_model m ";
+    private static final String UPDATE_ROLE_NAMES =
+            "update user_read_model set role_names = " + String.format(ROLE_NAMES_OF, "user_read_model.user_id") +
+            " where user_id in (select user_id from user_role where role_id = :roleId)";
+
+    private static final String COUNT_USERS = "select count(*) from user_with_role";
+    private static final String COUNT_MISSING = "select count(*) from user_with_role u " +
+            "where not exists (select 1 from user_read_model m where m.user_id = u.user_id)";
+    private static final String COUNT_ORPHANED = "select count(*) from user_read_model m " +
+            "where not exists (select 1 from user_with_role u where u.user_id = m.user_id)";
+    private static final String COUNT_STALE = "select count(*) from user_read_model m " +
+            "join user_with_role u on u.user_id = m.user_id " +
+            "where m.version <> u.version or m.username_key <> u.username_key or m.email_key <> u.email_key " +
+            "or coalesce(m.role_names, '') <> coalesce(" + ROLE_NAMES + ", '')";
+
+    private static final int REFRESH_CHUNK = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RoleService roleService;
+    private final boolean verifyOnStartup;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final RowMapper<User> userMapper = (rs, rowNum) -> {
+        User user = new User();
+        user.setId(rs.getLong("user_id"));
+        user.setFirstName(rs.getString("first_name"));
+        user.setLastName(rs.getString("last_name"));
+        user.setEmail(rs.getString("email"));
+        String gender = rs.getString("gender");
+        user.setGender(gender == null ? null : Gender.valueOf(gender));
+        user.setPassword(rs.getString("password"));
+        user.setVersion(rs.getLong("version"));
+        user.setRole(getRoles(rs.getString("role_names")));
+        return user;
+    };
+
+    public UserReadModel(NamedParameterJdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate,
+                         RoleService roleService,
+                         @Value("${app.read-model.verify-on-startup:false}") boolean verifyOnStartup) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.roleService = roleService;
+        this.verifyOnStartup = verifyOnStartup;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!verifyOnStartup) {
+            return;
+        }
+        ReadModelReport report = check();
+        if (!report.isConsistent()) {
+            log.info("User read model is out of date ({}), rebuilding", report);
+            rebuild();
+        }
+    }
+
+    @EventListener
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.isRemote()) {
+            // Строку уже обновил узел, на котором произошло изменение
+            return;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh(List.of(event.getUserId()));
+            return;
+        }
+        pendingRefresh().ids.add(event.getUserId());
+    }
+
+    @EventListener
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh(event.getUserIds());
+            return;
+        }
+        pendingRefresh().ids.addAll(event.getUserIds());
+    }
+
+    private PendingRefresh pendingRefresh() {
+        PendingRefresh pending = (PendingRefresh) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingRefresh();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Переименованная роль меняет role_names у всех ее пользователей: строки пересобираются одним запросом.
+     * Событие с другого узла пропускается - модель общая, ее уже обновил узел, сохранивший роль.
+     */
+    @EventListener
+    public void onRolesChanged(RolesChangedEvent event) {
+        if (event.isRemote() || event.getRoleId() == null) {
+            return;
+        }
+        int rows = jdbcTemplate.update(UPDATE_ROLE_NAMES, new MapSqlParameterSource("roleId", event.getRoleId()));
+        log.debug("Refreshed role names of {} read model rows for role {}", rows, event.getRoleId());
+    }
+
+    public User findByUsernameKey(String usernameKey) {
+        List<User> users = jdbcTemplate.query(SELECT + "where m.username_key = :key",
+                new MapSqlParameterSource("key", usernameKey), userMapper);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    public User findByEmailKey(String emailKey) {
+        List<User> users = jdbcTemplate.query(SELECT + "where m.email_key = :key",
+                new MapSqlParameterSource("key", emailKey), userMapper);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    public List<User> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return jdbcTemplate.query(SELECT + "where m.user_id in (:ids)", new MapSqlParameterSource("ids", ids), userMapper);
+    }
+
+    /**
+     * Страница пользователей по курсору (keyset), с теми же фильтрами, что и UserRepositoryCustom.findPage.
+     */
+    public List<User> findPage(UserFilter filter, long afterId, int limit) {
+        StringBuilder sql = new StringBuilder(SELECT).append("where m.user_id > :afterId");
+        MapSqlParameterSource params = new MapSqlParameterSource("afterId", afterId).addValue("limit", limit);
+        if (filter.hasRole()) {
+            sql.append(" and (',' || m.role_names || ',') like :role escape '\\'");
+            params.addValue("role", filter.roleListPattern());
+        }
+        if (filter.hasGender()) {
+            sql.append(" and m.gender = :gender");
+            params.addValue("gender", filter.getGender().name());
+        }
+        if (filter.hasEmailDomain()) {
+            sql.append(" and m.email_key like :emailDomain escape '\\'");
+            params.addValue("emailDomain", filter.emailDomainPattern());
+        }
+        sql.append(" order by m.user_id limit :limit");
+        return jdbcTemplate.query(sql.toString(), params, userMapper);
+    }
+
+    /**
+     * Пересобирает строки read-модели для указанных пользователей; удаленные пользователи из модели исчезают.
+     */
+    public void refresh(Collection<Long> ids) {
+        List<Long> chunk = new ArrayList<>(Math.min(ids.size(), REFRESH_CHUNK));
+        for (Long id : ids) {
+            chunk.add(id);
+            if (chunk.size() == REFRESH_CHUNK) {
+                refreshChunk(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            refreshChunk(chunk);
+        }
+    }
+
+    public ReadModelReport check() {
+        EmptySqlParameterSource none = EmptySqlParameterSource.INSTANCE;
+        return new ReadModelReport(
+                count(COUNT_USERS, none),
+                count(COUNT_MISSING, none),
+                count(COUNT_ORPHANED, none),
+                count(COUNT_STALE, none));
+    }
+
+    /**
+     * Полная пересборка одной транзакцией: читатели до коммита видят старую модель целиком.
+     *
+     * @return Число строк в новой модели.
+     */
+    public long rebuild() {
+        long start = System.nanoTime();
+        Integer rows = transactionTemplate.execute(status -> {
+            jdbcTemplate.update("delete from user_read_model", EmptySqlParameterSource.INSTANCE);
+            return jdbcTemplate.update(INSERT_FROM_USERS, EmptySqlParameterSource.INSTANCE);
+        });
+        long count = rows == null ? 0 : rows;
+        log.info("User read model rebuilt: {} rows in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+        return count;
+    }
+
+    private void refreshChunk(List<Long> ids) {
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        jdbcTemplate.update(DELETE_BY_IDS, params);
+        jdbcTemplate.update(INSERT_BY_IDS, params);
+    }
+
+    private long count(String sql, EmptySqlParameterSource params) {
+        Long count = jdbcTemplate.queryForObject(sql, params, Long.class);
+        return count == null ? 0 : count;
+    }
+
+    private Set<Role> getRoles(String roleNames) {
+        if (!StringUtils.hasText(roleNames)) {
+            return new HashSet<>();
+        }
+        return roleService.getRoleByName(roleNames.split(","));
+    }
+
+    /**
+     * id пользователей, измененных в текущей транзакции. Обновляет модель перед коммитом,
+     * поэтому модель и основные таблицы фиксируются (или откатываются) вместе.
+     */
+    private final class PendingRefresh implements TransactionSynchronization {
+        private final Set<Long> ids = new LinkedHashSet<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            // Изменения сущностей должны попасть в базу раньше, чем модель прочитает их через JDBC
+            entityManager.flush();
+            refresh(ids);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(UserReadModel.this);
+        }
+    }
+}
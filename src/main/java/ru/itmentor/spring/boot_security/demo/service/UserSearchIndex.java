@@ -0,0 +1,454 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserSearchHit;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Поисковый индекс пользователей в памяти для автодополнения в админке.
+ * По имени, фамилии и email строятся отсортированный словарь термов (поиск по префиксу)
+ * и trigram-постинги (поиск по подстроке от 3 символов), так что поиск не сканирует таблицу.
+ * <p>
+ * Индекс строится в фоне после старта приложения постраничным чтением user_with_role через JDBC.
+ * Дальше он обновляется по UserChangedEvent: id измененных пользователей копятся и перечитываются пачками
+ * в единственном потоке индекса, поэтому массовый импорт не превращается в запрос на каждого пользователя.
+ * Индекс согласован с базой с задержкой в миллисекунды.
+ * <p>
+ * Документы лежат в массиве по номеру слота, постинги - отсортированные массивы слотов. Изменение пользователя
+ * помечает старый слот удаленным и добавляет новый; когда удаленных слотов становится больше живых, индекс пересобирается.
+ */
+@Slf4j
+@Service
+public class UserSearchIndex {
+
+    public static final int MAX_LIMIT = 50;
+
+    private static final String SELECT_PAGE =
+            "select user_id, first_name, last_name, email from user_with_role " +
+            "where user_id > :afterId order by user_id limit :limit";
+    private static final String SELECT_BY_IDS =
+            "select user_id, first_name, last_name, email from user_with_role where user_id in (:ids)";
+
+    private static final int REBUILD_PAGE_SIZE = 10_000;
+    private static final int REFRESH_BATCH_SIZE = 1_000;
+    // Верхняя граница числа просмотренных документов на запрос: она и держит время поиска постоянным
+    private static final int MAX_CANDIDATES = 2_000;
+
+    private static final Comparator<Candidate> RANKING = Comparator
+            .comparingInt((Candidate c) -> c.score)
+            .thenComparing((Candidate c) -> -c.doc.firstName.length())
+            .thenComparing((Candidate c) -> -c.doc.id);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Timer searchTimer;
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(new CustomizableThreadFactory("user-search-"));
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+    private volatile Index index = new Index();
+    private volatile boolean ready;
+
+    public UserSearchIndex(NamedParameterJdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.searchTimer = Timer.builder("app.user.search")
+                .description("Поиск по индексу пользователей")
+                .register(meterRegistry);
+        Gauge.builder("app.user.search.size", this, s -> s.index.live())
+                .description("Число пользователей в поисковом индексе")
+                .register(meterRegistry);
+        Gauge.builder("app.user.search.slots", this, s -> s.index.slots())
+                .description("Занятые слоты поискового индекса, включая удаленные до пересборки")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        executor.execute(this::rebuild);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        pending.add(event.getUserId());
+        scheduleRefresh();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersBulkChanged(UsersBulkChangedEvent event) {
+        pending.addAll(event.getUserIds());
+        scheduleRefresh();
+    }
+
+    @EventListener(CachesFlushEvent.class)
+    public void onCachesFlush() {
+        executor.execute(this::rebuild);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        return index.live();
+    }
+
+    /**
+     * Ищет пользователей по префиксу имени, фамилии, части email или по подстроке от 3 символов.
+     * Выдача отсортирована по релевантности: точное совпадение, префикс имени, префикс фамилии/email, подстрока.
+     */
+    public List<UserSearchHit> search(String query, int limit) {
+        String q = User.normalize(query);
+        if (q == null || q.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int top = Math.max(1, Math.min(limit, MAX_LIMIT));
+        return searchTimer.record(() -> index.search(q, top));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void scheduleRefresh() {
+        if (refreshScheduled.compareAndSet(false, true)) {
+            executor.execute(this::refresh);
+        }
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        Index fresh = new Index();
+        long[] afterId = {0};
+        try {
+            int read;
+            do {
+                int before = fresh.live();
+                jdbcTemplate.query(SELECT_PAGE, new MapSqlParameterSource()
+                        .addValue("afterId", afterId[0])
+                        .addValue("limit", REBUILD_PAGE_SIZE), (RowCallbackHandler) rs -> {
+                    Doc doc = new Doc(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4));
+                    fresh.put(doc);
+                    afterId[0] = doc.id;
+                });
+                read = fresh.live() - before;
+            } while (read == REBUILD_PAGE_SIZE);
+        } catch (DataAccessException e) {
+            log.error("User search index rebuild failed, keeping the previous index", e);
+            return;
+        }
+        index = fresh;
+        ready = true;
+        log.info("User search index built: {} users in {} ms", fresh.live(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void refresh() {
+        refreshScheduled.set(false);
+        while (!pending.isEmpty()) {
+            List<Long> ids = new ArrayList<>(REFRESH_BATCH_SIZE);
+            Iterator<Long> iterator = pending.iterator();
+            while (iterator.hasNext() && ids.size() < REFRESH_BATCH_SIZE) {
+                ids.add(iterator.next());
+                iterator.remove();
+            }
+            Set<Long> missing = new HashSet<>(ids);
+            try {
+                jdbcTemplate.query(SELECT_BY_IDS, new MapSqlParameterSource("ids", ids), (RowCallbackHandler) rs -> {
+                    Doc doc = new Doc(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4));
+                    index.put(doc);
+                    missing.remove(doc.id);
+                });
+            } catch (DataAccessException e) {
+                // Вернем id в очередь: они перечитаются при следующем изменении любого пользователя
+                log.warn("User search index refresh failed for {} users", ids.size(), e);
+                pending.addAll(ids);
+                return;
+            }
+            missing.forEach(index::remove);
+        }
+        if (index.needsCompaction()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Снимок полей пользователя в нормализованном виде.
+     */
+    private static final class Doc {
+        final long id;
+        final String firstName;
+        final String lastName;
+        final String email;
+        final String[] fields;
+
+        Doc(long id, String firstName, String lastName, String email) {
+            this.id = id;
+            this.firstName = firstName == null ? "" : firstName;
+            this.lastName = lastName == null ? "" : lastName;
+            this.email = email == null ? "" : email;
+            this.fields = new String[]{
+                    User.normalize(this.firstName), User.normalize(this.lastName), User.normalize(this.email)};
+        }
+
+        // Термы: поле целиком и его части между не буквенно-цифровыми символами (ivan.petrov@mail.ru -> ivan, petrov, mail, ru)
+        Set<String> terms() {
+            Set<String> terms = new HashSet<>();
+            for (String field : fields) {
+                if (field.isEmpty()) {
+                    continue;
+                }
+                terms.add(field);
+                for (String token : field.split("[^\\p{L}\\p{N}]+")) {
+                    if (!token.isEmpty()) {
+                        terms.add(token);
+                    }
+                }
+            }
+            return terms;
+        }
+
+        Set<String> trigrams() {
+            Set<String> trigrams = new HashSet<>();
+            for (String field : fields) {
+                for (int i = 0; i + 3 <= field.length(); i++) {
+                    trigrams.add(field.substring(i, i + 3));
+                }
+            }
+            return trigrams;
+        }
+
+        int score(String q) {
+            String name = fields[0];
+            if (name.equals(q) || fields[2].equals(q)) {
+                return 100;
+            }
+            if (name.startsWith(q)) {
+                return 80;
+            }
+            if (fields[1].startsWith(q) || fields[2].startsWith(q)) {
+                return 70;
+            }
+            for (String field : fields) {
+                if (field.contains(q)) {
+                    // Совпадение с началом слова внутри поля ценнее произвольной подстроки
+                    int at = field.indexOf(q);
+                    return at == 0 || !Character.isLetterOrDigit(field.charAt(at - 1)) ? 50 : 20;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static final class Candidate {
+        final Doc doc;
+        final int score;
+
+        Candidate(Doc doc, int score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Отсортированный по возрастанию список слотов. Слоты выдаются монотонно, поэтому добавление - всегда в конец.
+     */
+    private static final class Posting {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            if (size > 0 && slots[size - 1] == slot) {
+                return;
+            }
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+
+    private static final class Index {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final NavigableMap<String, Posting> terms = new TreeMap<>();
+        private final Map<String, Posting> trigrams = new HashMap<>();
+        private final Map<Long, Integer> slotById = new HashMap<>();
+        private Doc[] docs = new Doc[1024];
+        private volatile int slots;
+        private volatile int live;
+
+        int live() {
+            return live;
+        }
+
+        int slots() {
+            return slots;
+        }
+
+        boolean needsCompaction() {
+            return slots > 1024 && slots - live > live;
+        }
+
+        void put(Doc doc) {
+            lock.writeLock().lock();
+            try {
+                Integer previous = slotById.get(doc.id);
+                if (previous != null) {
+                    docs[previous] = null;
+                    live--;
+                }
+                int slot = slots++;
+                if (slot == docs.length) {
+                    docs = Arrays.copyOf(docs, docs.length * 2);
+                }
+                docs[slot] = doc;
+                slotById.put(doc.id, slot);
+                live++;
+                for (String term : doc.terms()) {
+                    terms.computeIfAbsent(term, k -> new Posting()).add(slot);
+                }
+                for (String trigram : doc.trigrams()) {
+                    trigrams.computeIfAbsent(trigram, k -> new Posting()).add(slot);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long id) {
+            lock.writeLock().lock();
+            try {
+                Integer slot = slotById.remove(id);
+                if (slot != null) {
+                    docs[slot] = null;
+                    live--;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<UserSearchHit> search(String q, int limit) {
+            PriorityQueue<Candidate> top = new PriorityQueue<>(limit + 1, RANKING);
+            Set<Integer> seen = new HashSet<>();
+            lock.readLock().lock();
+            try {
+                collectPrefix(q, limit, top, seen);
+                if (q.length() >= 3 && seen.size() < MAX_CANDIDATES) {
+                    collectSubstring(q, limit, top, seen);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            List<UserSearchHit> hits = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                Doc doc = top.peek().doc;
+                hits.add(new UserSearchHit(doc.id, doc.firstName, doc.lastName, doc.email, top.poll().score));
+            }
+            Collections.reverse(hits);
+            return hits;
+        }
+
+        private void collectPrefix(String q, int limit, PriorityQueue<Candidate> top, Set<Integer> seen) {
+            for (Posting posting : terms.subMap(q, true, q + Character.MAX_VALUE, false).values()) {
+                for (int i = 0; i < posting.size; i++) {
+                    offer(posting.slots[i], q, limit, top, seen);
+                    if (seen.size() >= MAX_CANDIDATES) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void collectSubstring(String q, int limit, PriorityQueue<Candidate> top, Set<Integer> seen) {
+            List<Posting> postings = new ArrayList<>();
+            for (int i = 0; i + 3 <= q.length(); i++) {
+                Posting posting = trigrams.get(q.substring(i, i + 3));
+                if (posting == null) {
+                    return;
+                }
+                postings.add(posting);
+            }
+            postings.sort(Comparator.comparingInt(p -> p.size));
+            int[] result = Arrays.copyOf(postings.get(0).slots, postings.get(0).size);
+            int size = result.length;
+            for (int p = 1; p < postings.size() && size > 0; p++) {
+                size = intersect(result, size, postings.get(p));
+            }
+            for (int i = 0; i < size && seen.size() < MAX_CANDIDATES; i++) {
+                offer(result[i], q, limit, top, seen);
+            }
+        }
+
+        // Пересечение двух отсортированных списков слотов, результат пишется в начало result
+        private static int intersect(int[] result, int size, Posting other) {
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < size && j < other.size) {
+                int a = result[i];
+                int b = other.slots[j];
+                if (a == b) {
+                    result[n++] = a;
+                    i++;
+                    j++;
+                } else if (a < b) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return n;
+        }
+
+        private void offer(int slot, String q, int limit, PriorityQueue<Candidate> top, Set<Integer> seen) {
+            Doc doc = docs[slot];
+            if (doc == null || !seen.add(slot)) {
+                return;
+            }
+            // Trigram-кандидат может не содержать запрос целиком, score 0 отсекает такие документы
+            int score = doc.score(q);
+            if (score == 0) {
+                return;
+            }
+            top.offer(new Candidate(doc, score));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+    }
+}
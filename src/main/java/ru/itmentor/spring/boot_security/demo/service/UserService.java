@@ -4,23 +4,39 @@ package ru.itmentor.spring.boot_security.demo.service;
 
 import org.springframework.security.core.userdetails.UserDetails;
 import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+import ru.itmentor.spring.boot_security.demo.model.UserPage;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface UserService {
 
 
     User findUserById(Long id);
 
+    /**
+     * В отличие от findUserById, не подставляет пустого пользователя, если записи нет.
+     */
+    Optional<User> findExistingUserById(long id);
+
     List<User> findAllUsers();
 
+    UserPage findUsersPage(UserFilter filter, Long afterId, int size);
+
     void deleteUserById(Long id);
 
     UserDetails loadUserByUsername(String username);
 
+    User findUserByUsername(String username);
+
     boolean saveUser(User user);
     boolean updateUser(User user);
 
+    boolean updateUser(User user, Long expectedVersion);
+
+    Long findVersionById(long id);
+
     Long getUsernameByName(String name);
 
     User getUserAndRole(User user, String[]roles);
@@ -2,71 +2,154 @@ package ru.itmentor.spring.boot_security.demo.service;
 
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
 import ru.itmentor.spring.boot_security.demo.model.Gender;
 import ru.itmentor.spring.boot_security.demo.model.Role;
 import ru.itmentor.spring.boot_security.demo.model.User;
-import ru.itmentor.spring.boot_security.demo.repository.RoleRepository;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+import ru.itmentor.spring.boot_security.demo.model.UserPage;
 import ru.itmentor.spring.boot_security.demo.repository.UserRepository;
 
-import javax.annotation.PostConstruct;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class UserServiceImpl implements UserDetailsService, UserService {
 
+    private static final int MAX_PAGE_SIZE = 200;
+
     private final UserRepository userRepository;
     private final RoleService roleService;
-    private final RoleRepository roleRepository;
+    private final UserDetailsCache userDetailsCache;
+    private final PasswordHashingService passwordHashingService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final UserReadModel userReadModel;
 
 
     @Override
+    @Transactional(readOnly = true)
     public User findUserById(Long id) {
         Optional<User> byId = userRepository.findById(id);
         return byId.orElse(new User());
     }
 
     @Override
+    @Transactional(readOnly = true)
+    public Optional<User> findExistingUserById(long id) {
+        return userRepository.findById(id);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public List<User> findAllUsers() {
         return userRepository.findAll();
     }
 
+    /**
+     * Страница списка пользователей. Читается из read-модели одним запросом, без join-а с ролями.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public UserPage findUsersPage(UserFilter filter, Long afterId, int size) {
+        int limit = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        // Запрашиваем на одну запись больше, чтобы узнать, есть ли следующая страница
+        List<User> users = userReadModel.findPage(filter, afterId == null ? 0L : afterId, limit + 1);
+        if (users.size() <= limit) {
+            return new UserPage(users, null);
+        }
+        List<User> page = new ArrayList<>(users.subList(0, limit));
+        return new UserPage(page, page.get(limit - 1).getId());
+    }
+
 
     @Override
+    @Transactional
     public void deleteUserById(Long id) {
         userRepository.deleteById(id);
+        eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.DELETED, id, null));
     }
 
+    /**
+     * Ищет пользователя по имени или по email без учета регистра.
+     * Сначала смотрит в read-модель (одна строка с уже собранными ролями), затем в основные таблицы:
+     * так логин работает и для пользователя, которого еще нет в модели. Все поиски идут по индексам
+     * username_key и email_key.
+     */
     @Override
+    @Transactional(readOnly = true)
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        UserDetails user = userRepository.findByFirstName(username);
+        String key = User.normalize(username);
+        boolean email = key.indexOf('@') >= 0;
+        User user = email ? userReadModel.findByEmailKey(key) : null;
+        if (user == null) {
+            user = userReadModel.findByUsernameKey(key);
+        }
+        if (user == null && email) {
+            user = userRepository.findByEmailKey(key);
+        }
+        if (user == null) {
+            user = userRepository.findByUsernameKey(key);
+        }
         if (user == null) {
             throw new UsernameNotFoundException("User with this " + username + " User Name not found");
         }
         return user;
     }
 
+    /**
+     * То же, что loadUserByUsername, но сначала смотрит в UserDetailsCache.
+     * Используется для показа страницы /user, чтобы не ходить в базу на каждый просмотр.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public User findUserByUsername(String username) {
+        UserDetails cached = userDetailsCache.getUserFromCache(username);
+        if (cached != null) {
+            return (User) cached;
+        }
+        UserDetails user = loadUserByUsername(username);
+        userDetailsCache.putUserInCache(user);
+        return (User) user;
+    }
+
+    /**
+     * Сохраняет нового пользователя. Проверки существования перед вставкой нет:
+     * занятые имя или email отсекаются уникальными индексами, и метод возвращает false.
+     * Вставка и событие выполняются в одной транзакции, чтобы read-модель обновилась вместе с записью.
+     */
     @Override
     public boolean saveUser(User user) {
-        User byUsername = userRepository.findByFirstName(user.getUsername());
-        if (byUsername != null) {
+        if (user.getUsername().isEmpty() | user.getPassword().isEmpty()) {
             return false;
         }
-        if (user.getUsername().isEmpty() | user.getPassword().isEmpty()) {
+        user.setPassword(passwordHashingService.encode(user.getPassword()));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                userRepository.saveAndFlush(user);
+                eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED, user.getId(), user.getUsername()));
+            });
+        } catch (DataIntegrityViolationException e) {
             return false;
         }
-        user.setPassword(new BCryptPasswordEncoder().encode(user.getPassword()));
-        userRepository.save(user);
         return true;
     }
 
@@ -75,31 +158,153 @@ public class UserServiceImpl implements UserDetailsService, UserService {
         или изменить логику только для тестового окружения, не затрагивая основной код, который используется в продакшн.
             */
     public boolean saveUserTest(User user) {
-        User byUsername = userRepository.findByFirstName(user.getUsername());
-        if (byUsername != null) {
+        // Здесь проверка оставлена: при каждом старте сидирование не должно тратить BCrypt на уже существующих пользователей
+        if (userRepository.existsByUsernameKey(User.normalize(user.getUsername()))) {
             return false;
         }
         if (user.getUsername().isEmpty() | user.getPassword().isEmpty()) {
             return false;
         }
-        user.setPassword(new BCryptPasswordEncoder().encode(user.getPassword()));
-        userRepository.save(user);
+        user.setPassword(passwordHashingService.encode(user.getPassword()));
+        transactionTemplate.executeWithoutResult(status -> {
+            userRepository.save(user);
+            eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.CREATED, user.getId(), user.getUsername()));
+        });
         return true;
     }
 
+    /**
+     * Частичное обновление пользователя. Пустые поля во входящем объекте означают "не менять".
+     * Сравнивает пришедшие данные с сохраненной записью и меняет только отличающиеся поля:
+     * благодаря @DynamicUpdate в UPDATE попадают только измененные колонки, а строки user_role
+     * трогаются, только если набор ролей действительно изменился.
+     * Пароль хэшируется, только если пришел новый пароль, а не уже сохраненный хэш;
+     * хэширование выполняется до открытия транзакции, чтобы не держать соединение с базой во время BCrypt.
+     * Если запись одновременно изменил кто-то другой, обновление не выполняется.
+     *
+     * @param user Пользователь с id и новыми значениями полей.
+     * @return false, если пользователь с таким id не найден, новое имя/email уже заняты или запись изменена параллельно.
+     */
     @Override
     public boolean updateUser(User user) {
-        if (user.getUsername().equals("") | user.getPassword().equals("")) {
+        try {
+            return updateUser(user, null);
+        } catch (OptimisticLockingFailureException e) {
+            return false;
+        }
+    }
+
+    /**
+     * То же, что updateUser(User), но с проверкой версии записи (If-Match в JSON API).
+     * Несовпадение версии обнаруживается одним запросом до хэширования пароля и открытия транзакции;
+     * изменение, успевшее пройти между проверкой и записью, отсекает @Version при UPDATE.
+     *
+     * @param expectedVersion Ожидаемая версия записи или null, если версию проверять не нужно.
+     * @throws OptimisticLockingFailureException если версия записи отличается от ожидаемой.
+     */
+    @Override
+    public boolean updateUser(User user, Long expectedVersion) {
+        if (expectedVersion != null) {
+            Long currentVersion = userRepository.findVersionById(user.getId());
+            if (currentVersion == null) {
+                return false;
+            }
+            checkVersion(user.getId(), currentVersion, expectedVersion);
+        }
+        String newPasswordHash = null;
+        if (StringUtils.hasText(user.getPassword())) {
+            String storedHash = userRepository.findPasswordById(user.getId());
+            if (storedHash == null) {
+                return false;
+            }
+            if (!user.getPassword().equals(storedHash)) {
+                newPasswordHash = passwordHashingService.encode(user.getPassword());
+            }
+        }
+        String passwordHash = newPasswordHash;
+        try {
+            Boolean updated = transactionTemplate.execute(status -> {
+                User persisted = userRepository.findById(user.getId()).orElse(null);
+                if (persisted == null) {
+                    return false;
+                }
+                if (expectedVersion != null) {
+                    checkVersion(persisted.getId(), persisted.getVersion(), expectedVersion);
+                }
+                List<String> changed = applyChanges(persisted, user, passwordHash);
+                if (!changed.isEmpty()) {
+                    eventPublisher.publishEvent(new UserChangedEvent(UserChangedEvent.Type.UPDATED,
+                            persisted.getId(), persisted.getUsername(), String.join(",", changed)));
+                }
+                return true;
+            });
+            return Boolean.TRUE.equals(updated);
+        } catch (DataIntegrityViolationException e) {
+            // Новое имя или email уже заняты другим пользователем
             return false;
         }
-        user.setPassword(new BCryptPasswordEncoder().encode(user.getPassword()));
-        userRepository.save(user);
+    }
+
+    private static void checkVersion(long id, long currentVersion, long expectedVersion) {
+        if (currentVersion != expectedVersion) {
+            throw new OptimisticLockingFailureException(
+                    "User " + id + " has version " + currentVersion + ", expected " + expectedVersion);
+        }
+    }
+
+    @Override
+    public Long findVersionById(long id) {
+        return userRepository.findVersionById(id);
+    }
+
+    // Возвращает имена измененных полей (для журнала аудита), пустой список - если ничего не изменилось
+    private List<String> applyChanges(User persisted, User incoming, String passwordHash) {
+        List<String> changed = new ArrayList<>();
+        if (StringUtils.hasText(incoming.getFirstName()) && !incoming.getFirstName().equals(persisted.getFirstName())) {
+            persisted.setFirstName(incoming.getFirstName());
+            changed.add("firstName");
+        }
+        if (StringUtils.hasText(incoming.getLastName()) && !incoming.getLastName().equals(persisted.getLastName())) {
+            persisted.setLastName(incoming.getLastName());
+            changed.add("lastName");
+        }
+        if (StringUtils.hasText(incoming.getEmail()) && !incoming.getEmail().equals(persisted.getEmail())) {
+            persisted.setEmail(incoming.getEmail());
+            changed.add("email");
+        }
+        if (incoming.getGender() != null && incoming.getGender() != persisted.getGender()) {
+            persisted.setGender(incoming.getGender());
+            changed.add("gender");
+        }
+        if (passwordHash != null) {
+            persisted.setPassword(passwordHash);
+            changed.add("password");
+        }
+        if (incoming.getRole() != null && changeRoles(persisted.getRole(), incoming.getRole())) {
+            changed.add("roles");
+        }
+        return changed;
+    }
+
+    // Меняем коллекцию на месте, а не заменяем: так Hibernate удалит и вставит только отличающиеся строки user_role
+    private static boolean changeRoles(Set<Role> current, Set<Role> target) {
+        Set<Long> currentIds = current.stream().map(Role::getId).collect(Collectors.toSet());
+        Set<Long> targetIds = target.stream().map(Role::getId).collect(Collectors.toSet());
+        if (currentIds.equals(targetIds)) {
+            return false;
+        }
+        current.removeIf(role -> !targetIds.contains(role.getId()));
+        for (Role role : target) {
+            if (!currentIds.contains(role.getId())) {
+                current.add(role);
+            }
+        }
         return true;
     }
 
     @Override
     public Long getUsernameByName(String name) {
-        User user = userRepository.findByFirstName(name);
+        User user = userRepository.findByUsernameKey(User.normalize(name));
         return user.getId();
     }
 
@@ -148,11 +353,19 @@ public class UserServiceImpl implements UserDetailsService, UserService {
         return user;
     }
 
-    @PostConstruct
+    /**
+     * Создает роли и тестовых пользователей, если их еще нет. Повторный вызов ничего не меняет.
+     * Вызывается не при создании бина, а задачей DataSeeder, которую в prod запускают отдельно.
+     */
     @Override
     public void addTestUsers() {
-        roleRepository.save(new Role("ROLE_ADMIN", 1L));
-        roleRepository.save(new Role("ROLE_USER", 2L));
+        try {
+            userRepository.backfillKeys();
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Existing users have names or emails that differ only by case, login keys were not filled", e);
+        }
+        roleService.saveRole(new Role("ROLE_ADMIN", 1L));
+        roleService.saveRole(new Role("ROLE_USER", 2L));
         User newAdmin = new User(
                 "admin", "test", "admin@gmail.com", "admin111",
                 Gender.PREFER_NOT_TO_SAY, roleService.getRoleByName(new String[]{"ROLE_ADMIN"}));
@@ -160,6 +373,6 @@ public class UserServiceImpl implements UserDetailsService, UserService {
         User newUser = new User("user",
                 "userLastName", "user@gmail.com", "user111",
                 Gender.MALE, roleService.getRoleByName(new String[]{"ROLE_USER"}));
-        saveUser(newUser);
+        saveUserTest(newUser);
     }
 }
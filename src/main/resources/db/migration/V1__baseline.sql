@@ -0,0 +1,53 @@
+-- Схема на момент перехода с ddl-auto на миграции: совпадает с тем, что создавал Hibernate по сущностям.
+
+create table role
+(
+    role_id bigint generated by default as identity primary key,
+    name    varchar(255)
+);
+
+create table user_with_role
+(
+    user_id      bigint generated by default as identity primary key,
+    first_name   varchar(255),
+    last_name    varchar(255),
+    email        varchar(255),
+    username_key varchar(255),
+    email_key    varchar(255),
+    password     varchar(255),
+    gender       varchar(255),
+    version      bigint default 0 not null,
+    constraint uk_user_username_key unique (username_key),
+    constraint uk_user_email_key unique (email_key)
+);
+
+create table user_role
+(
+    user_id bigint not null,
+    role_id bigint not null,
+    primary key (user_id, role_id),
+    constraint fk_user_role_user foreign key (user_id) references user_with_role (user_id),
+    constraint fk_user_role_role foreign key (role_id) references role (role_id)
+);
+
+create table user_read_model
+(
+    user_id      bigint not null primary key,
+    first_name   varchar(255),
+    last_name    varchar(255),
+    email        varchar(255),
+    gender       varchar(255),
+    username_key varchar(255),
+    email_key    varchar(255),
+    password     varchar(255),
+    version      bigint not null,
+    role_names   varchar(1000)
+);
+
+create index ix_user_read_model_username_key on user_read_model (username_key);
+create index ix_user_read_model_email_key on user_read_model (email_key);
+
+-- Роли - справочные данные, нужны любому экземпляру приложения еще до сидирования
+insert into role (role_id, name) values (1, 'ROLE_ADMIN');
+insert into role (role_id, name) values (2, 'ROLE_USER');
+alter table role alter column role_id restart with 3;
@@ -0,0 +1,15 @@
+-- Журнал аудита изменений пользователей и ролей, только добавление (см. AuditLog)
+
+create table audit_log
+(
+    id         bigint generated by default as identity primary key,
+    created_at timestamp     not null,
+    actor      varchar(100),
+    action     varchar(20)   not null,
+    user_id    bigint        not null,
+    username   varchar(255),
+    details    varchar(1000)
+);
+
+create index ix_audit_log_user_id on audit_log (user_id, id);
+create index ix_audit_log_actor on audit_log (actor, id);
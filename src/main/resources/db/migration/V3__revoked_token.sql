@@ -0,0 +1,9 @@
+-- Отозванные refresh-токены, общие для всех узлов (см. TokenRevocationList)
+
+create table revoked_token
+(
+    id         varchar(36) primary key,
+    expires_at bigint      not null
+);
+
+create index ix_revoked_token_expires_at on revoked_token (expires_at);
@@ -0,0 +1,4 @@
+-- Журнал аудита пишет и сохранение ролей: у таких записей user_id пуст, а заполнен role_id
+
+alter table audit_log alter column user_id drop not null;
+alter table audit_log add column role_id bigint;
@@ -0,0 +1,103 @@
+package ru.itmentor.spring.boot_security.demo.benchmark;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import ru.itmentor.spring.boot_security.demo.SpringBootSecurityDemoApplication;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.service.UserReadModel;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Поднимает приложение на встроенной H2 и заполняет его заданным числом пользователей.
+ * Все сгенерированные пользователи имеют пароль PASSWORD и роль ROLE_USER.
+ */
+public final class BenchmarkApplication {
+
+    public static final String PASSWORD = "password";
+
+    private static final int SEED_BATCH = 10_000;
+    private static final Gender[] GENDERS = Gender.values();
+
+    private BenchmarkApplication() {
+    }
+
+    public static ConfigurableApplicationContext start(int users) {
+        ConfigurableApplicationContext context = run("--spring.jpa.hibernate.ddl-auto=create-drop");
+        seed(context.getBean(JdbcTemplate.class), 0, users);
+        // Сидирование идет мимо сервисов, поэтому read-модель пересобирается явно
+        context.getBean(UserReadModel.class).rebuild();
+        return context;
+    }
+
+    /**
+     * Поднимает приложение на пустой H2 без заполнения пользователями.
+     * Свойства передаются аргументами командной строки: они, в отличие от default properties,
+     * приоритетнее application.properties и профилей.
+     *
+     * @param args Дополнительные аргументы, например --spring.profiles.active=prod.
+     */
+    public static ConfigurableApplicationContext run(String... args) {
+        String[] common = {
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:bench;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.r2dbc.url=r2dbc:h2:mem:///bench;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                "--spring.r2dbc.username=sa",
+                "--spring.r2dbc.password=",
+                "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                "--spring.jpa.properties.hibernate.show_sql=false",
+                "--logging.level.root=WARN"};
+        String[] all = Arrays.copyOf(common, common.length + args.length);
+        System.arraycopy(args, 0, all, common.length, args.length);
+        return new SpringApplicationBuilder(SpringBootSecurityDemoApplication.class).run(all);
+    }
+
+    public static String username(int index) {
+        return "bench" + index;
+    }
+
+    /**
+     * Добавляет пользователей с номерами от from (включительно) до to напрямую в таблицы, минуя сервисы и кэши.
+     */
+    public static void seed(JdbcTemplate jdbcTemplate, int from, int to) {
+        // Один хэш на всех: сидирование миллиона пользователей не должно тратить время на BCrypt
+        String passwordHash = new BCryptPasswordEncoder().encode(PASSWORD);
+        for (int batchFrom = from; batchFrom < to; batchFrom += SEED_BATCH) {
+            int start = batchFrom;
+            int size = Math.min(SEED_BATCH, to - batchFrom);
+            jdbcTemplate.batchUpdate(
+                    "insert into user_with_role (first_name, last_name, email, password, gender, username_key, email_key) " +
+                            "values (?, ?, ?, ?, ?, ?, ?)",
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            int index = start + i;
+                            ps.setString(1, username(index));
+                            ps.setString(2, "Last" + index);
+                            ps.setString(3, username(index) + "@example.com");
+                            ps.setString(4, passwordHash);
+                            ps.setString(5, GENDERS[index % GENDERS.length].name());
+                            ps.setString(6, username(index));
+                            ps.setString(7, username(index) + "@example.com");
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return size;
+                        }
+                    });
+        }
+        jdbcTemplate.update("insert into user_role (user_id, role_id) " +
+                "select u.user_id, r.role_id from user_with_role u, role r " +
+                "where r.name = 'ROLE_USER' and u.first_name like 'bench%' " +
+                "and not exists (select 1 from user_role ur where ur.user_id = u.user_id)");
+    }
+}
@@ -0,0 +1,90 @@
+package ru.itmentor.spring.boot_security.demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import ru.itmentor.spring.boot_security.demo.configs.SuccessUserHandler;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.repository.RoleRepository;
+import ru.itmentor.spring.boot_security.demo.security.AuthorityMasks;
+import ru.itmentor.spring.boot_security.demo.security.MaskedAuthenticationToken;
+import ru.itmentor.spring.boot_security.demo.service.RoleServiceImpl;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор полномочий в SuccessUserHandler после успешного логина:
+ * maskedAdminRedirect - маска из MaskedAuthenticationToken, остальные - вычисление маски по строкам ролей.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SuccessUserHandlerBenchmark {
+
+    private SuccessUserHandler handler;
+    private MockHttpServletRequest request;
+    private Authentication admin;
+    private Authentication user;
+    private Authentication maskedAdmin;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Role adminRole = new Role("ROLE_ADMIN", 1L);
+        Role userRole = new Role("ROLE_USER", 2L);
+        List<Role> roles = Arrays.asList(adminRole, userRole);
+        // Реестру ролей нужен только findAll, остальной репозиторий в бенчмарке не используется
+        RoleRepository roleRepository = (RoleRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RoleRepository.class},
+                (proxy, method, args) -> "findAll".equals(method.getName()) ? roles : null);
+        RoleServiceImpl roleService = new RoleServiceImpl(roleRepository, event -> { });
+        roleService.refresh();
+        AuthorityMasks authorityMasks = new AuthorityMasks(roleService);
+
+        handler = new SuccessUserHandler(authorityMasks);
+        request = new MockHttpServletRequest("POST", "/login");
+        admin = new UsernamePasswordAuthenticationToken("admin", null, Arrays.asList(userRole, adminRole));
+        user = new UsernamePasswordAuthenticationToken("user", null, Collections.singletonList(userRole));
+        maskedAdmin = new MaskedAuthenticationToken("admin", null, admin.getAuthorities(), roleService.getRegistry());
+    }
+
+    @Benchmark
+    public String adminRedirect() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        handler.onAuthenticationSuccess(request, response, admin);
+        return response.getRedirectedUrl();
+    }
+
+    @Benchmark
+    public String maskedAdminRedirect() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        handler.onAuthenticationSuccess(request, response, maskedAdmin);
+        return response.getRedirectedUrl();
+    }
+
+    @Benchmark
+    public String userRedirect() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        handler.onAuthenticationSuccess(request, response, user);
+        return response.getRedirectedUrl();
+    }
+}
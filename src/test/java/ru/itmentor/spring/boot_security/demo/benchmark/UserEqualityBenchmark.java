@@ -0,0 +1,74 @@
+package ru.itmentor.spring.boot_security.demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User.equals/hashCode на больших множествах пользователей, без базы данных.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserEqualityBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    private User[] all;
+    private Set<User> set;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Set<Role> roles = Collections.singleton(new Role("ROLE_USER", 2L));
+        Gender[] genders = Gender.values();
+        all = new User[users];
+        for (int i = 0; i < users; i++) {
+            User user = new User(BenchmarkApplication.username(i), "Last" + i, "bench" + i + "@example.com",
+                    "$2a$10$abcdefghijklmnopqrstuv" + i, genders[i % genders.length], roles);
+            user.setId(i + 1);
+            all[i] = user;
+        }
+        set = new HashSet<>(users * 2);
+        Collections.addAll(set, all);
+    }
+
+    @Benchmark
+    public int hashCodeOfRandomUser() {
+        return all[ThreadLocalRandom.current().nextInt(users)].hashCode();
+    }
+
+    @Benchmark
+    public boolean containsRandomUser() {
+        return set.contains(all[ThreadLocalRandom.current().nextInt(users)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Set<User> buildSet() {
+        Set<User> result = new HashSet<>(users * 2);
+        Collections.addAll(result, all);
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+package ru.itmentor.spring.boot_security.demo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.core.userdetails.UserDetails;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.service.RoleServiceImpl;
+import ru.itmentor.spring.boot_security.demo.service.UserServiceImpl;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Горячие пути UserServiceImpl и RoleServiceImpl на базе с users пользователями.
+ * saveUser и updateUserWithNewPassword включают стоимость BCrypt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class UserServiceBenchmark {
+
+    private static final String[] ROLE_NAMES = {"ROLE_ADMIN", "ROLE_USER"};
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    private ConfigurableApplicationContext context;
+    private UserServiceImpl userService;
+    private RoleServiceImpl roleService;
+    private Set<Role> userRoles;
+    private long firstSeededId;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkApplication.start(users);
+        userService = context.getBean(UserServiceImpl.class);
+        roleService = context.getBean(RoleServiceImpl.class);
+        userRoles = roleService.getRoleByName(new String[]{"ROLE_USER"});
+        firstSeededId = userService.findUserByUsername(BenchmarkApplication.username(0)).getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public UserDetails loadUserByUsername() {
+        return userService.loadUserByUsername(randomUsername());
+    }
+
+    @Benchmark
+    public User findUserByUsernameCached() {
+        return userService.findUserByUsername(randomUsername());
+    }
+
+    @Benchmark
+    public Set<Role> getRoleByName() {
+        return roleService.getRoleByName(ROLE_NAMES);
+    }
+
+    @Benchmark
+    public boolean saveUser() {
+        long n = sequence.incrementAndGet();
+        return userService.saveUser(new User("new" + n, "Benchmark", "new" + n + "@example.com",
+                BenchmarkApplication.PASSWORD, Gender.MALE, userRoles));
+    }
+
+    @Benchmark
+    public boolean updateUserWithoutPasswordChange() {
+        User user = new User();
+        user.setId(randomId());
+        user.setLastName("Last" + sequence.incrementAndGet());
+        return userService.updateUser(user);
+    }
+
+    @Benchmark
+    public boolean updateUserWithNewPassword() {
+        User user = new User();
+        user.setId(randomId());
+        user.setPassword("password" + sequence.incrementAndGet());
+        return userService.updateUser(user);
+    }
+
+    private String randomUsername() {
+        return BenchmarkApplication.username(ThreadLocalRandom.current().nextInt(users));
+    }
+
+    private long randomId() {
+        return firstSeededId + ThreadLocalRandom.current().nextInt(users);
+    }
+}
@@ -0,0 +1,112 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Маршрутизация на двух встроенных H2: в каждой базе таблица node с ее именем и отставанием.
+ */
+class ReplicaRoutingDataSourceTests {
+
+    private static final String WHO = "select name from node";
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private ReplicaRoutingDataSource routing;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnly;
+    private TransactionTemplate readWrite;
+
+    @BeforeEach
+    void setUp() {
+        DataSource primaryDataSource = h2("primary");
+        DataSource replicaDataSource = h2("replica");
+        primary = new JdbcTemplate(primaryDataSource);
+        replica = new JdbcTemplate(replicaDataSource);
+        routing = new ReplicaRoutingDataSource(primaryDataSource, Map.of("replica-1", replicaDataSource),
+                "select lag from node", Duration.ofSeconds(5), new SimpleMeterRegistry());
+        routing.afterPropertiesSet();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routing);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        readWrite = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        readOnly = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        readOnly.setReadOnly(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        routing.close();
+        primary.execute("drop table node");
+        replica.execute("drop table node");
+    }
+
+    @Test
+    void readOnlyTransactionsGoToHealthyReplica() {
+        routing.check();
+
+        assertEquals("replica", readOnly.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+        assertEquals("primary", readWrite.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+        assertEquals("primary", jdbcTemplate.queryForObject(WHO, String.class));
+    }
+
+    @Test
+    void readsGoToPrimaryUntilFirstCheck() {
+        assertEquals("primary", readOnly.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+    }
+
+    @Test
+    void laggingReplicaIsSkipped() {
+        replica.update("update node set lag = 10");
+        routing.check();
+
+        assertEquals("primary", readOnly.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+
+        replica.update("update node set lag = 1");
+        routing.check();
+
+        assertEquals("replica", readOnly.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+    }
+
+    @Test
+    void unavailableReplicaIsSkipped() {
+        replica.execute("drop table node");
+        routing.check();
+        replica.execute("create table node (name varchar(20), lag double)");
+        replica.update("insert into node values ('replica', 0)");
+
+        assertEquals("primary", readOnly.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+    }
+
+    @Test
+    void pinnedThreadReadsFromPrimary() {
+        routing.check();
+
+        String node = ReadYourWrites.onPrimary(() ->
+                readOnly.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+
+        assertEquals("primary", node);
+        assertEquals("replica", readOnly.execute(status -> jdbcTemplate.queryForObject(WHO, String.class)));
+    }
+
+    private static DataSource h2(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table node (name varchar(20), lag double)");
+        jdbcTemplate.update("insert into node values (?, 0)", name);
+        return dataSource;
+    }
+}
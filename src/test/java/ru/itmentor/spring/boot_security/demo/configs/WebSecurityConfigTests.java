@@ -0,0 +1,113 @@
+package ru.itmentor.spring.boot_security.demo.configs;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestBuilders.formLogin;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.response.SecurityMockMvcResultMatchers.unauthenticated;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrlPattern;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Вход через форму и правила доступа по маске ролей на встроенной H2.
+ * Пользователи admin (ROLE_ADMIN) и user (ROLE_USER) создает DataSeeder при старте; сессии получаются
+ * настоящим входом, поэтому проверяется MaskedAuthenticationToken, а не подставленная аутентификация.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:security;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///security;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN"})
+@AutoConfigureMockMvc
+class WebSecurityConfigTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void loginPageIsPublic() throws Exception {
+        mockMvc.perform(get("/login"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void adminLoginRedirectsToAdminPage() throws Exception {
+        mockMvc.perform(formLogin().user("admin").password("admin111"))
+                .andExpect(redirectedUrl("/admin"));
+    }
+
+    @Test
+    void userLoginRedirectsToUserPage() throws Exception {
+        mockMvc.perform(formLogin().user("user").password("user111"))
+                .andExpect(redirectedUrl("/user"));
+    }
+
+    @Test
+    void wrongPasswordReturnsToLogin() throws Exception {
+        mockMvc.perform(formLogin().user("admin").password("wrong-password"))
+                .andExpect(redirectedUrl("/login?error"))
+                .andExpect(unauthenticated());
+    }
+
+    @Test
+    void adminReachesAdminAndUserPages() throws Exception {
+        MockHttpSession session = login("admin", "admin111");
+
+        mockMvc.perform(get("/admin").session(session))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/user").session(session))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void userIsForbiddenFromAdminPages() throws Exception {
+        MockHttpSession session = login("user", "user111");
+
+        mockMvc.perform(get("/user").session(session))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/admin").session(session))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/admin/audit").session(session))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void anonymousIsRedirectedToLogin() throws Exception {
+        mockMvc.perform(get("/admin"))
+                .andExpect(redirectedUrlPattern("**/login"));
+        mockMvc.perform(get("/user"))
+                .andExpect(redirectedUrlPattern("**/login"));
+    }
+
+    @Test
+    void logoutRedirectsToLogin() throws Exception {
+        MockHttpSession session = login("user", "user111");
+
+        mockMvc.perform(post("/logout").session(session).with(csrf()))
+                .andExpect(redirectedUrl("/login?logout"))
+                .andExpect(unauthenticated());
+        assertTrue(session.isInvalid());
+    }
+
+    private MockHttpSession login(String username, String password) throws Exception {
+        return (MockHttpSession) mockMvc.perform(formLogin().user(username).password(password))
+                .andExpect(status().is3xxRedirection())
+                .andReturn().getRequest().getSession(false);
+    }
+}
@@ -0,0 +1,375 @@
+package ru.itmentor.spring.boot_security.demo.controllers;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import ru.itmentor.spring.boot_security.demo.benchmark.BenchmarkApplication;
+import ru.itmentor.spring.boot_security.demo.configs.HibernateRequestCounters;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.service.UserReadModel;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Бюджет запросов к базе и аллокаций для endpoint-ов AdminController и UserController на встроенной H2.
+ * <p>
+ * Каждый endpoint прогревается, затем выполняется несколько раз; для каждого размера данных считаются
+ * SQL-запросы (JDBC-операторы, подготовленные потоком запроса, включая JdbcTemplate), загрузки сущностей
+ * и коллекций Hibernate и байты, выделенные потоком запроса. Превышение записанного бюджета в
+ * src/test/resources/endpoint-budgets.properties роняет сборку: так возвращение N+1 или лишних чтений
+ * видно сразу, а рост запросов с числом пользователей - по разнице между размерами данных.
+ * <p>
+ * Бюджеты записываются прогоном с -Dbudget.record=true в target/endpoint-budgets.properties. Отсутствие бюджета
+ * для endpoint-а - такая же ошибка, как превышение: новый endpoint нужно добавить в файл вместе с кодом.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:budget;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///budget;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN"})
+@AutoConfigureMockMvc
+class EndpointBudgetTests {
+
+    private static final String BUDGETS = "/endpoint-budgets.properties";
+    private static final Path RECORDED = Paths.get("target", "endpoint-budgets.properties");
+    private static final boolean RECORD = Boolean.getBoolean("budget.record");
+    private static final double ALLOCATION_TOLERANCE =
+            Double.parseDouble(System.getProperty("budget.allocation-tolerance", "0.25"));
+
+    private static final int WARMUP = 3;
+    private static final int MEASURED = 5;
+
+    // Аутентификация подставляется MockMvc, поэтому администратором может быть любой сгенерированный пользователь
+    private static final String ADMIN = BenchmarkApplication.username(1);
+    private static final String USER = BenchmarkApplication.username(0);
+
+    private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Контекст (и база) общий для всех размеров данных, поэтому состояние между вызовами теста статическое
+    private static int seeded;
+    private static final AtomicInteger sequence = new AtomicInteger();
+    private static final Properties recorded = new Properties();
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private UserReadModel userReadModel;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @ParameterizedTest(name = "{0} users")
+    @ValueSource(ints = {100, 2000})
+    void endpointsStayWithinBudget(int users) throws Exception {
+        seedTo(users);
+        Properties budgets = loadBudgets();
+        List<String> violations = new ArrayList<>();
+        for (Endpoint endpoint : endpoints()) {
+            Usage usage = measure(endpoint);
+            String prefix = endpoint.name + "." + users + ".";
+            if (RECORD) {
+                usage.writeTo(prefix, recorded);
+                continue;
+            }
+            usage.check(prefix, budgets, violations);
+        }
+        if (RECORD) {
+            writeRecorded(budgets);
+            return;
+        }
+        assertTrue(violations.isEmpty(), "Budget exceeded at " + users + " users:\n" + String.join("\n", violations));
+    }
+
+    private List<Endpoint> endpoints() {
+        long adminTarget = idOf(ADMIN);
+        long userId = idOf(USER);
+        return Arrays.asList(
+                new Endpoint("admin.list", status().isOk(), () -> asAdmin(get("/admin"))),
+                new Endpoint("admin.table", status().isOk(), () -> asAdmin(get("/admin/users/table"))),
+                new Endpoint("admin.save-form", status().isOk(), () -> asAdmin(get("/admin/user-save"))),
+                new Endpoint("admin.save", status().is3xxRedirection(), () -> {
+                    String name = "budget" + sequence.incrementAndGet();
+                    return asAdmin(post("/admin/user-save")
+                            .param("firstName", name)
+                            .param("lastName", "Budget")
+                            .param("email", name + "@example.com")
+                            .param("password", BenchmarkApplication.PASSWORD)
+                            .param("gender", "MALE"));
+                }),
+                new Endpoint("admin.update-form", status().isOk(),
+                        () -> asAdmin(get("/admin/user-update/{id}", adminTarget))),
+                new Endpoint("admin.update", status().is3xxRedirection(), () -> asAdmin(post("/admin/user-update")
+                        .param("id", Long.toString(adminTarget))
+                        .param("firstName", ADMIN)
+                        .param("lastName", "Budget")
+                        .param("email", ADMIN + "@example.com")
+                        .param("gender", "MALE")
+                        .param("nameRole", "ROLE_USER"))),
+                new Endpoint("admin.patch", status().is3xxRedirection(), () -> asAdmin(patch("/admin/user-update")
+                        .param("id", Long.toString(adminTarget))
+                        .param("lastName", "Patched"))),
+                new Endpoint("admin.delete", status().is3xxRedirection(),
+                        () -> asAdmin(delete("/admin/user-delete/{id}", insertUser()))),
+                new Endpoint("admin.search", status().isOk(),
+                        () -> asAdmin(get("/admin/users/search").param("q", "bench1"))),
+                new Endpoint("admin.audit", status().isOk(), () -> asAdmin(get("/admin/audit"))),
+                new Endpoint("user.profile", status().isOk(), () -> asUser(get("/user"))),
+                new Endpoint("user.update-form", status().isOk(),
+                        () -> asUser(get("/user/user-update/{id}", userId))),
+                new Endpoint("user.update", status().is3xxRedirection(), () -> asUser(post("/user/user-update")
+                        .param("id", Long.toString(userId))
+                        .param("firstName", USER)
+                        .param("lastName", "Budget")
+                        .param("email", USER + "@example.com")
+                        .param("gender", "MALE"))),
+                new Endpoint("user.patch", status().is3xxRedirection(),
+                        () -> asUser(patch("/user/user-update").param("lastName", "Patched"))));
+    }
+
+    private Usage measure(Endpoint endpoint) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            mockMvc.perform(endpoint.request.call()).andExpect(endpoint.expected);
+        }
+        Usage usage = new Usage();
+        long[] allocated = new long[MEASURED];
+        for (int i = 0; i < MEASURED; i++) {
+            // Подготовка запроса (например, вставка удаляемого пользователя) в замер не входит
+            RequestBuilder request = endpoint.request.call();
+            STATEMENTS.get()[0] = 0;
+            HibernateRequestCounters.reset();
+            long threadId = Thread.currentThread().getId();
+            long before = THREADS.getThreadAllocatedBytes(threadId);
+            mockMvc.perform(request).andExpect(endpoint.expected);
+            allocated[i] = THREADS.getThreadAllocatedBytes(threadId) - before;
+            usage.statements = Math.max(usage.statements, STATEMENTS.get()[0]);
+            usage.entityLoads = Math.max(usage.entityLoads, HibernateRequestCounters.entityLoads());
+            usage.collectionLoads = Math.max(usage.collectionLoads, HibernateRequestCounters.collectionLoads());
+        }
+        Arrays.sort(allocated);
+        usage.allocatedBytes = allocated[MEASURED / 2];
+        return usage;
+    }
+
+    private void seedTo(int users) {
+        if (users <= seeded) {
+            return;
+        }
+        BenchmarkApplication.seed(jdbcTemplate, seeded, users);
+        seeded = users;
+        // Сидирование идет мимо сервисов: read-модель и кэши пересобираются явно
+        userReadModel.rebuild();
+        eventPublisher.publishEvent(new CachesFlushEvent());
+    }
+
+    private long insertUser() {
+        String name = "budget-delete" + sequence.incrementAndGet();
+        String email = name + "@example.com";
+        jdbcTemplate.update("insert into user_with_role " +
+                "(first_name, last_name, email, password, gender, username_key, email_key) " +
+                "values (?, 'Budget', ?, '', 'MALE', ?, ?)", name, email, name, email);
+        return idOf(name);
+    }
+
+    private long idOf(String username) {
+        return jdbcTemplate.queryForObject("select user_id from user_with_role where username_key = ?",
+                Long.class, username);
+    }
+
+    private static RequestBuilder asAdmin(MockHttpServletRequestBuilder request) {
+        return request.with(user(ADMIN).roles("ADMIN")).with(csrf());
+    }
+
+    private static RequestBuilder asUser(MockHttpServletRequestBuilder request) {
+        return request.with(user(USER).roles("USER")).with(csrf());
+    }
+
+    private static Properties loadBudgets() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = EndpointBudgetTests.class.getResourceAsStream(BUDGETS)) {
+            if (in != null) {
+                budgets.load(in);
+            }
+        }
+        return budgets;
+    }
+
+    private static void writeRecorded(Properties budgets) throws IOException {
+        TreeMap<Object, Object> all = new TreeMap<>(budgets);
+        all.putAll(recorded);
+        Files.createDirectories(RECORDED.getParent());
+        try (Writer writer = Files.newBufferedWriter(RECORDED)) {
+            writer.write("# Записано EndpointBudgetTests с -Dbudget.record=true\n");
+            for (Map.Entry<Object, Object> entry : all.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    private static final class Endpoint {
+        private final String name;
+        private final ResultMatcher expected;
+        private final Callable<RequestBuilder> request;
+
+        private Endpoint(String name, ResultMatcher expected, Callable<RequestBuilder> request) {
+            this.name = name;
+            this.expected = expected;
+            this.request = request;
+        }
+    }
+
+    private static final class Usage {
+        private long statements;
+        private long entityLoads;
+        private long collectionLoads;
+        private long allocatedBytes;
+
+        private void writeTo(String prefix, Properties properties) {
+            properties.setProperty(prefix + "statements", Long.toString(statements));
+            properties.setProperty(prefix + "entityLoads", Long.toString(entityLoads));
+            properties.setProperty(prefix + "collectionLoads", Long.toString(collectionLoads));
+            properties.setProperty(prefix + "allocatedBytes", Long.toString(allocatedBytes));
+        }
+
+        private void check(String prefix, Properties budgets, List<String> violations) {
+            checkExact(prefix + "statements", statements, budgets, violations);
+            checkExact(prefix + "entityLoads", entityLoads, budgets, violations);
+            checkExact(prefix + "collectionLoads", collectionLoads, budgets, violations);
+            String key = prefix + "allocatedBytes";
+            if (!budgets.containsKey(key)) {
+                violations.add(key + ": no budget, record with -Dbudget.record=true");
+                return;
+            }
+            long budget = Long.parseLong(budgets.getProperty(key));
+            if (allocatedBytes > budget * (1 + ALLOCATION_TOLERANCE)) {
+                violations.add(prefix + "allocatedBytes: " + allocatedBytes + " > " + budget
+                        + " (+" + Math.round(ALLOCATION_TOLERANCE * 100) + "%)");
+            }
+        }
+
+        private static void checkExact(String key, long actual, Properties budgets, List<String> violations) {
+            if (!budgets.containsKey(key)) {
+                violations.add(key + ": no budget, record with -Dbudget.record=true");
+                return;
+            }
+            long budget = Long.parseLong(budgets.getProperty(key));
+            if (actual > budget) {
+                violations.add(key + ": " + actual + " > " + budget);
+            }
+        }
+    }
+
+    /**
+     * Считает JDBC-операторы, которые подготовил текущий поток. Оборачивает DataSource приложения,
+     * поэтому видит и запросы Hibernate, и JdbcTemplate (read-модель, журнал аудита).
+     * Оборачивается только он: @Primary DataSource, а без него - бин dataSource. Пулы под ним
+     * (HikariDataSource, реплики) остаются как есть, иначе один оператор считался бы дважды,
+     * а внедрение пула по типу HikariDataSource сломалось бы.
+     */
+    @TestConfiguration
+    static class StatementCountingConfig {
+
+        @Bean
+        static BeanPostProcessor statementCountingDataSource(ConfigurableListableBeanFactory beanFactory) {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource && beanName.equals(applicationDataSource(beanFactory))
+                            ? new StatementCountingDataSource((DataSource) bean) : bean;
+                }
+            };
+        }
+
+        private static String applicationDataSource(ConfigurableListableBeanFactory beanFactory) {
+            for (String name : beanFactory.getBeanNamesForType(DataSource.class, true, false)) {
+                if (beanFactory.containsBeanDefinition(name) && beanFactory.getBeanDefinition(name).isPrimary()) {
+                    return name;
+                }
+            }
+            return "dataSource";
+        }
+    }
+
+    static final class StatementCountingDataSource extends DelegatingDataSource {
+
+        StatementCountingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return counting(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return counting(super.getConnection(username, password));
+        }
+
+        private static Connection counting(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        String name = method.getName();
+                        if (name.equals("prepareStatement") || name.equals("prepareCall")
+                                || name.equals("createStatement")) {
+                            STATEMENTS.get()[0]++;
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.itmentor.spring.boot_security.demo.controllers;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Read-only API поверх R2DBC на встроенной H2: JPA и R2DBC смотрят в одну базу в памяти,
+ * данные - роли и тестовые пользователи, которые создает DataSeeder при старте.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:reactive;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///reactive;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN"})
+@AutoConfigureMockMvc
+class ReactiveReadControllerTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void userById() throws Exception {
+        long id = jdbcTemplate.queryForObject(
+                "select user_id from user_with_role where username_key = 'admin'", Long.class);
+
+        perform(get("/api/read/users/{id}", id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(id))
+                .andExpect(jsonPath("$.firstName").value("admin"))
+                .andExpect(jsonPath("$.roles", contains("ROLE_ADMIN")))
+                .andExpect(jsonPath("$.password").doesNotExist());
+    }
+
+    @Test
+    void userByUsernameIgnoresCase() throws Exception {
+        perform(get("/api/read/users/by-username/{username}", "USER"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.email").value("user@gmail.com"))
+                .andExpect(jsonPath("$.roles", contains("ROLE_USER")));
+    }
+
+    @Test
+    void missingUserIsNotFound() throws Exception {
+        perform(get("/api/read/users/{id}", Long.MAX_VALUE))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void pageStartsAfterCursor() throws Exception {
+        long first = jdbcTemplate.queryForObject("select min(user_id) from user_with_role", Long.class);
+        long second = jdbcTemplate.queryForObject(
+                "select min(user_id) from user_with_role where user_id > ?", Long.class, first);
+
+        perform(get("/api/read/users").param("after", Long.toString(first)).param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id").value(second));
+    }
+
+    @Test
+    void roles() throws Exception {
+        perform(get("/api/read/roles"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("ROLE_ADMIN", "ROLE_USER")));
+    }
+
+    @Test
+    void requiresAdmin() throws Exception {
+        mockMvc.perform(get("/api/read/roles").with(user("user").roles("USER")))
+                .andExpect(status().isForbidden());
+    }
+
+    // Mono и Flux обрабатываются асинхронно: ответ формируется во втором, асинхронном dispatch
+    private ResultActions perform(MockHttpServletRequestBuilder builder) throws Exception {
+        MvcResult started = mockMvc.perform(builder.with(user("admin").roles("ADMIN")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(started));
+    }
+}
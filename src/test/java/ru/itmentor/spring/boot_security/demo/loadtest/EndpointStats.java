@@ -0,0 +1,86 @@
+package ru.itmentor.spring.boot_security.demo.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Задержки одной операции нагрузочного теста в микросекундах.
+ * <p>
+ * responseTime отсчитывается от момента, когда запрос должен был уйти по расписанию, а не от фактической
+ * отправки: если приложение или сам harness не успевают, ожидание в очереди попадает в задержку
+ * (поправка на coordinated omission). serviceTime - время самого запроса, для сравнения.
+ */
+final class EndpointStats {
+
+    private final String name;
+    private final Recorder responseTime = new Recorder(3);
+    private final Recorder serviceTime = new Recorder(3);
+    private final LongAdder errors = new LongAdder();
+
+    private Histogram responseHistogram;
+    private Histogram serviceHistogram;
+    private long errorCount;
+
+    EndpointStats(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void record(long intendedNanos, long startNanos, long endNanos, boolean ok) {
+        responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(endNanos - intendedNanos));
+        serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos));
+        if (!ok) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Фиксирует накопленные значения для отчета.
+     */
+    void snapshot() {
+        responseHistogram = responseTime.getIntervalHistogram();
+        serviceHistogram = serviceTime.getIntervalHistogram();
+        errorCount = errors.sum();
+    }
+
+    static void printHeader(PrintStream out) {
+        out.printf("%-8s %9s %7s %9s | %-44s | %-26s%n", "", "", "", "",
+                "response time, ms (from intended start)", "service time, ms");
+        out.printf("%-8s %9s %7s %9s | %8s %8s %8s %8s %8s | %8s %8s %8s%n", "endpoint", "count", "errors",
+                "req/s", "p50", "p90", "p99", "p99.9", "max", "p50", "p99", "max");
+    }
+
+    void print(PrintStream out, double seconds) {
+        Histogram r = responseHistogram;
+        Histogram s = serviceHistogram;
+        out.printf("%-8s %9d %7d %9.1f | %8.1f %8.1f %8.1f %8.1f %8.1f | %8.1f %8.1f %8.1f%n",
+                name, r.getTotalCount(), errorCount, r.getTotalCount() / seconds,
+                ms(r.getValueAtPercentile(50)), ms(r.getValueAtPercentile(90)), ms(r.getValueAtPercentile(99)),
+                ms(r.getValueAtPercentile(99.9)), ms(r.getMaxValue()),
+                ms(s.getValueAtPercentile(50)), ms(s.getValueAtPercentile(99)), ms(s.getMaxValue()));
+    }
+
+    /**
+     * Пишет полное распределение времени ответа в формате .hgrm (значения в миллисекундах).
+     */
+    void writeDistribution(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(name + ".hgrm")))) {
+            responseHistogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static double ms(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,116 @@
+package ru.itmentor.spring.boot_security.demo.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Сессия браузера против запущенного приложения: cookie JSESSIONID и CSRF-токен из последней полученной страницы.
+ * Клиент общий для всех сессий и не ходит по редиректам, поэтому cookie и токен хранятся здесь вручную.
+ * Одну вошедшую сессию могут одновременно использовать несколько потоков, как несколько вкладок браузера.
+ */
+final class LoadSession {
+
+    private static final Pattern CSRF = Pattern.compile("name=\"_csrf\"[^>]*value=\"([^\"]+)\"");
+    private static final Pattern SESSION_COOKIE = Pattern.compile("JSESSIONID=([^;]+)");
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final Duration timeout;
+
+    private volatile String sessionId;
+    private volatile String csrfToken;
+
+    LoadSession(HttpClient client, URI baseUri, Duration timeout) {
+        this.client = client;
+        this.baseUri = baseUri;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Вход через форму: страница логина (cookie и CSRF-токен), затем POST /login.
+     * Ответ 429 от LoginThrottle повторяется через Retry-After секунд, но не больше retries раз.
+     *
+     * @return true, если приложение перенаправило не на страницу ошибки входа.
+     */
+    boolean login(String username, String password, int retries) throws IOException, InterruptedException {
+        HttpResponse<String> page = get("/login");
+        if (page.statusCode() != 200) {
+            return false;
+        }
+        HttpResponse<String> response = postForm("/login", "username", username, "password", password);
+        for (int attempt = 0; response.statusCode() == 429 && attempt < retries; attempt++) {
+            long seconds = response.headers().firstValue("Retry-After").map(Long::parseLong).orElse(1L);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(Math.max(1, seconds)));
+            response = postForm("/login", "username", username, "password", password);
+        }
+        Optional<String> location = response.headers().firstValue("Location");
+        return response.statusCode() == 302 && location.isPresent() && !location.get().contains("error");
+    }
+
+    HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return send(request(path).GET().build());
+    }
+
+    /**
+     * POST формы с CSRF-токеном сессии.
+     *
+     * @param fields Пары имя-значение.
+     */
+    HttpResponse<String> postForm(String path, String... fields) throws IOException, InterruptedException {
+        StringJoiner body = new StringJoiner("&");
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            body.add(encode(fields[i]) + "=" + encode(fields[i + 1]));
+        }
+        if (csrfToken != null) {
+            body.add("_csrf=" + encode(csrfToken));
+        }
+        return send(request(path)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(path)).timeout(timeout);
+        if (sessionId != null) {
+            builder.header("Cookie", "JSESSIONID=" + sessionId);
+        }
+        return builder;
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        // После входа Spring Security меняет id сессии и CSRF-токен
+        List<String> cookies = response.headers().allValues("Set-Cookie");
+        for (String cookie : cookies) {
+            Matcher matcher = SESSION_COOKIE.matcher(cookie);
+            if (matcher.find()) {
+                sessionId = matcher.group(1);
+            }
+        }
+        String body = response.body();
+        if (body != null && body.contains("_csrf")) {
+            Matcher matcher = CSRF.matcher(body);
+            if (matcher.find()) {
+                csrfToken = matcher.group(1);
+            }
+        }
+        return response;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
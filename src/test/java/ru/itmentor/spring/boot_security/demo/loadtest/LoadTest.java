@@ -0,0 +1,268 @@
+package ru.itmentor.spring.boot_security.demo.loadtest;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузочный тест запущенного приложения (открытая модель нагрузки).
+ * <p>
+ * При необходимости дописывает в базу синтетических пользователей (SyntheticUsers), входит под частью из них
+ * и с постоянной частотой rate запускает операции из смеси mix: вход через форму (login), просмотр /user (user),
+ * список /admin (admin) и изменение пользователя администратором (update). Время отправки каждого запроса
+ * задано расписанием, и задержка считается от него, поэтому очередь перед перегруженным приложением видна
+ * в перцентилях, а не скрывается уменьшением частоты (coordinated omission).
+ * <p>
+ * Приложение под нагрузкой запускается с --app.login-throttle.enabled=false: все сессии входят с одного адреса,
+ * и LoginThrottle (20 попыток сразу, 60 в минуту) иначе отвечает 429. Вход сессий перед замером повторяет 429
+ * после Retry-After; операция login не повторяет, и отклоненный вход считается ошибкой.
+ * <p>
+ * Запросы, запланированные на время прогрева, в отчет не попадают. Отчет - таблица по операциям в stdout
+ * и распределения времени ответа в report-dir/*.hgrm.
+ * <p>
+ * Параметры (--имя=значение): url, jdbc-url, jdbc-username, jdbc-password, seed-users, seed-roles, rate,
+ * warmup, duration, threads, timeout, sessions, admin-sessions, mix, report-dir. С --duration=PT0S только сидирует.
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    // С включенным LoginThrottle вход дожидается освобождения лимита: при 60 попытках в минуту это секунда на попытку
+    private static final int LOGIN_RETRIES = 120;
+
+    static {
+        DEFAULTS.put("url", "http://localhost:8080");
+        DEFAULTS.put("jdbc-url", "jdbc:postgresql://localhost:5432/first_spring_db?reWriteBatchedInserts=true");
+        DEFAULTS.put("jdbc-username", "postgres");
+        DEFAULTS.put("jdbc-password", "postgres");
+        DEFAULTS.put("seed-users", "0");
+        DEFAULTS.put("seed-roles", "0");
+        DEFAULTS.put("rate", "100");
+        DEFAULTS.put("warmup", "PT10S");
+        DEFAULTS.put("duration", "PT60S");
+        DEFAULTS.put("threads", "64");
+        DEFAULTS.put("timeout", "PT10S");
+        DEFAULTS.put("sessions", "50");
+        DEFAULTS.put("admin-sessions", "5");
+        DEFAULTS.put("mix", "login=5,user=55,admin=30,update=10");
+        DEFAULTS.put("report-dir", "target/load-test");
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        boolean run(ThreadLocalRandom random) throws Exception;
+    }
+
+    private final Map<String, String> options;
+    private final HttpClient client;
+    private final URI baseUri;
+    private final Duration timeout;
+    private final List<LoadSession> userSessions = new ArrayList<>();
+    private final List<LoadSession> adminSessions = new ArrayList<>();
+    private int users;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.baseUri = URI.create(options.get("url"));
+        this.timeout = Duration.parse(options.get("timeout"));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0 || !DEFAULTS.containsKey(arg.substring(2, eq))) {
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected --name=value, names: "
+                        + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        new LoadTest(options).run();
+    }
+
+    private void run() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                options.get("jdbc-url"), options.get("jdbc-username"), options.get("jdbc-password"));
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        int seedUsers = Integer.parseInt(options.get("seed-users"));
+        if (seedUsers > 0) {
+            SyntheticUsers.seed(jdbcTemplate, seedUsers, Integer.parseInt(options.get("seed-roles")));
+        }
+        users = SyntheticUsers.count(jdbcTemplate);
+        if (users < 2) {
+            throw new IllegalStateException("No synthetic users, run with --seed-users=N first");
+        }
+        if (seedUsers > 0) {
+            // Пользователи вставлены мимо приложения: списки админки читаются из read-модели
+            LoadSession admin = adminSession();
+            admin.get("/admin");
+            admin.postForm("/admin/read-model/rebuild");
+        }
+        if (Duration.parse(options.get("duration")).isZero()) {
+            return;
+        }
+        for (int i = 0, n = Integer.parseInt(options.get("sessions")); i < n; i++) {
+            userSessions.add(login(randomUser(ThreadLocalRandom.current())));
+        }
+        for (int i = 0, n = Integer.parseInt(options.get("admin-sessions")); i < n; i++) {
+            LoadSession admin = adminSession();
+            // CSRF-токен для изменений берется со страницы админки
+            admin.get("/admin");
+            adminSessions.add(admin);
+        }
+
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("login", this::loginPage);
+        operations.put("user", random -> pick(userSessions, random).get("/user").statusCode() == 200);
+        operations.put("admin", random -> pick(adminSessions, random).get("/admin").statusCode() == 200);
+        operations.put("update", random -> pick(adminSessions, random).postForm("/admin/user-update",
+                "_method", "patch",
+                "id", Long.toString(SyntheticUsers.id(random.nextInt(users))),
+                "lastName", "Load" + random.nextInt(1000)).statusCode() == 302);
+        runSchedule(parseMix(options.get("mix"), operations));
+    }
+
+    private void runSchedule(List<MixEntry> mix) throws Exception {
+        double rate = Double.parseDouble(options.get("rate"));
+        Duration warmup = Duration.parse(options.get("warmup"));
+        Duration duration = Duration.parse(options.get("duration"));
+        int threads = Integer.parseInt(options.get("threads"));
+
+        double[] cdf = new double[mix.size()];
+        double total = 0;
+        for (int i = 0; i < cdf.length; i++) {
+            total += mix.get(i).weight;
+            cdf[i] = total;
+        }
+        // Очередь пула не ограничена: если потоков не хватает, запросы ждут в ней, и это ожидание входит в задержку
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("load-"));
+        SplittableRandom random = new SplittableRandom();
+        double periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        System.out.printf("Running %.0f req/s for %s (warm-up %s) against %s with %d synthetic users%n",
+                rate, duration, warmup, baseUri, users);
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * periodNanos);
+            if (intended >= end) {
+                break;
+            }
+            for (long now; (now = System.nanoTime()) < intended; ) {
+                LockSupport.parkNanos(intended - now);
+            }
+            double point = random.nextDouble() * total;
+            int next = 0;
+            while (next < cdf.length - 1 && point >= cdf[next]) {
+                next++;
+            }
+            MixEntry entry = mix.get(next);
+            boolean measured = intended >= measureFrom;
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = entry.operation.run(ThreadLocalRandom.current());
+                } catch (Exception e) {
+                    ok = false;
+                }
+                if (measured) {
+                    entry.stats.record(intended, started, System.nanoTime(), ok);
+                }
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout.toMillis() * 2 + 60_000, TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+
+        double seconds = duration.toNanos() / 1e9;
+        Path reportDir = Paths.get(options.get("report-dir"));
+        EndpointStats.printHeader(System.out);
+        for (MixEntry entry : mix) {
+            entry.stats.snapshot();
+            entry.stats.print(System.out, seconds);
+            entry.stats.writeDistribution(reportDir);
+        }
+        System.out.printf("Percentile distributions: %s%n", reportDir.toAbsolutePath());
+    }
+
+    private static List<MixEntry> parseMix(String mix, Map<String, Operation> operations) {
+        List<MixEntry> result = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] nameAndWeight = part.trim().split("=");
+            Operation operation = nameAndWeight.length == 2 ? operations.get(nameAndWeight[0]) : null;
+            if (operation == null) {
+                throw new IllegalArgumentException("Bad mix entry " + part + ", operations: " + operations.keySet());
+            }
+            double weight = Double.parseDouble(nameAndWeight[1]);
+            if (weight > 0) {
+                result.add(new MixEntry(new EndpointStats(nameAndWeight[0]), operation, weight));
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("Empty mix " + mix);
+        }
+        return result;
+    }
+
+    private boolean loginPage(ThreadLocalRandom random) throws Exception {
+        return new LoadSession(client, baseUri, timeout)
+                .login(SyntheticUsers.username(random.nextInt(users)), SyntheticUsers.PASSWORD, 0);
+    }
+
+    private LoadSession adminSession() throws Exception {
+        int admins = (users + SyntheticUsers.ADMIN_EVERY - 1) / SyntheticUsers.ADMIN_EVERY;
+        return login(ThreadLocalRandom.current().nextInt(admins) * SyntheticUsers.ADMIN_EVERY);
+    }
+
+    private LoadSession login(int index) throws Exception {
+        LoadSession session = new LoadSession(client, baseUri, timeout);
+        if (!session.login(SyntheticUsers.username(index), SyntheticUsers.PASSWORD, LOGIN_RETRIES)) {
+            throw new IllegalStateException("Login as " + SyntheticUsers.username(index) + " failed");
+        }
+        return session;
+    }
+
+    private int randomUser(ThreadLocalRandom random) {
+        int index = random.nextInt(users);
+        return SyntheticUsers.isAdmin(index) ? index + 1 < users ? index + 1 : index - 1 : index;
+    }
+
+    private static LoadSession pick(List<LoadSession> sessions, ThreadLocalRandom random) {
+        return sessions.get(random.nextInt(sessions.size()));
+    }
+
+    private static final class MixEntry {
+        private final EndpointStats stats;
+        private final Operation operation;
+        private final double weight;
+
+        private MixEntry(EndpointStats stats, Operation operation, double weight) {
+            this.stats = stats;
+            this.operation = operation;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ru.itmentor.spring.boot_security.demo.loadtest;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Генератор синтетических пользователей для нагрузочного теста.
+ * <p>
+ * Пользователь с номером i детерминирован: имя, фамилия, пол и почтовый домен выбираются по хэшу номера
+ * из взвешенных распределений (частые имена встречаются чаще, как в реальных данных), поэтому harness может
+ * войти под любым из них, не читая базу. Имя используется как логин и уникально, поэтому к нему добавляется номер.
+ * <p>
+ * Пользователи получают явные id начиная с ID_BASE: так роли назначаются пачками без чтения сгенерированных id,
+ * а последовательность, из которой id берет приложение, не сдвигается. Повторный запуск дописывает только
+ * недостающих пользователей. Пароль у всех PASSWORD, каждый ADMIN_EVERY-й - администратор.
+ */
+public final class SyntheticUsers {
+
+    public static final long ID_BASE = 1_000_000_000L;
+    public static final String PASSWORD = "password";
+    public static final int ADMIN_EVERY = 100;
+    public static final String GROUP_ROLE_PREFIX = "ROLE_GROUP_";
+
+    private static final int BATCH = 10_000;
+
+    private static final String[] MALE_NAMES = {"Alexander", "Dmitry", "Maxim", "Sergey", "Andrey", "Alexey",
+            "Artem", "Ilya", "Kirill", "Mikhail", "Nikita", "Ivan", "Egor", "Roman", "Pavel", "Vladimir",
+            "Denis", "Anton", "Oleg", "Igor", "John", "David", "Michael", "James", "Daniel"};
+    private static final String[] FEMALE_NAMES = {"Anastasia", "Maria", "Anna", "Daria", "Elena", "Olga",
+            "Ekaterina", "Natalia", "Polina", "Sofia", "Irina", "Tatiana", "Victoria", "Ksenia", "Alina",
+            "Yulia", "Svetlana", "Valeria", "Veronika", "Alisa", "Emma", "Olivia", "Sarah", "Laura", "Kate"};
+    private static final String[] LAST_NAMES = {"Ivanov", "Smirnov", "Kuznetsov", "Popov", "Vasiliev",
+            "Petrov", "Sokolov", "Mikhailov", "Novikov", "Fedorov", "Morozov", "Volkov", "Alekseev", "Lebedev",
+            "Semenov", "Egorov", "Pavlov", "Kozlov", "Stepanov", "Nikolaev", "Orlov", "Andreev", "Makarov",
+            "Nikitin", "Zakharov", "Smith", "Johnson", "Brown", "Miller", "Wilson"};
+    private static final String[] DOMAINS = {"gmail.com", "yandex.ru", "mail.ru", "outlook.com", "icloud.com",
+            "company.example"};
+    private static final int[] DOMAIN_WEIGHTS = {35, 20, 20, 10, 5, 10};
+    private static final Gender[] GENDERS = {Gender.MALE, Gender.FEMALE, Gender.NON_BINARY, Gender.AGENDER,
+            Gender.PREFER_NOT_TO_SAY};
+    private static final int[] GENDER_WEIGHTS = {470, 470, 15, 5, 40};
+
+    // Распределение Ципфа: вес имени обратно пропорционален его месту в списке
+    private static final double[] MALE_NAME_CDF = zipf(MALE_NAMES.length);
+    private static final double[] FEMALE_NAME_CDF = zipf(FEMALE_NAMES.length);
+    private static final double[] LAST_NAME_CDF = zipf(LAST_NAMES.length);
+    private static final double[] DOMAIN_CDF = cdf(DOMAIN_WEIGHTS);
+    private static final double[] GENDER_CDF = cdf(GENDER_WEIGHTS);
+
+    private SyntheticUsers() {
+    }
+
+    public static long id(int index) {
+        return ID_BASE + index;
+    }
+
+    public static String username(int index) {
+        Gender gender = gender(index);
+        String[] names = gender == Gender.FEMALE ? FEMALE_NAMES : MALE_NAMES;
+        double[] cdf = gender == Gender.FEMALE ? FEMALE_NAME_CDF : MALE_NAME_CDF;
+        return names[pick(cdf, mix(index, 2))] + index;
+    }
+
+    public static boolean isAdmin(int index) {
+        return index % ADMIN_EVERY == 0;
+    }
+
+    /**
+     * Число уже сгенерированных пользователей.
+     */
+    public static int count(JdbcTemplate jdbcTemplate) {
+        Integer count = jdbcTemplate.queryForObject(
+                "select count(*) from user_with_role where user_id >= ?", Integer.class, ID_BASE);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Дописывает пользователей до total и создает недостающие групповые роли ROLE_GROUP_1..groups.
+     * Роли ROLE_ADMIN и ROLE_USER должны уже быть в базе (их создает приложение при первом запуске).
+     * Примерно треть пользователей получает одну групповую роль.
+     */
+    public static void seed(JdbcTemplate jdbcTemplate, int total, int groups) {
+        long adminRole = roleId(jdbcTemplate, "ROLE_ADMIN");
+        long userRole = roleId(jdbcTemplate, "ROLE_USER");
+        long[] groupRoles = new long[groups];
+        for (int g = 0; g < groups; g++) {
+            String name = GROUP_ROLE_PREFIX + (g + 1);
+            jdbcTemplate.update("insert into role (name) select ? " +
+                    "where not exists (select 1 from role where name = ?)", name, name);
+            groupRoles[g] = roleId(jdbcTemplate, name);
+        }
+        int from = count(jdbcTemplate);
+        if (from >= total) {
+            System.out.printf("%d synthetic users already present%n", from);
+            return;
+        }
+        // Один хэш на всех: BCrypt для миллиона пользователей занял бы часы
+        String passwordHash = new BCryptPasswordEncoder().encode(PASSWORD);
+        long start = System.nanoTime();
+        List<Object[]> users = new ArrayList<>(BATCH);
+        List<Object[]> roles = new ArrayList<>(BATCH * 2);
+        for (int index = from; index < total; index++) {
+            users.add(row(index, passwordHash));
+            roles.add(new Object[]{id(index), isAdmin(index) ? adminRole : userRole});
+            if (groups > 0 && mix(index, 6) % 3 == 0) {
+                roles.add(new Object[]{id(index), groupRoles[(int) (mix(index, 7) % groups)]});
+            }
+            if (users.size() == BATCH || index == total - 1) {
+                jdbcTemplate.batchUpdate("insert into user_with_role " +
+                        "(user_id, first_name, last_name, email, password, gender, username_key, email_key, version) " +
+                        "values (?, ?, ?, ?, ?, ?, ?, ?, 0)", users);
+                jdbcTemplate.batchUpdate("insert into user_role (user_id, role_id) values (?, ?)", roles);
+                users.clear();
+                roles.clear();
+                if ((index + 1) % (BATCH * 10) == 0) {
+                    System.out.printf("Seeded %d of %d users%n", index + 1, total);
+                }
+            }
+        }
+        System.out.printf("Seeded %d users in %d ms%n", total - from, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static Object[] row(int index, String passwordHash) {
+        String username = username(index);
+        String lastName = LAST_NAMES[pick(LAST_NAME_CDF, mix(index, 3))];
+        Gender gender = gender(index);
+        if (gender == Gender.FEMALE
+                && (lastName.endsWith("ov") || lastName.endsWith("ev") || lastName.endsWith("in"))) {
+            lastName = lastName + "a";
+        }
+        String email = (username + "." + lastName).toLowerCase(Locale.ROOT)
+                + "@" + DOMAINS[pick(DOMAIN_CDF, mix(index, 4))];
+        return new Object[]{id(index), username, lastName, email, passwordHash, gender.name(),
+                username.toLowerCase(Locale.ROOT), email};
+    }
+
+    private static Gender gender(int index) {
+        return GENDERS[pick(GENDER_CDF, mix(index, 1))];
+    }
+
+    private static long roleId(JdbcTemplate jdbcTemplate, String name) {
+        Long id = jdbcTemplate.queryForObject("select role_id from role where name = ?", Long.class, name);
+        if (id == null) {
+            throw new IllegalStateException("Role " + name + " not found, start the application once to create it");
+        }
+        return id;
+    }
+
+    // Независимое псевдослучайное число для каждого признака пользователя (SplitMix64)
+    private static long mix(int index, int attribute) {
+        long z = index * 0x9E3779B97F4A7C15L + attribute * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) >>> 1;
+    }
+
+    private static int pick(double[] cdf, long random) {
+        double point = (random >>> 11) * 0x1.0p-52;
+        for (int i = 0; i < cdf.length; i++) {
+            if (point < cdf[i]) {
+                return i;
+            }
+        }
+        return cdf.length - 1;
+    }
+
+    private static double[] zipf(int size) {
+        double[] weights = new double[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = 1.0 / (i + 1);
+        }
+        return normalize(weights);
+    }
+
+    private static double[] cdf(int[] weights) {
+        double[] result = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            result[i] = weights[i];
+        }
+        return normalize(result);
+    }
+
+    private static double[] normalize(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cdf[i] = sum / total;
+        }
+        return cdf;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.itmentor.spring.boot_security.demo.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UserFilterTests {
+
+    @Test
+    void escapesLikeWildcardsAndEscapeCharacter() {
+        assertEquals("a\\_b\\%c\\\\d", UserFilter.escapeLike("a_b%c\\d"));
+        assertEquals("plain.ru", UserFilter.escapeLike("plain.ru"));
+    }
+
+    @Test
+    void emailDomainPatternIsEscapedAndNormalized() {
+        UserFilter filter = new UserFilter();
+        filter.setEmailDomain(" @Mail_Box.RU ");
+
+        assertEquals("%@mail\\_box.ru", filter.emailDomainPattern());
+    }
+
+    @Test
+    void roleListPatternIsEscaped() {
+        UserFilter filter = new UserFilter();
+        filter.setRole("ROLE_%");
+
+        assertEquals("%,ROLE\\_\\%,%", filter.roleListPattern());
+    }
+}
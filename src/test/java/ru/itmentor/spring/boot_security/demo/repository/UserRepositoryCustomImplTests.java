@@ -0,0 +1,94 @@
+package ru.itmentor.spring.boot_security.demo.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+import ru.itmentor.spring.boot_security.demo.service.RoleService;
+import ru.itmentor.spring.boot_security.demo.service.UserReadModel;
+import ru.itmentor.spring.boot_security.demo.service.UserService;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Фильтры страницы пользователей: символы шаблона LIKE из пользовательского ввода совпадают буквально,
+ * одинаково в JPA-запросе и в read-модели.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:user_filter;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///user_filter;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN"
+})
+class UserRepositoryCustomImplTests {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserReadModel userReadModel;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private RoleService roleService;
+
+    @BeforeEach
+    void createUsers() {
+        createUser("underscore", "underscore@mail_box.test");
+        createUser("letter", "letter@mailxbox.test");
+    }
+
+    @Test
+    void emailDomainWildcardsMatchLiterally() {
+        UserFilter filter = new UserFilter();
+        filter.setEmailDomain("mail_box.test");
+
+        assertEquals(List.of("underscore"), usernames(userRepository.findPage(filter, 0, 100)));
+        assertEquals(List.of("underscore"), usernames(userReadModel.findPage(filter, 0, 100)));
+
+        filter.setEmailDomain("%box.test");
+        assertTrue(userRepository.findPage(filter, 0, 100).isEmpty());
+        assertTrue(userReadModel.findPage(filter, 0, 100).isEmpty());
+    }
+
+    @Test
+    void roleWildcardsMatchLiterally() {
+        UserFilter filter = new UserFilter();
+        filter.setRole("ROLE_USER");
+        assertTrue(usernames(userReadModel.findPage(filter, 0, 100)).containsAll(List.of("underscore", "letter")));
+
+        // Без экранирования "ROLE%" совпал бы с любой ролью
+        filter.setRole("ROLE%");
+        assertTrue(userReadModel.findPage(filter, 0, 100).isEmpty());
+        assertTrue(userRepository.findPage(filter, 0, 100).isEmpty());
+    }
+
+    private void createUser(String name, String email) {
+        if (userRepository.existsByUsernameKey(name)) {
+            return;
+        }
+        User user = new User(name, "Filter", email, "password", Gender.MALE,
+                roleService.getRoleByName(new String[]{"ROLE_USER"}));
+        assertTrue(userService.saveUser(user));
+    }
+
+    private static List<String> usernames(List<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,97 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.repository.RoleRepository;
+import ru.itmentor.spring.boot_security.demo.service.RoleServiceImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Маска ролей в MaskedAuthenticationToken при смене снимка RoleRegistry и при переносе сессии на другой узел.
+ */
+class AuthorityMasksTests {
+
+    @Test
+    void maskIsRecomputedAfterRegistrySnapshotChange() {
+        List<Role> roles = new ArrayList<>(Arrays.asList(new Role("ROLE_ADMIN", 1L), new Role("ROLE_USER", 2L)));
+        RoleServiceImpl roleService = roleService(roles);
+        AuthorityMasks masks = new AuthorityMasks(roleService);
+        MaskedAuthenticationToken token = token(roleService, "ROLE_USER");
+        assertTrue(masks.hasAuthority(token, "ROLE_USER"));
+
+        roles.add(new Role("ROLE_MANAGER", 3L));
+        roleService.refresh();
+
+        assertTrue(masks.hasAuthority(token, "ROLE_USER"));
+        assertFalse(masks.hasAuthority(token, "ROLE_ADMIN"));
+        assertFalse(masks.hasAuthority(token, "ROLE_MANAGER"));
+        assertTrue(masks.hasAuthority(token(roleService, "ROLE_MANAGER"), "ROLE_MANAGER"));
+    }
+
+    @Test
+    void deserializedTokenUsesBitsOfLocalRegistry() throws Exception {
+        // На этом узле ROLE_USER - бит 1; на другом узле бит 1 у ROLE_ADMIN
+        RoleServiceImpl here = roleService(Arrays.asList(new Role("ROLE_ADMIN", 1L), new Role("ROLE_USER", 2L)));
+        RoleServiceImpl there = roleService(Arrays.asList(
+                new Role("ROLE_AUDITOR", 0L), new Role("ROLE_ADMIN", 1L), new Role("ROLE_USER", 2L)));
+        assertTrue(here.getRegistry().bitOf("ROLE_USER") == there.getRegistry().bitOf("ROLE_ADMIN"));
+
+        MaskedAuthenticationToken restored = (MaskedAuthenticationToken) copy(token(here, "ROLE_USER"));
+        AuthorityMasks masks = new AuthorityMasks(there);
+
+        assertTrue(masks.hasAuthority(restored, "ROLE_USER"));
+        assertFalse(masks.hasAuthority(restored, "ROLE_ADMIN"));
+        assertFalse(masks.hasAuthority(restored, "ROLE_AUDITOR"));
+    }
+
+    @Test
+    void maskIsCachedPerRegistrySnapshot() {
+        RoleServiceImpl roleService = roleService(Arrays.asList(new Role("ROLE_ADMIN", 1L), new Role("ROLE_USER", 2L)));
+        MaskedAuthenticationToken token = token(roleService, "ROLE_ADMIN");
+
+        AuthorityMask first = token.getAuthorityMask(roleService.getRegistry());
+        assertTrue(first == token.getAuthorityMask(roleService.getRegistry()));
+        roleService.refresh();
+        AuthorityMask second = token.getAuthorityMask(roleService.getRegistry());
+        assertNotSame(first, second);
+        assertTrue(first.equals(second));
+    }
+
+    private static RoleServiceImpl roleService(List<Role> roles) {
+        // Реестру ролей нужен только findAll
+        RoleRepository roleRepository = (RoleRepository) Proxy.newProxyInstance(
+                AuthorityMasksTests.class.getClassLoader(), new Class<?>[]{RoleRepository.class},
+                (proxy, method, args) -> "findAll".equals(method.getName()) ? new ArrayList<>(roles) : null);
+        RoleServiceImpl roleService = new RoleServiceImpl(roleRepository, event -> { });
+        roleService.refresh();
+        return roleService;
+    }
+
+    private static MaskedAuthenticationToken token(RoleServiceImpl roleService, String... roles) {
+        return new MaskedAuthenticationToken("user", null, AuthorityUtils.createAuthorityList(roles),
+                roleService.getRegistry());
+    }
+
+    private static Object copy(Object value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * IP клиента для ограничения попыток входа за балансировщиком. Тест идет через настоящий Tomcat:
+ * X-Forwarded-For разбирает RemoteIpValve, MockMvc его не проходит. Запросы теста приходят с 127.0.0.1,
+ * то есть от доверенного прокси.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:forwarded;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///forwarded;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN",
+        "app.security.token.enabled=true",
+        "app.login-throttle.ip.rate-per-minute=1",
+        "app.login-throttle.ip.burst=2"
+})
+class LoginThrottleForwardedHeadersTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void clientsBehindTrustedProxyAreThrottledSeparately() {
+        assertEquals(HttpStatus.UNAUTHORIZED, login("203.0.113.7", "first"));
+        assertEquals(HttpStatus.UNAUTHORIZED, login("203.0.113.7", "second"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, login("203.0.113.7", "third"));
+
+        // Тот же балансировщик, другой клиент
+        assertEquals(HttpStatus.UNAUTHORIZED, login("203.0.113.8", "fourth"));
+    }
+
+    @Test
+    void forwardedAddressChainIsResolvedToTheClient() {
+        // Балансировщик 10.0.0.5 дописал адрес клиента; оба прокси в цепочке доверенные
+        assertEquals(HttpStatus.UNAUTHORIZED, login("198.51.100.1, 10.0.0.5", "fifth"));
+        assertEquals(HttpStatus.UNAUTHORIZED, login("198.51.100.1", "sixth"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, login("198.51.100.1, 10.0.0.6", "seventh"));
+    }
+
+    private HttpStatus login(String forwardedFor, String username) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-Forwarded-For", forwardedFor);
+        String body = "{\"username\":\"" + username + "\",\"password\":\"wrong\"}";
+        return restTemplate.postForEntity("/api/auth/token", new HttpEntity<>(body, headers), Void.class)
+                .getStatusCode();
+    }
+}
@@ -0,0 +1,126 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateSketchTests {
+
+    // 60 в минуту: токен раз в секунду
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final long START = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    void burstIsAllowedThenRejectedUntilNextToken() {
+        RateSketch sketch = new RateSketch(2, 1024, 60, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, sketch.tryAcquire("10.0.0.1", START));
+        }
+        assertEquals(INTERVAL, sketch.tryAcquire("10.0.0.1", START));
+        assertEquals(INTERVAL / 2, sketch.tryAcquire("10.0.0.1", START + INTERVAL / 2));
+    }
+
+    @Test
+    void tokensRefillAtConfiguredRate() {
+        RateSketch sketch = new RateSketch(2, 1024, 60, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, sketch.tryAcquire("user", START));
+        }
+        assertTrue(sketch.tryAcquire("user", START) > 0);
+
+        // Через секунду появляется ровно один токен
+        assertEquals(0, sketch.tryAcquire("user", START + INTERVAL));
+        assertTrue(sketch.tryAcquire("user", START + INTERVAL) > 0);
+
+        // После долгой паузы доступен весь burst, но не больше
+        long later = START + 100 * INTERVAL;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, sketch.tryAcquire("user", later));
+        }
+        assertTrue(sketch.tryAcquire("user", later) > 0);
+    }
+
+    @Test
+    void rejectedAttemptsDoNotConsumeTokens() {
+        RateSketch sketch = new RateSketch(1, 1024, 60, 1);
+        assertEquals(0, sketch.tryAcquire("user", START));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sketch.tryAcquire("user", START) > 0);
+        }
+        assertEquals(0, sketch.tryAcquire("user", START + INTERVAL));
+    }
+
+    @Test
+    void keysHaveSeparateBuckets() {
+        RateSketch sketch = new RateSketch(2, 65536, 60, 2);
+        assertEquals(0, sketch.tryAcquire("alice", START));
+        assertEquals(0, sketch.tryAcquire("alice", START));
+        assertTrue(sketch.tryAcquire("alice", START) > 0);
+        assertEquals(0, sketch.tryAcquire("bob", START));
+        assertEquals(0, sketch.tryAcquire("bob", START));
+    }
+
+    @Test
+    void collisionsOnlyTightenTheLimit() {
+        // Четыре ячейки: сто ключей делят четыре bucket-а и вместе получают не больше 4 * burst
+        RateSketch sketch = new RateSketch(1, 4, 60, 4);
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            allowed += sketch.tryAcquire("key-" + i, START) == 0 ? 1 : 0;
+        }
+        assertTrue(allowed <= 4 * 4);
+    }
+
+    @Test
+    void concurrentAttemptsNeverExceedBurst() throws Exception {
+        int threads = 16;
+        int burst = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 20; round++) {
+                RateSketch sketch = new RateSketch(2, 1024, 60, burst);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Callable<Integer>> workers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    workers.add(() -> {
+                        start.await();
+                        int allowed = 0;
+                        for (int i = 0; i < 20; i++) {
+                            allowed += sketch.tryAcquire("10.0.0.1", START) == 0 ? 1 : 0;
+                        }
+                        return allowed;
+                    });
+                }
+                List<Future<Integer>> results = new ArrayList<>();
+                for (Callable<Integer> worker : workers) {
+                    results.add(executor.submit(worker));
+                }
+                start.countDown();
+                int allowed = 0;
+                for (Future<Integer> result : results) {
+                    allowed += result.get();
+                }
+                assertEquals(burst, allowed);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void depthIsValidated() {
+        assertThrows(IllegalArgumentException.class, () -> new RateSketch(0, 1024, 60, 5));
+        assertThrows(IllegalArgumentException.class, () -> new RateSketch(5, 1024, 60, 5));
+    }
+}
@@ -0,0 +1,174 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Отзыв токенов на нескольких узлах: второй узел - отдельный экземпляр TokenRevocationList над той же базой.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:tokens;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///tokens;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN",
+        "app.security.token.enabled=true",
+        "app.security.token.secret=AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA="
+})
+@AutoConfigureMockMvc
+class TokenRevocationListTests {
+
+    @Autowired
+    private TokenRevocationList revocationList;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void refreshTokenRevokedOnOneNodeIsRevokedOnAnother() {
+        TokenRevocationList otherNode = new TokenRevocationList(jdbcTemplate, Duration.ofMinutes(15));
+        TokenClaims claims = refreshClaims();
+
+        assertFalse(otherNode.isRevoked(claims));
+        assertTrue(revocationList.revoke(claims));
+        assertTrue(revocationList.isRevoked(claims));
+        assertTrue(otherNode.isRevoked(claims));
+        assertFalse(otherNode.revoke(claims));
+    }
+
+    @Test
+    void concurrentRevocationsOnTwoNodesSucceedOnce() throws Exception {
+        TokenRevocationList otherNode = new TokenRevocationList(jdbcTemplate, Duration.ofMinutes(15));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 20; round++) {
+                TokenClaims claims = refreshClaims();
+                List<Callable<Boolean>> attempts = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    TokenRevocationList node = i % 2 == 0 ? revocationList : otherNode;
+                    attempts.add(() -> node.revoke(claims));
+                }
+                int succeeded = 0;
+                for (Future<Boolean> result : executor.invokeAll(attempts)) {
+                    succeeded += result.get() ? 1 : 0;
+                }
+                assertEquals(1, succeeded);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void userChangeRevokesEarlierAccessTokens() {
+        TokenClaims before = accessClaims(7L, System.currentTimeMillis() - 1000);
+        TokenClaims otherUser = accessClaims(8L, System.currentTimeMillis() - 1000);
+
+        revocationList.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 7L, "user", null, true));
+
+        assertTrue(revocationList.isRevoked(before));
+        assertFalse(revocationList.isRevoked(otherUser));
+        assertFalse(revocationList.isRevoked(accessClaims(7L, System.currentTimeMillis() + 1000)));
+    }
+
+    @Test
+    void cachesFlushRevokesAllEarlierAccessTokens() {
+        // Отдельный узел: полный сброс на общем бине отозвал бы токены, выданные в других тестах
+        TokenRevocationList node = new TokenRevocationList(jdbcTemplate, Duration.ofMinutes(15));
+        TokenClaims before = accessClaims(9L, System.currentTimeMillis() - 1000);
+        node.onCachesFlush();
+        assertTrue(node.isRevoked(before));
+        assertFalse(node.isRevoked(accessClaims(9L, System.currentTimeMillis() + 1000)));
+        // Refresh-токены при полном сбросе остаются валидными
+        assertFalse(node.isRevoked(refreshClaims()));
+    }
+
+    @Test
+    void refreshTokenCanBeExchangedOnce() throws Exception {
+        JsonNode tokens = login();
+        String refresh = "{\"refreshToken\":\"" + tokens.get("refreshToken").asText() + "\"}";
+
+        mockMvc.perform(post("/api/auth/refresh").contentType(MediaType.APPLICATION_JSON).content(refresh))
+                .andExpect(status().isOk());
+        mockMvc.perform(post("/api/auth/refresh").contentType(MediaType.APPLICATION_JSON).content(refresh))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void revokedRefreshTokenCannotBeExchanged() throws Exception {
+        JsonNode tokens = login();
+        String refresh = "{\"refreshToken\":\"" + tokens.get("refreshToken").asText() + "\"}";
+
+        mockMvc.perform(post("/api/auth/revoke").contentType(MediaType.APPLICATION_JSON).content(refresh))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(post("/api/auth/refresh").contentType(MediaType.APPLICATION_JSON).content(refresh))
+                .andExpect(status().isUnauthorized());
+        // Access-токен отзыв refresh-токена не затрагивает
+        mockMvc.perform(get("/api/users/me").header("Authorization", "Bearer " + tokens.get("accessToken").asText()))
+                .andExpect(status().isOk());
+    }
+
+    private JsonNode login() throws Exception {
+        String body = mockMvc.perform(post("/api/auth/token").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"username\":\"user\",\"password\":\"user111\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body);
+    }
+
+    private static TokenClaims refreshClaims() {
+        TokenClaims claims = new TokenClaims();
+        claims.setId(UUID.randomUUID().toString());
+        claims.setType(TokenClaims.REFRESH);
+        claims.setUserId(1L);
+        claims.setIssuedAt(System.currentTimeMillis());
+        claims.setExpiresAt(System.currentTimeMillis() + Duration.ofDays(7).toMillis());
+        return claims;
+    }
+
+    private static TokenClaims accessClaims(long userId, long issuedAt) {
+        TokenClaims claims = new TokenClaims();
+        claims.setId(UUID.randomUUID().toString());
+        claims.setType(TokenClaims.ACCESS);
+        claims.setUserId(userId);
+        claims.setIssuedAt(issuedAt);
+        claims.setExpiresAt(issuedAt + Duration.ofMinutes(15).toMillis());
+        return claims;
+    }
+}
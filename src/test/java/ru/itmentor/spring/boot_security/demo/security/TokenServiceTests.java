@@ -0,0 +1,88 @@
+package ru.itmentor.spring.boot_security.demo.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenServiceTests {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private final TokenService tokenService = tokenService(SECRET, Duration.ofMinutes(15));
+
+    @Test
+    void issuedTokensCarryUserAndRoles() {
+        User user = user();
+        TokenClaims access = tokenService.verify(tokenService.issueAccessToken(user));
+        TokenClaims refresh = tokenService.verify(tokenService.issueRefreshToken(user));
+
+        assertTrue(access.isAccess());
+        assertTrue(refresh.isRefresh());
+        assertEquals(42L, access.getUserId());
+        assertEquals("admin", access.getUsername());
+        assertEquals(List.of("ROLE_ADMIN"), access.getRoles());
+        assertEquals(access.getIssuedAt() + Duration.ofMinutes(15).toMillis(), access.getExpiresAt());
+        assertEquals(refresh.getIssuedAt() + Duration.ofDays(7).toMillis(), refresh.getExpiresAt());
+        assertNotEquals(access.getId(), refresh.getId());
+    }
+
+    @Test
+    void tokenSignedByAnotherNodeWithSameSecretIsAccepted() {
+        String token = tokenService.issueAccessToken(user());
+        assertEquals(42L, tokenService(SECRET, Duration.ofMinutes(15)).verify(token).getUserId());
+    }
+
+    @Test
+    void tokenSignedWithAnotherSecretIsRejected() {
+        String otherSecret = Base64.getEncoder().encodeToString(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        String token = tokenService(otherSecret, Duration.ofMinutes(15)).issueAccessToken(user());
+        assertThrows(InvalidTokenException.class, () -> tokenService.verify(token));
+    }
+
+    @Test
+    void tamperedClaimsAreRejected() {
+        String token = tokenService.issueAccessToken(user());
+        String[] parts = token.split("\\.");
+        String claims = new String(Base64.getUrlDecoder().decode(parts[1])).replace("\"userId\":42", "\"userId\":1");
+        String tampered = parts[0] + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(claims.getBytes())
+                + "." + parts[2];
+        assertThrows(InvalidTokenException.class, () -> tokenService.verify(tampered));
+    }
+
+    @Test
+    void malformedTokensAreRejected() {
+        assertThrows(InvalidTokenException.class, () -> tokenService.verify("no-dots"));
+        assertThrows(InvalidTokenException.class, () -> tokenService.verify("a.b"));
+        assertThrows(InvalidTokenException.class, () -> tokenService.verify("a.b.!!!"));
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        TokenService expiring = tokenService(SECRET, Duration.ofMillis(-1));
+        String token = expiring.issueAccessToken(user());
+        assertThrows(InvalidTokenException.class, () -> expiring.verify(token));
+    }
+
+    private static TokenService tokenService(String secret, Duration accessTtl) {
+        return new TokenService(new ObjectMapper(), secret, accessTtl, Duration.ofDays(7));
+    }
+
+    private static User user() {
+        User user = new User("admin", "admin", "admin@gmail.com", "hash", Gender.MALE,
+                Set.of(new Role("ROLE_ADMIN", 1L)));
+        user.setId(42L);
+        return user;
+    }
+}
@@ -0,0 +1,158 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import ru.itmentor.spring.boot_security.demo.event.RolesChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.AuditEntry;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Поведение журнала при переполнении буфера. Писатель не запущен, пока тест не вызовет start(),
+ * поэтому буфер заполняется детерминированно. Схема - миграции Flyway, выполненные на H2.
+ */
+class AuditLogTests {
+
+    private EmbeddedDatabase database;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void createDatabase() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScripts("db/migration/V2__audit_log.sql", "db/migration/V4__audit_log_roles.sql")
+                .build();
+        jdbcTemplate = new NamedParameterJdbcTemplate(database);
+    }
+
+    @AfterEach
+    void shutdownDatabase() {
+        database.shutdown();
+    }
+
+    @Test
+    void callerRunsWritesInCallingThreadWhenBufferIsFull() {
+        AuditLog auditLog = auditLog(AuditLog.Overflow.CALLER_RUNS, Duration.ZERO);
+        fill(auditLog);
+
+        auditLog.record(entry(100));
+
+        assertEquals(1, rows());
+        assertEquals(1, auditLog.getStats().get("callerRuns"));
+        assertEquals(1, auditLog.getStats().get("written"));
+        assertEquals(0, auditLog.getStats().get("dropped"));
+        assertEquals(auditLog.getStats().get("capacity"), auditLog.getStats().get("pending"));
+    }
+
+    @Test
+    void dropDiscardsEntryWhenBufferIsFull() {
+        AuditLog auditLog = auditLog(AuditLog.Overflow.DROP, Duration.ZERO);
+        fill(auditLog);
+
+        auditLog.record(entry(100));
+
+        assertEquals(0, rows());
+        assertEquals(1, auditLog.getStats().get("dropped"));
+        assertEquals(0, auditLog.getStats().get("callerRuns"));
+    }
+
+    @Test
+    void blockWaitsForOfferTimeoutThenDrops() {
+        AuditLog auditLog = auditLog(AuditLog.Overflow.BLOCK, Duration.ofMillis(50));
+        fill(auditLog);
+
+        long start = System.nanoTime();
+        auditLog.record(entry(100));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, rows());
+        assertEquals(1, auditLog.getStats().get("dropped"));
+    }
+
+    @Test
+    void blockLosesNothingWhileWriterKeepsUp() throws Exception {
+        AuditLog auditLog = auditLog(AuditLog.Overflow.BLOCK, Duration.ofSeconds(5));
+        auditLog.start();
+        for (int i = 0; i < 200; i++) {
+            auditLog.record(entry(i));
+        }
+        auditLog.shutdown();
+
+        assertEquals(200, rows());
+        assertEquals(0, auditLog.getStats().get("dropped"));
+        assertEquals(200, auditLog.getStats().get("written"));
+    }
+
+    @Test
+    void writerFlushesBufferedEntriesInOrder() throws Exception {
+        AuditLog auditLog = auditLog(AuditLog.Overflow.DROP, Duration.ZERO);
+        auditLog.start();
+        for (int i = 0; i < 3; i++) {
+            auditLog.record(entry(i));
+        }
+        auditLog.shutdown();
+
+        List<AuditEntry> history = auditLog.history(null, null, null, 10);
+        assertEquals(3, history.size());
+        assertEquals(2L, history.get(0).getUserId());
+        assertEquals(0L, history.get(2).getUserId());
+    }
+
+    @Test
+    void roleSavesAreAuditedAndRemoteChangesAreNot() throws Exception {
+        AuditLog auditLog = auditLog(AuditLog.Overflow.DROP, Duration.ZERO);
+        auditLog.start();
+        auditLog.onRolesChanged(new RolesChangedEvent(5L, "ROLE_MANAGER", false));
+        auditLog.onRolesChanged(new RolesChangedEvent(true));
+        auditLog.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 7L, "user", "email", true));
+        auditLog.shutdown();
+
+        List<AuditEntry> history = auditLog.history(null, null, null, 10);
+        assertEquals(1, history.size());
+        AuditEntry entry = history.get(0);
+        assertEquals(AuditLog.ROLE_SAVED, entry.getAction());
+        assertEquals(5L, entry.getRoleId());
+        assertNull(entry.getUserId());
+        assertEquals("ROLE_MANAGER", entry.getDetails());
+        assertEquals("system", entry.getActor());
+    }
+
+    private AuditLog auditLog(AuditLog.Overflow overflow, Duration offerTimeout) {
+        return new AuditLog(jdbcTemplate, new DataSourceTransactionManager(database), new SimpleMeterRegistry(),
+                4, 2, Duration.ofMillis(10), overflow, offerTimeout);
+    }
+
+    private static void fill(AuditLog auditLog) {
+        long capacity = auditLog.getStats().get("capacity");
+        for (int i = 0; i < capacity; i++) {
+            auditLog.record(entry(i));
+        }
+    }
+
+    private int rows() {
+        Integer rows = jdbcTemplate.queryForObject("select count(*) from audit_log",
+                EmptySqlParameterSource.INSTANCE, Integer.class);
+        return rows == null ? 0 : rows;
+    }
+
+    private static AuditEntry entry(long userId) {
+        return new AuditEntry(null, Instant.now(), "admin", "UPDATED", userId, null, "user" + userId, null);
+    }
+}
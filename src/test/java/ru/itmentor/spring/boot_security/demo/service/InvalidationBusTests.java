@@ -0,0 +1,201 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.itmentor.spring.boot_security.demo.event.CachesFlushEvent;
+import ru.itmentor.spring.boot_security.demo.event.RolesChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Два "узла" в одном процессе через LoopbackInvalidationTransport и третий слушатель, который видит сами сообщения.
+ */
+class InvalidationBusTests {
+
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Object> eventsOnA = new CopyOnWriteArrayList<>();
+    private final List<Object> eventsOnB = new CopyOnWriteArrayList<>();
+    private final List<InvalidationBus.Message> messages = new CopyOnWriteArrayList<>();
+
+    private InvalidationBus nodeA;
+    private InvalidationBus nodeB;
+    private LoopbackInvalidationTransport observer;
+
+    @BeforeEach
+    void startNodes() {
+        nodeA = node(eventsOnA, 3);
+        nodeB = node(eventsOnB, 3);
+        observer = new LoopbackInvalidationTransport();
+        observer.start(new InvalidationTransport.Listener() {
+            @Override
+            public void onMessage(String payload) {
+                try {
+                    messages.add(objectMapper.readValue(payload, InvalidationBus.Message.class));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void onConnected() {
+            }
+        });
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodeA.shutdown();
+        nodeB.shutdown();
+        observer.stop();
+    }
+
+    @Test
+    void changesReachOtherNodeAsRemoteEvents() {
+        nodeA.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 7L, "user"));
+        nodeA.onRolesChanged(new RolesChangedEvent(2L, "ROLE_USER", false));
+
+        await(() -> eventsOnB.size() >= 2 && !messages.isEmpty());
+        assertEquals(1, messages.size());
+        RolesChangedEvent roles = (RolesChangedEvent) eventsOnB.get(0);
+        assertTrue(roles.isRemote());
+        UserChangedEvent user = (UserChangedEvent) eventsOnB.get(1);
+        assertTrue(user.isRemote());
+        assertEquals(7L, user.getUserId());
+        assertEquals(UserChangedEvent.Type.UPDATED, user.getType());
+        // Узел не обрабатывает свои сообщения и не пересылает remote-события
+        assertTrue(eventsOnA.isEmpty());
+        nodeB.onUserChanged(user);
+        sleep(100);
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    void createdThenUpdatedCollapsesToCreated() {
+        nodeA.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.CREATED, 7L, "user"));
+        nodeA.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 7L, "user"));
+        nodeA.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 8L, "other"));
+        nodeA.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.DELETED, 8L, "other"));
+
+        await(() -> !messages.isEmpty());
+        assertEquals(1, messages.size());
+        List<String> users = messages.get(0).getUsers().stream()
+                .map(user -> user.getType() + ":" + user.getId())
+                .collect(Collectors.toList());
+        assertEquals(List.of("CREATED:7", "DELETED:8"), users);
+    }
+
+    @Test
+    void moreThanMaxKeysIsSentAsFlush() {
+        for (long id = 1; id <= 4; id++) {
+            nodeA.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, id, "user" + id));
+        }
+
+        await(() -> !eventsOnB.isEmpty() && !messages.isEmpty());
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).isFlush());
+        assertTrue(messages.get(0).getUsers().isEmpty());
+        assertEquals(1, eventsOnB.size());
+        assertTrue(eventsOnB.get(0) instanceof CachesFlushEvent);
+    }
+
+    @Test
+    void bulkChangeIsSentAsFlush() {
+        nodeA.onUsersBulkChanged(new UsersBulkChangedEvent(UserChangedEvent.Type.DELETED, List.of(1L, 2L), null));
+
+        await(() -> !eventsOnB.isEmpty() && !messages.isEmpty());
+        assertTrue(messages.get(0).isFlush());
+        assertTrue(eventsOnB.get(0) instanceof CachesFlushEvent);
+    }
+
+    @Test
+    void sequenceGapFlushesCaches() throws Exception {
+        send(new InvalidationBus.Message("node-x", 1, false, false, List.of(user(5L))));
+        send(new InvalidationBus.Message("node-x", 2, false, false, List.of(user(6L))));
+        assertEquals(2, eventsOnB.size());
+        assertFalse(eventsOnB.stream().anyMatch(event -> event instanceof CachesFlushEvent));
+
+        // Сообщение 3 потеряно
+        send(new InvalidationBus.Message("node-x", 4, false, false, List.of(user(7L))));
+
+        assertEquals(3, eventsOnB.size());
+        assertTrue(eventsOnB.get(2) instanceof CachesFlushEvent);
+        // После сброса номера продолжаются с полученного
+        send(new InvalidationBus.Message("node-x", 5, false, false, List.of(user(8L))));
+        assertTrue(eventsOnB.get(3) instanceof UserChangedEvent);
+    }
+
+    @Test
+    void reconnectFlushesCaches() {
+        nodeB.onConnected();
+        assertEquals(1, eventsOnB.size());
+        assertTrue(eventsOnB.get(0) instanceof CachesFlushEvent);
+    }
+
+    @Test
+    void largeWindowIsSplitIntoConsecutiveMessages() {
+        InvalidationBus wide = node(new ArrayList<>(), 1000);
+        try {
+            for (long id = 1; id <= 120; id++) {
+                wide.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, id, "user" + id));
+            }
+            await(() -> eventsOnB.size() >= 120 && messages.size() >= 3);
+            assertEquals(3, messages.size());
+            assertEquals(messages.get(0).getSeq() + 1, messages.get(1).getSeq());
+            assertEquals(messages.get(1).getSeq() + 1, messages.get(2).getSeq());
+            assertFalse(eventsOnB.stream().anyMatch(event -> event instanceof CachesFlushEvent));
+        } finally {
+            wide.shutdown();
+        }
+    }
+
+    private InvalidationBus node(List<Object> events, int maxKeys) {
+        InvalidationBus bus = new InvalidationBus(new LoopbackInvalidationTransport(), events::add, objectMapper,
+                new SimpleMeterRegistry(), Duration.ofMillis(20), maxKeys);
+        bus.start();
+        return bus;
+    }
+
+    private void send(InvalidationBus.Message message) throws Exception {
+        nodeB.onMessage(objectMapper.writeValueAsString(message));
+    }
+
+    private static InvalidationBus.UserKey user(long id) {
+        return new InvalidationBus.UserKey("UPDATED", id, "user" + id);
+    }
+
+    private static void await(Supplier<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.get()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not reached in " + WAIT_MILLIS + " ms");
+            }
+            sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Отказы пула хэширования. Вместо BCrypt - кодировщик, который по паролю "block" ждет сигнала теста,
+ * а по паролю "fail" падает, так что заполнение пула и очереди детерминировано.
+ */
+class PasswordHashingServiceTests {
+
+    private final StubEncoder encoder = new StubEncoder();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private PasswordHashingService service;
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        encoder.release.countDown();
+        callers.shutdownNow();
+        callers.awaitTermination(5, TimeUnit.SECONDS);
+        service.shutdown();
+    }
+
+    @Test
+    void fullQueueIsRejected() throws InterruptedException {
+        service = service(1, 1, Duration.ofSeconds(5));
+        occupy(1);
+        callers.execute(() -> service.encode("queued"));
+        awaitQueued(1);
+
+        PasswordHashingException e = assertThrows(PasswordHashingException.class, () -> service.encode("secret"));
+
+        assertEquals("Password hashing queue is full", e.getMessage());
+        assertEquals(1L, service.getStats().get("rejected"));
+        // При логине тот же отказ - обычная неудача аутентификации, а не ошибка 500
+        assertThrows(AuthenticationServiceException.class, () -> service.matches("secret", "hash:secret"));
+        assertEquals(2L, service.getStats().get("rejected"));
+    }
+
+    @Test
+    void slowHashingTimesOutAndIsCancelled() throws InterruptedException {
+        service = service(1, 4, Duration.ofMillis(100));
+
+        PasswordHashingException e = assertThrows(PasswordHashingException.class, () -> service.encode("block"));
+
+        assertEquals("Password hashing timed out", e.getMessage());
+        assertEquals(1L, service.getStats().get("timedOut"));
+        assertTrue(encoder.interrupted.await(5, TimeUnit.SECONDS), "timed out task was not interrupted");
+    }
+
+    @Test
+    void taskFailureIsWrapped() {
+        service = service(1, 4, Duration.ofSeconds(5));
+
+        PasswordHashingException e = assertThrows(PasswordHashingException.class, () -> service.encode("fail"));
+
+        assertEquals("Password hashing failed", e.getMessage());
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void encodeAllCancelsRemainingPartsWhenOnePartFails() throws InterruptedException {
+        service = service(2, 4, Duration.ofSeconds(5));
+
+        // Две части по числу потоков: первая падает, вторая ждет release и без отмены заняла бы поток навсегда
+        assertThrows(PasswordHashingException.class, () -> service.encodeAll(List.of("fail", "block")));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (service.getExecutor().getActiveCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "remaining part was not cancelled");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void encodeAllCancelsSubmittedPartsWhenQueueIsFull() throws InterruptedException {
+        service = service(2, 1, Duration.ofSeconds(5));
+        occupy(2);
+
+        // Первая часть встает в очередь, вторая получает отказ
+        assertThrows(PasswordHashingException.class, () -> service.encodeAll(List.of("first", "second")));
+
+        encoder.release.countDown();
+        service.getExecutor().shutdown();
+        assertTrue(service.getExecutor().awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(encoder.encoded.contains("first"));
+    }
+
+    @Test
+    void encodeAllKeepsOrder() {
+        service = service(3, 4, Duration.ofSeconds(5));
+
+        List<String> hashes = service.encodeAll(List.of("a", "b", "c", "d", "e"));
+
+        assertEquals(List.of("hash:a", "hash:b", "hash:c", "hash:d", "hash:e"), hashes);
+    }
+
+    private PasswordHashingService service(int threads, int queueCapacity, Duration timeout) {
+        return new PasswordHashingService(encoder, threads, queueCapacity, timeout, new SimpleMeterRegistry());
+    }
+
+    // Занимает все потоки пула задачами, которые ждут release
+    private void occupy(int threads) throws InterruptedException {
+        for (int i = 0; i < threads; i++) {
+            callers.execute(() -> service.encode("block"));
+        }
+        assertTrue(encoder.blocked.tryAcquire(threads, 5, TimeUnit.SECONDS));
+    }
+
+    private void awaitQueued(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (service.getExecutor().getQueue().size() < size) {
+            assertTrue(System.currentTimeMillis() < deadline, "task was not queued");
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class StubEncoder extends BCryptPasswordEncoder {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final Semaphore blocked = new Semaphore(0);
+        final List<String> encoded = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            String raw = rawPassword.toString();
+            encoded.add(raw);
+            if (raw.equals("fail")) {
+                throw new IllegalStateException("encoder failed");
+            }
+            if (raw.equals("block")) {
+                blocked.release();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return "hash:" + raw;
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            return encodedPassword.equals(encode(rawPassword));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTests {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(4, new RingBuffer<>(3).capacity());
+        assertEquals(8, new RingBuffer<>(8).capacity());
+        assertEquals(1024, new RingBuffer<>(1000).capacity());
+    }
+
+    @Test
+    void fullBufferRejectsOffersUntilDrained() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(1, buffer.drainTo(drained, 1));
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+        assertEquals(List.of(0), drained);
+    }
+
+    @Test
+    void drainKeepsOrderAcrossWraparound() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        List<Integer> drained = new ArrayList<>();
+        int next = 0;
+        // Позиции обходят кольцо много раз, в том числе с частичным опустошением
+        for (int round = 0; round < 100; round++) {
+            int count = 1 + round % 4;
+            for (int i = 0; i < count; i++) {
+                assertTrue(buffer.offer(next++));
+            }
+            buffer.drainTo(drained, 1 + round % 3);
+            buffer.drainTo(drained, 4);
+            assertTrue(buffer.isEmpty());
+        }
+        assertEquals(next, drained.size());
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(i, drained.get(i));
+        }
+    }
+
+    @Test
+    void drainRespectsLimit() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(i);
+        }
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drainTo(drained, 4));
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.drainTo(drained, 4));
+        assertEquals(0, buffer.drainTo(drained, 4));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), drained);
+    }
+
+    @Test
+    void concurrentProducersLoseNothingAndKeepPerProducerOrder() throws Exception {
+        int producers = 8;
+        int perProducer = 20_000;
+        RingBuffer<long[]> buffer = new RingBuffer<>(256);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            results.add(executor.submit(() -> {
+                start.await();
+                for (long i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(new long[]{producer, i})) {
+                        Thread.onSpinWait();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+
+        long[] nextByProducer = new long[producers];
+        List<long[]> batch = new ArrayList<>();
+        long total = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (total < (long) producers * perProducer && System.nanoTime() < deadline) {
+            batch.clear();
+            buffer.drainTo(batch, 64);
+            for (long[] item : batch) {
+                int producer = (int) item[0];
+                assertEquals(nextByProducer[producer], item[1]);
+                nextByProducer[producer]++;
+            }
+            total += batch.size();
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        assertEquals((long) producers * perProducer, total);
+        assertTrue(buffer.isEmpty());
+    }
+}
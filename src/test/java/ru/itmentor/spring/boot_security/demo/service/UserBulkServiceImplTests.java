@@ -0,0 +1,171 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.itmentor.spring.boot_security.demo.model.AuditEntry;
+import ru.itmentor.spring.boot_security.demo.model.BulkOperationResult;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.Role;
+import ru.itmentor.spring.boot_security.demo.model.User;
+import ru.itmentor.spring.boot_security.demo.model.UserBulkRequest;
+import ru.itmentor.spring.boot_security.demo.model.UserFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:bulk;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///bulk;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN"
+})
+class UserBulkServiceImplTests {
+
+    @Autowired
+    private UserBulkService userBulkService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private RoleService roleService;
+
+    @Autowired
+    private UserReadModel userReadModel;
+
+    @Autowired
+    private UserDetailsCache userDetailsCache;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Test
+    void grantAndRevokeCountAffectedUsersAndRows() {
+        List<Long> ids = createUsers("grant", 3);
+
+        BulkOperationResult granted = userBulkService.grantRole(request("grant.test", "ROLE_ADMIN"));
+        assertEquals(3, granted.getUsers());
+        assertEquals(3, granted.getRows());
+        assertTrue(userReadModel.findByIds(ids).stream().allMatch(user -> hasRole(user, "ROLE_ADMIN")));
+        assertAudited(ids.get(0), "UPDATED", "role+ROLE_ADMIN");
+
+        // Пользователи, у которых роль уже есть, не выбираются
+        BulkOperationResult again = userBulkService.grantRole(request("grant.test", "ROLE_ADMIN"));
+        assertEquals(0, again.getUsers());
+        assertEquals(0, again.getRows());
+
+        BulkOperationResult revoked = userBulkService.revokeRole(request("grant.test", "ROLE_ADMIN"));
+        assertEquals(3, revoked.getUsers());
+        assertEquals(3, revoked.getRows());
+        assertTrue(userReadModel.findByIds(ids).stream().noneMatch(user -> hasRole(user, "ROLE_ADMIN")));
+        assertTrue(userReadModel.findByIds(ids).stream().allMatch(user -> hasRole(user, "ROLE_USER")));
+        assertAudited(ids.get(2), "UPDATED", "role-ROLE_ADMIN");
+    }
+
+    @Test
+    void deleteCountsUsersAndRoleRows() {
+        List<Long> ids = createUsers("delete", 4);
+
+        BulkOperationResult deleted = userBulkService.deleteUsers(request("delete.test", null));
+
+        assertEquals(4, deleted.getUsers());
+        // 4 строки user_with_role и по одной строке user_role на пользователя
+        assertEquals(8, deleted.getRows());
+        assertTrue(userReadModel.findByIds(ids).isEmpty());
+        for (Long id : ids) {
+            assertFalse(userService.findExistingUserById(id).isPresent());
+            assertTrue(assertAudited(id, "DELETED", null).getUsername().startsWith("delete"));
+        }
+    }
+
+    @Test
+    void bulkChangeFlushesUserDetailsCache() {
+        List<Long> ids = createUsers("cached", 2);
+        User user = userReadModel.findByIds(ids).get(0);
+        userDetailsCache.putUserInCache(user);
+
+        userBulkService.grantRole(request("cached.test", "ROLE_ADMIN"));
+
+        assertNull(userDetailsCache.getUserFromCache(user.getUsername()));
+    }
+
+    @Test
+    void selectionByIdsOnly() {
+        List<Long> ids = createUsers("byid", 3);
+        UserBulkRequest request = new UserBulkRequest();
+        request.setIds(ids.subList(0, 2));
+        request.setRoleName("ROLE_ADMIN");
+
+        BulkOperationResult granted = userBulkService.grantRole(request);
+
+        assertEquals(2, granted.getUsers());
+        assertFalse(hasRole(userReadModel.findByIds(List.of(ids.get(2))).get(0), "ROLE_ADMIN"));
+    }
+
+    @Test
+    void emailDomainWildcardsMatchLiterally() {
+        List<Long> exact = createUsers("wild_card", 1);
+        List<Long> similar = createUsers("wildxcard", 1);
+
+        BulkOperationResult granted = userBulkService.grantRole(request("wild_card.test", "ROLE_ADMIN"));
+
+        assertEquals(1, granted.getUsers());
+        assertTrue(hasRole(userReadModel.findByIds(exact).get(0), "ROLE_ADMIN"));
+        assertFalse(hasRole(userReadModel.findByIds(similar).get(0), "ROLE_ADMIN"));
+    }
+
+    @Test
+    void emptySelectionIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> userBulkService.deleteUsers(new UserBulkRequest()));
+        assertThrows(IllegalArgumentException.class,
+                () -> userBulkService.grantRole(request("unknown.test", "ROLE_MISSING")));
+    }
+
+    private List<Long> createUsers(String prefix, int count) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User(prefix + i, "Bulk", prefix + i + "@" + prefix + ".test", "password", Gender.FEMALE,
+                    roleService.getRoleByName(new String[]{"ROLE_USER"}));
+            assertTrue(userService.saveUser(user));
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+
+    // Записи массовой операции пишутся сразу в ее транзакции, поэтому видны без ожидания фонового writer-а
+    private AuditEntry assertAudited(long userId, String action, String details) {
+        return auditLog.history(userId, null, null, 10).stream()
+                .filter(entry -> entry.getAction().equals(action) && Objects.equals(entry.getDetails(), details))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No " + action + " audit entry for user " + userId));
+    }
+
+    private static UserBulkRequest request(String emailDomain, String roleName) {
+        UserFilter filter = new UserFilter();
+        filter.setEmailDomain(emailDomain);
+        UserBulkRequest request = new UserBulkRequest();
+        request.setFilter(filter);
+        request.setRoleName(roleName);
+        return request;
+    }
+
+    private static boolean hasRole(User user, String role) {
+        return user.getRole().stream().map(Role::getName).collect(Collectors.toSet()).contains(role);
+    }
+}
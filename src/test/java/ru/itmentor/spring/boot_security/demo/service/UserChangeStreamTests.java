@@ -0,0 +1,220 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/**
+ * Поток /admin/users/changes: продолжение по Last-Event-ID, reset для слишком старого курсора
+ * и отключение подписчика, отставшего больше чем на max-lag.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:changes;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.r2dbc.url=r2dbc:h2:mem:///changes;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.show_sql=false",
+        "logging.level.root=WARN",
+        "app.user-changes.capacity=16",
+        "app.user-changes.max-lag=4",
+        "app.user-changes.heartbeat=PT1H"
+})
+@AutoConfigureMockMvc
+class UserChangeStreamTests {
+
+    private static final Pattern EVENT_ID = Pattern.compile("(?m)^id:(\\d+)$");
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserChangeStream userChangeStream;
+
+    @SpyBean
+    private UserReadModel userReadModel;
+
+    @Test
+    void resumesAfterLastEventId() throws Exception {
+        MvcResult first = subscribe(null);
+        List<Long> ids = publishAndCollect(first, 3);
+
+        MvcResult resumed = subscribe(ids.get(0));
+        List<Long> replayed = awaitIds(resumed, 2);
+
+        assertEquals(ids.subList(1, 3), replayed);
+        assertFalse(content(resumed).contains("event:reset"));
+    }
+
+    @Test
+    void resumesFromExactlyMaxLagBehind() throws Exception {
+        MvcResult first = subscribe(null);
+        List<Long> ids = publishAndCollect(first, 5);
+
+        // Последний полученный - ids[0]: пропущено ровно max-lag (4) изменений, продолжить еще можно
+        MvcResult resumed = subscribe(ids.get(0));
+
+        assertEquals(ids.subList(1, 5), awaitIds(resumed, 4));
+        assertFalse(content(resumed).contains("event:reset"));
+    }
+
+    @Test
+    void tooOldLastEventIdGetsResetAndContinuesFromHead() throws Exception {
+        MvcResult first = subscribe(null);
+        List<Long> ids = publishAndCollect(first, 6);
+
+        // Пропущено 5 изменений - больше max-lag
+        MvcResult resumed = subscribe(ids.get(0));
+        await(resumed, text -> text.contains("event:reset"));
+        assertTrue(ids(content(resumed)).isEmpty());
+
+        List<Long> next = publishAndCollect(first, 1);
+        assertEquals(next, awaitIds(resumed, 1));
+    }
+
+    @Test
+    void subscriberFallingBehindMoreThanMaxLagIsDropped() throws Exception {
+        MvcResult lagging = subscribe(null);
+        // Первая пачка задерживается в чтении read-модели, пока копится пачка больше max-lag
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            loading.countDown();
+            release.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            return invocation.callRealMethod();
+        }).when(userReadModel).findByIds(anyCollection());
+        try {
+            userChangeStream.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 1L, "admin"));
+            assertTrue(loading.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            reset(userReadModel);
+            for (long id = 1000; id < 1010; id++) {
+                userChangeStream.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.DELETED, id, null));
+            }
+        } finally {
+            release.countDown();
+        }
+
+        await(lagging, text -> text.contains("event:reset"));
+        assertTrue(ids(content(lagging)).size() <= 1);
+        // Отстали все открытые подписки, в том числе оставшиеся от других тестов; отключение освобождает их места
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (userChangeStream.getSubscriberCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, userChangeStream.getSubscriberCount());
+    }
+
+    @Test
+    void concurrentSubscriptionsNeverExceedLimit() throws Exception {
+        UserChangeStream stream = new UserChangeStream(userReadModel, new SimpleMeterRegistry(),
+                16, 4, 5, 1, Duration.ofMinutes(1), Duration.ofHours(1));
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Callable<Boolean>> attempts = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                attempts.add(() -> {
+                    start.await();
+                    return stream.subscribe(null) != null;
+                });
+            }
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Callable<Boolean> attempt : attempts) {
+                results.add(executor.submit(attempt));
+            }
+            start.countDown();
+            int subscribed = 0;
+            for (Future<Boolean> result : results) {
+                subscribed += result.get() ? 1 : 0;
+            }
+            assertEquals(5, subscribed);
+            assertEquals(5, stream.getSubscriberCount());
+        } finally {
+            executor.shutdownNow();
+            stream.shutdown();
+        }
+    }
+
+    private MvcResult subscribe(Long lastEventId) throws Exception {
+        MockHttpServletRequestBuilder request = get("/admin/users/changes").with(user("admin").roles("ADMIN"));
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        return mockMvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+    }
+
+    // Публикует count изменений сидированного пользователя по одному (пачка больше max-lag отключила бы подписчика)
+    // и возвращает их номера, полученные подписчиком
+    private List<Long> publishAndCollect(MvcResult subscriber, int count) throws Exception {
+        int before = ids(content(subscriber)).size();
+        for (int i = 1; i <= count; i++) {
+            userChangeStream.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 1L, "admin"));
+            awaitIds(subscriber, before + i);
+        }
+        return ids(content(subscriber)).subList(before, before + count);
+    }
+
+    private List<Long> awaitIds(MvcResult subscriber, int count) throws Exception {
+        await(subscriber, text -> ids(text).size() >= count);
+        return ids(content(subscriber));
+    }
+
+    private void await(MvcResult subscriber, Predicate<String> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.test(content(subscriber))) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Stream did not reach the expected state: " + content(subscriber));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static String content(MvcResult subscriber) throws Exception {
+        return subscriber.getResponse().getContentAsString();
+    }
+
+    private static List<Long> ids(String text) {
+        List<Long> ids = new ArrayList<>();
+        Matcher matcher = EVENT_ID.matcher(text);
+        while (matcher.find()) {
+            ids.add(Long.parseLong(matcher.group(1)));
+        }
+        return ids;
+    }
+}
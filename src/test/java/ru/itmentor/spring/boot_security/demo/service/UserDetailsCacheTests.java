@@ -0,0 +1,117 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.Gender;
+import ru.itmentor.spring.boot_security.demo.model.User;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class UserDetailsCacheTests {
+
+    @Test
+    void userIsFoundByNameAndEmailInAnyCase() {
+        UserDetailsCache cache = cache(Duration.ofMinutes(5), 10);
+        User ivan = user(1, "Ivan");
+
+        cache.putUserInCache(ivan);
+
+        assertSame(ivan, cache.getUserFromCache("ivan"));
+        assertSame(ivan, cache.getUserFromCache("IVAN@mail.test"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void maxSizeLimitsUsersNotKeys() {
+        UserDetailsCache cache = cache(Duration.ofMinutes(5), 2);
+        User first = user(1, "First");
+        User second = user(2, "Second");
+        cache.putUserInCache(first);
+        cache.putUserInCache(second);
+
+        // Два пользователя - четыре ключа, но лимит 2 еще не превышен
+        assertEquals(2, cache.size());
+        assertSame(first, cache.getUserFromCache("first"));
+        assertSame(second, cache.getUserFromCache("second@mail.test"));
+
+        // first использован позже second, поэтому вытесняется second
+        cache.getUserFromCache("first");
+        cache.putUserInCache(user(3, "Third"));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.getUserFromCache("second"));
+        assertNull(cache.getUserFromCache("second@mail.test"));
+        assertSame(first, cache.getUserFromCache("first"));
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    void expiredEntryIsMissAndRemoved() throws InterruptedException {
+        UserDetailsCache cache = cache(Duration.ofMillis(20), 10);
+        cache.putUserInCache(user(1, "Ivan"));
+
+        Thread.sleep(50);
+
+        assertNull(cache.getUserFromCache("ivan"));
+        assertEquals(0, cache.size());
+        assertEquals(1L, cache.getStats().get("expirations"));
+        assertNull(cache.getUserFromCache("ivan@mail.test"));
+    }
+
+    @Test
+    void renamedUserIsInvalidatedByIdUnderOldKeys() {
+        UserDetailsCache cache = cache(Duration.ofMinutes(5), 10);
+        cache.putUserInCache(user(1, "Ivan"));
+
+        cache.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 1L, "Fedor"));
+
+        assertNull(cache.getUserFromCache("ivan"));
+        assertNull(cache.getUserFromCache("ivan@mail.test"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void newVersionReplacesOldKeys() {
+        UserDetailsCache cache = cache(Duration.ofMinutes(5), 10);
+        cache.putUserInCache(user(1, "Ivan"));
+        User renamed = user(1, "Fedor");
+
+        cache.putUserInCache(renamed);
+
+        assertNull(cache.getUserFromCache("ivan"));
+        assertSame(renamed, cache.getUserFromCache("fedor"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void bulkChangeAndFlushClearCache() {
+        UserDetailsCache cache = cache(Duration.ofMinutes(5), 10);
+        cache.putUserInCache(user(1, "Ivan"));
+        cache.putUserInCache(user(2, "Petr"));
+
+        cache.onUsersBulkChanged(new UsersBulkChangedEvent(UserChangedEvent.Type.DELETED, List.of(1L), null));
+        assertEquals(0, cache.size());
+
+        cache.putUserInCache(user(1, "Ivan"));
+        cache.onCachesFlush();
+        assertNull(cache.getUserFromCache("ivan"));
+    }
+
+    private static UserDetailsCache cache(Duration ttl, int maxSize) {
+        return new UserDetailsCache(ttl, maxSize, new SimpleMeterRegistry());
+    }
+
+    private static User user(long id, String name) {
+        User user = new User(name, "Test", name + "@mail.test", "password", Gender.MALE, new HashSet<>());
+        user.setId(id);
+        return user;
+    }
+}
@@ -0,0 +1,182 @@
+package ru.itmentor.spring.boot_security.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import ru.itmentor.spring.boot_security.demo.event.UserChangedEvent;
+import ru.itmentor.spring.boot_security.demo.event.UsersBulkChangedEvent;
+import ru.itmentor.spring.boot_security.demo.model.UserSearchHit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Ранжирование и обновление поискового индекса. Схема - миграция V1 на H2, события вызываются напрямую.
+ */
+class UserSearchIndexTests {
+
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private EmbeddedDatabase database;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private UserSearchIndex searchIndex;
+
+    @BeforeEach
+    void createIndex() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScript("db/migration/V1__baseline.sql")
+                .build();
+        jdbcTemplate = new NamedParameterJdbcTemplate(database);
+        meterRegistry = new SimpleMeterRegistry();
+        searchIndex = new UserSearchIndex(jdbcTemplate, meterRegistry);
+    }
+
+    @AfterEach
+    void shutdown() {
+        searchIndex.shutdown();
+        database.shutdown();
+    }
+
+    @Test
+    void ranksExactThenPrefixThenSubstring() {
+        insert(1, "Ann", "Smith", "ann@mail.ru");
+        insert(2, "Anna", "Petrova", "petrova@mail.ru");
+        insert(3, "Boris", "Annenkov", "boris@mail.ru");
+        insert(4, "Ivan", "Ivanov", "ivan.joanna@mail.ru");
+        insert(5, "Petr", "Hannover", "petr@mail.ru");
+        insert(6, "Olga", "Orlova", "olga.annik@mail.ru");
+        start();
+
+        List<UserSearchHit> hits = searchIndex.search("ANN", 10);
+
+        assertEquals(List.of(1L, 2L, 3L, 6L, 4L, 5L), ids(hits));
+        assertEquals(List.of(100, 80, 70, 50, 20, 20),
+                hits.stream().map(UserSearchHit::getScore).collect(Collectors.toList()));
+    }
+
+    @Test
+    void substringSearchNeedsAllTrigrams() {
+        insert(1, "Alexander", "Pushkin", "pushkin@mail.ru");
+        insert(2, "Alexey", "Tolstoy", "tolstoy@mail.ru");
+        start();
+
+        assertEquals(List.of(1L), ids(searchIndex.search("xande", 10)));
+        assertEquals(List.of(1L), ids(searchIndex.search("shki", 10)));
+        assertTrue(searchIndex.search("zzz", 10).isEmpty());
+        assertTrue(searchIndex.search(" ", 10).isEmpty());
+    }
+
+    @Test
+    void limitKeepsBestHits() {
+        for (long id = 1; id <= 20; id++) {
+            insert(id, "Petr" + id, "Last", "p" + id + "@mail.ru");
+        }
+        insert(21, "Petr", "Last", "petr@mail.ru");
+        start();
+
+        List<UserSearchHit> hits = searchIndex.search("petr", 3);
+
+        assertEquals(3, hits.size());
+        assertEquals(21L, hits.get(0).getId());
+    }
+
+    @Test
+    void updatesAndDeletesAreAppliedAfterEvents() {
+        insert(1, "Ivan", "Ivanov", "ivan@mail.ru");
+        insert(2, "Petr", "Petrov", "petr@mail.ru");
+        start();
+
+        jdbcTemplate.update("update user_with_role set first_name = 'Fedor', email = 'fedor@mail.ru' where user_id = 1",
+                new MapSqlParameterSource());
+        searchIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.UPDATED, 1L, "fedor"));
+        await(() -> !searchIndex.search("fedor", 10).isEmpty());
+        assertTrue(searchIndex.search("ivan@", 10).isEmpty());
+        // Фамилия не менялась и по-прежнему находится
+        assertEquals(List.of(1L), ids(searchIndex.search("ivanov", 10)));
+
+        jdbcTemplate.update("delete from user_with_role where user_id = 2", new MapSqlParameterSource());
+        searchIndex.onUserChanged(new UserChangedEvent(UserChangedEvent.Type.DELETED, 2L, "petr"));
+        await(() -> searchIndex.size() == 1);
+        assertTrue(searchIndex.search("petr", 10).isEmpty());
+
+        insert(3, "Oleg", "Olegov", "oleg@mail.ru");
+        searchIndex.onUsersBulkChanged(new UsersBulkChangedEvent(UserChangedEvent.Type.CREATED, List.of(3L), null));
+        await(() -> searchIndex.size() == 2);
+        assertEquals(List.of(3L), ids(searchIndex.search("oleg", 10)));
+    }
+
+    @Test
+    void compactsWhenDeletedSlotsOutnumberLiveOnes() {
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 600; id++) {
+            insert(id, "User" + id, "Last", "user" + id + "@mail.ru");
+            ids.add(id);
+        }
+        start();
+        assertEquals(600, slots());
+
+        // Каждое изменение занимает новый слот: 600 + 600 слотов, из них 600 удаленных - еще без пересборки
+        searchIndex.onUsersBulkChanged(new UsersBulkChangedEvent(UserChangedEvent.Type.UPDATED, ids, null));
+        await(() -> slots() == 1200);
+        // Еще 600: слотов 1800 > 1024, удаленных 1200 > живых 600 - индекс пересобирается
+        searchIndex.onUsersBulkChanged(new UsersBulkChangedEvent(UserChangedEvent.Type.UPDATED, ids, null));
+        await(() -> slots() == 600);
+
+        assertEquals(600, searchIndex.size());
+        assertEquals(List.of(42L), ids(searchIndex.search("user42@", 10)));
+    }
+
+    private void start() {
+        searchIndex.rebuildOnStartup();
+        await(searchIndex::isReady);
+    }
+
+    private int slots() {
+        return (int) meterRegistry.get("app.user.search.slots").gauge().value();
+    }
+
+    private void insert(long id, String firstName, String lastName, String email) {
+        jdbcTemplate.update("insert into user_with_role (user_id, first_name, last_name, email) " +
+                        "values (:id, :firstName, :lastName, :email)",
+                new MapSqlParameterSource()
+                        .addValue("id", id)
+                        .addValue("firstName", firstName)
+                        .addValue("lastName", lastName)
+                        .addValue("email", email));
+    }
+
+    private static List<Long> ids(List<UserSearchHit> hits) {
+        return hits.stream().map(UserSearchHit::getId).collect(Collectors.toList());
+    }
+
+    private static void await(Supplier<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.get()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not reached in " + WAIT_MILLIS + " ms");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}